@@ -0,0 +1,299 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.oskarmendel.chip8.Headless;
+
+/**
+ * Benchmark harness. Every benchmark is warmed up and then measured over a
+ * number of fixed length iterations, reporting throughput with a 99.9%
+ * confidence interval, bytes allocated per operation and the garbage
+ * collections that happened while measuring.
+ * 
+ * Results are printed and can be written as CSV, two result files can be
+ * compared to see what changed between versions.
+ * 
+ * Usage: Bench [-r rom[,rom...]] [-b filter] [-w warmup] [-i iterations] [-t millis] [-o results.csv]
+ *        Bench -compare base.csv new.csv
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Bench.java
+ */
+public class Bench {
+
+	private static final String HEADER = "benchmark,param,unit,ops_per_s,error,bytes_per_op,gc_count,gc_ms";
+
+	private List<String> roms = new ArrayList<>(Arrays.asList("roms"));
+	private String filter = null;
+	private int warmup = 5;
+	private int iterations = 10;
+	private long iterationMillis = 500;
+	private String output = null;
+
+	private final com.sun.management.ThreadMXBean allocations;
+
+	Bench() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		allocations = threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threads : null;
+	}
+
+	/**
+	 * Result of one benchmark.
+	 */
+	static final class Result {
+		String name;
+		String param;
+		String unit;
+		double score; // Operations per second.
+		double error; // Half width of the 99.9% confidence interval.
+		double bytesPerOp; // Allocated bytes per operation, -1 if unknown.
+		long gcCount;
+		long gcMillis;
+
+		String toCsv() {
+			return String.format("%s,%s,%s,%.1f,%.1f,%.2f,%d,%d", name, param, unit, score, error, bytesPerOp,
+					gcCount, gcMillis);
+		}
+
+		static Result fromCsv(String line) {
+			String[] f = line.split(",");
+			Result r = new Result();
+			r.name = f[0];
+			r.param = f[1];
+			r.unit = f[2];
+			r.score = Double.parseDouble(f[3]);
+			r.error = Double.parseDouble(f[4]);
+			r.bytesPerOp = Double.parseDouble(f[5]);
+			r.gcCount = Long.parseLong(f[6]);
+			r.gcMillis = Long.parseLong(f[7]);
+			return r;
+		}
+	}
+
+	/**
+	 * Warms up and measures a single benchmark.
+	 * 
+	 * @param b - The benchmark.
+	 * @return The result.
+	 * @throws Exception If the benchmark could not be set up.
+	 */
+	Result measure(Benchmark b) throws Exception {
+		b.setUp();
+
+		for (int i = 0; i < warmup; i++) {
+			iteration(b);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : -1;
+		long[] gcBefore = gc();
+		double[] scores = new double[iterations];
+		long totalOps = 0;
+
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			long ops = iteration(b);
+			scores[i] = ops * 1e9 / (System.nanoTime() - start);
+			totalOps += ops;
+		}
+
+		long[] gcAfter = gc();
+		long allocatedAfter = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : -1;
+
+		Result r = new Result();
+		r.name = b.getName();
+		r.param = b.getParam();
+		r.unit = b.getUnit();
+		double mean = 0;
+		for (double s : scores) {
+			mean += s;
+		}
+		mean /= scores.length;
+		double variance = 0;
+		for (double s : scores) {
+			variance += (s - mean) * (s - mean);
+		}
+		variance /= Math.max(1, scores.length - 1);
+		r.score = mean;
+		r.error = 3.291 * Math.sqrt(variance / scores.length);
+		r.bytesPerOp = allocatedBefore < 0 ? -1 : (double) (allocatedAfter - allocatedBefore) / totalOps;
+		r.gcCount = gcAfter[0] - gcBefore[0];
+		r.gcMillis = gcAfter[1] - gcBefore[1];
+		return r;
+	}
+
+	/**
+	 * Runs the benchmark for one iteration.
+	 * 
+	 * @return The number of operations done.
+	 */
+	private long iteration(Benchmark b) {
+		long ops = 0;
+		long end = System.nanoTime() + iterationMillis * 1_000_000L;
+		do {
+			for (int i = 0; i < 64; i++) {
+				ops += b.run();
+			}
+		} while (System.nanoTime() < end);
+		return ops;
+	}
+
+	/**
+	 * Gets the collections and collection time so far over all collectors.
+	 */
+	private static long[] gc() {
+		long count = 0;
+		long millis = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, bean.getCollectionCount());
+			millis += Math.max(0, bean.getCollectionTime());
+		}
+		return new long[] { count, millis };
+	}
+
+	void run() throws Exception {
+		List<Benchmark> benchmarks = Benchmarks.all(Headless.collectRoms(roms));
+
+		PrintWriter out = null;
+		if (output != null) {
+			out = new PrintWriter(new FileWriter(output));
+			out.println("# " + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()) + " "
+					+ System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+			out.println(HEADER);
+		}
+
+		System.out.printf("%-14s %-10s %18s %12s %8s %10s %6s%n", "benchmark", "param", "ops/s", "error", "unit",
+				"B/op", "gc");
+		for (Benchmark b : benchmarks) {
+			if (filter != null && !b.getName().contains(filter)) {
+				continue;
+			}
+
+			Result r = measure(b);
+			System.out.printf("%-14s %-10s %,18.0f %12s %8s %10.2f %6d%n", r.name, r.param, r.score,
+					String.format("+- %,.0f", r.error), r.unit, r.bytesPerOp, r.gcCount);
+			if (out != null) {
+				out.println(r.toCsv());
+				out.flush();
+			}
+		}
+
+		if (out != null) {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a results file.
+	 */
+	static Map<String, Result> load(String file) throws IOException {
+		Map<String, Result> results = new LinkedHashMap<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				if (line.startsWith("#") || line.equals(HEADER) || line.trim().isEmpty()) {
+					continue;
+				}
+				Result r = Result.fromCsv(line);
+				results.put(r.name + "/" + r.param, r);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Prints how every benchmark in the new results changed from the base results.
+	 */
+	static void compare(String baseFile, String newFile) throws IOException {
+		Map<String, Result> base = load(baseFile);
+		Map<String, Result> current = load(newFile);
+
+		System.out.printf("%-26s %18s %18s %9s%n", "benchmark", "base ops/s", "new ops/s", "change");
+		for (Map.Entry<String, Result> e : current.entrySet()) {
+			Result n = e.getValue();
+			Result b = base.get(e.getKey());
+			if (b == null) {
+				System.out.printf("%-26s %18s %,18.0f %9s%n", e.getKey(), "-", n.score, "new");
+				continue;
+			}
+
+			double change = (n.score - b.score) / b.score * 100;
+			// Only call it a change when the confidence intervals don't overlap.
+			boolean significant = Math.abs(n.score - b.score) > n.error + b.error;
+			System.out.printf("%-26s %,18.0f %,18.0f %+8.1f%%%s%n", e.getKey(), b.score, n.score, change,
+					significant ? "" : " ~");
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("-compare")) {
+			compare(args[1], args[2]);
+			return;
+		}
+
+		Bench bench = new Bench();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-r":
+				bench.roms = Arrays.asList(args[++i].split(","));
+				break;
+			case "-b":
+				bench.filter = args[++i];
+				break;
+			case "-w":
+				bench.warmup = Integer.parseInt(args[++i]);
+				break;
+			case "-i":
+				bench.iterations = Integer.parseInt(args[++i]);
+				break;
+			case "-t":
+				bench.iterationMillis = Long.parseLong(args[++i]);
+				break;
+			case "-o":
+				bench.output = args[++i];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		bench.run();
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8.bench;
+
+/**
+ * A single benchmark case. The harness calls {@link #setUp()} once and then
+ * {@link #run()} over and over, timing how many operations get done.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Benchmark.java
+ */
+public abstract class Benchmark {
+
+	private final String name;
+	private final String param;
+	private final String unit;
+
+	/**
+	 * Result of every run is folded in here so the JIT can't drop the work.
+	 */
+	protected long sink;
+
+	/**
+	 * Creates a benchmark.
+	 * 
+	 * @param name - Name of the benchmark.
+	 * @param param - The parameter, for example the ROM, or "-" if there is none.
+	 * @param unit - What one operation is, for example "instr" or "frame".
+	 */
+	protected Benchmark(String name, String param, String unit) {
+		this.name = name;
+		this.param = param;
+		this.unit = unit;
+	}
+
+	/**
+	 * Prepares the benchmark, not timed.
+	 * 
+	 * @throws Exception If the benchmark can't run.
+	 */
+	public void setUp() throws Exception {
+	}
+
+	/**
+	 * Runs a batch of operations.
+	 * 
+	 * @return The number of operations done.
+	 */
+	public abstract long run();
+
+	public String getName() {
+		return this.name;
+	}
+
+	public String getParam() {
+		return this.param;
+	}
+
+	public String getUnit() {
+		return this.unit;
+	}
+
+	public long getSink() {
+		return this.sink;
+	}
+}
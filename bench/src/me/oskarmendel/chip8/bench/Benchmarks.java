@@ -0,0 +1,441 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.oskarmendel.chip8.FrameBuffer;
+import me.oskarmendel.chip8.Instruction;
+import me.oskarmendel.chip8.Instructions;
+import me.oskarmendel.chip8.KeyState;
+import me.oskarmendel.chip8.Lockstep;
+import me.oskarmendel.chip8.Memory;
+import me.oskarmendel.chip8.Scheduler;
+import me.oskarmendel.chip8.TripleBuffer;
+
+/**
+ * The benchmark suite. Machine level benchmarks run once per selected ROM.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Benchmarks.java
+ */
+public final class Benchmarks {
+
+	private static final int BATCH = 1000; // Instructions per run of the interpreter benchmarks.
+	private static final int TIMER_TICK = 10; // Instructions between timer ticks.
+	private static final int MACHINES = 256; // Machines run side by side by the lockstep benchmarks.
+
+	private Benchmarks() {
+	}
+
+	/**
+	 * Creates every benchmark.
+	 * 
+	 * @param roms - ROM files to run the machine level benchmarks on.
+	 * @return The benchmarks.
+	 */
+	public static List<Benchmark> all(List<File> roms) {
+		List<Benchmark> all = new ArrayList<>();
+		for (File rom : roms) {
+			all.add(new Interpreter("interpreter", rom, false, false));
+			all.add(new Interpreter("decodeCache", rom, true, false));
+			all.add(new Interpreter("blockCompiler", rom, true, true));
+			all.add(new Frame(rom));
+			all.add(new Lockstepped(rom));
+			all.add(new Separate(rom));
+		}
+		all.add(new Sprite());
+		all.add(new Clear());
+		all.add(new Render());
+		all.add(new RenderPerPixel());
+		return all;
+	}
+
+	/**
+	 * Creates a machine running target ROM.
+	 */
+	static Memory machine(byte[] program, FrameBuffer frameBuffer) {
+		Memory memory = new Memory(frameBuffer, new KeyState());
+		memory.loadProgram(program);
+		return memory;
+	}
+
+	static byte[] read(File rom) throws IOException {
+		return Files.readAllBytes(rom.toPath());
+	}
+
+	/**
+	 * Raw fetch and decode throughput on a ROM, through the plain interpreter,
+	 * the decode cache or the block compiler.
+	 */
+	static final class Interpreter extends Benchmark {
+		private final File rom;
+		private final boolean decodeCache;
+		private final boolean compile;
+		private byte[] program;
+		private FrameBuffer frameBuffer = new FrameBuffer();
+		private Memory memory;
+
+		Interpreter(String name, File rom, boolean decodeCache, boolean compile) {
+			super(name, rom.getName(), "instr");
+			this.rom = rom;
+			this.decodeCache = decodeCache;
+			this.compile = compile;
+		}
+
+		@Override
+		public void setUp() throws IOException {
+			program = read(rom);
+			reset();
+		}
+
+		private void reset() {
+			frameBuffer.clear();
+			memory = machine(program, frameBuffer);
+			memory.setDecodeCache(decodeCache);
+			memory.setBlockCompiler(compile);
+		}
+
+		@Override
+		public long run() {
+			try {
+				if (decodeCache || compile) {
+					for (int i = 0; i < BATCH; i += TIMER_TICK) {
+						memory.step(TIMER_TICK);
+						memory.tickTimers();
+					}
+				} else {
+					for (int i = 0; i < BATCH; i += TIMER_TICK) {
+						for (int j = 0; j < TIMER_TICK; j++) {
+							memory.fetchOpcode();
+							memory.decodeOpcode();
+						}
+						memory.tickTimers();
+					}
+				}
+			} catch (RuntimeException e) {
+				// The ROM crashed, start it over so the benchmark keeps going.
+				reset();
+			}
+			sink += memory.getProgramCounter();
+			return BATCH;
+		}
+	}
+
+	/**
+	 * Whole frames as the emulation thread runs them: a frame of instructions,
+	 * a timer tick and handing the frame to the renderer.
+	 */
+	static final class Frame extends Benchmark {
+		private final File rom;
+		private byte[] program;
+		private FrameBuffer frameBuffer = new FrameBuffer();
+		private TripleBuffer<FrameBuffer> frames = new TripleBuffer<>(new FrameBuffer(), new FrameBuffer(),
+				new FrameBuffer());
+		private Scheduler scheduler;
+
+		Frame(File rom) {
+			super("frame", rom.getName(), "frame");
+			this.rom = rom;
+		}
+
+		@Override
+		public void setUp() throws IOException {
+			program = read(rom);
+			reset();
+		}
+
+		private void reset() {
+			frameBuffer.clear();
+			Memory memory = machine(program, frameBuffer);
+			memory.setDecodeCache(true);
+			scheduler = new Scheduler(memory);
+		}
+
+		@Override
+		public long run() {
+			try {
+				scheduler.runFrame();
+			} catch (RuntimeException e) {
+				reset();
+			}
+			if (frameBuffer.takeDirtyRows() != 0) {
+				frameBuffer.copyTo(frames.back());
+				frames.publish();
+			}
+			FrameBuffer latest = frames.latest();
+			if (latest != null) {
+				sink += latest.getRow(0);
+			}
+			return 1;
+		}
+	}
+
+	/**
+	 * A frame of many machines of the same ROM on a {@link Lockstep} engine.
+	 */
+	static final class Lockstepped extends Benchmark {
+		private final File rom;
+		private byte[] program;
+		private Lockstep lockstep;
+
+		Lockstepped(File rom) {
+			super("lockstep", rom.getName(), "instr");
+			this.rom = rom;
+		}
+
+		@Override
+		public void setUp() throws IOException {
+			program = read(rom);
+			reset();
+		}
+
+		private void reset() {
+			lockstep = new Lockstep(program, MACHINES);
+			for (int m = 0; m < MACHINES; m++) {
+				lockstep.setSeed(m, m);
+			}
+		}
+
+		@Override
+		public long run() {
+			if (lockstep.getRunning() == 0) {
+				reset();
+			}
+			int running = lockstep.getRunning();
+			lockstep.runFrame(TIMER_TICK);
+			sink += lockstep.getProgramCounter(0);
+			return running * (long) TIMER_TICK;
+		}
+	}
+
+	/**
+	 * The same work as {@link Lockstepped}, every machine on its own
+	 * interpreter with the decode cache.
+	 */
+	static final class Separate extends Benchmark {
+		private final File rom;
+		private byte[] program;
+		private Scheduler[] schedulers = new Scheduler[MACHINES];
+		private Memory[] memories = new Memory[MACHINES];
+
+		Separate(File rom) {
+			super("separate", rom.getName(), "instr");
+			this.rom = rom;
+		}
+
+		@Override
+		public void setUp() throws IOException {
+			program = read(rom);
+			for (int m = 0; m < MACHINES; m++) {
+				reset(m);
+			}
+		}
+
+		private void reset(int m) {
+			memories[m] = machine(program, new FrameBuffer());
+			memories[m].setDecodeCache(true);
+			memories[m].setSeed(m);
+			schedulers[m] = new Scheduler(memories[m]);
+			schedulers[m].setInstructionsPerFrame(TIMER_TICK);
+		}
+
+		@Override
+		public long run() {
+			for (int m = 0; m < MACHINES; m++) {
+				try {
+					schedulers[m].runFrame();
+				} catch (RuntimeException e) {
+					reset(m);
+				}
+			}
+			sink += memories[0].getProgramCounter();
+			return MACHINES * (long) TIMER_TICK;
+		}
+	}
+
+	/**
+	 * DXYN drawing a 5 row font sprite at changing coordinates.
+	 */
+	static final class Sprite extends Benchmark {
+		private Memory memory;
+		private Instruction[] setX = new Instruction[64];
+		private Instruction[] setY = new Instruction[32];
+		private Instruction draw = Instructions.get(0xD015);
+		private int n;
+
+		Sprite() {
+			super("sprite", "-", "draw");
+		}
+
+		@Override
+		public void setUp() {
+			memory = machine(new byte[0], new FrameBuffer());
+			for (int x = 0; x < setX.length; x++) {
+				setX[x] = Instructions.get(0x6000 | x);
+			}
+			for (int y = 0; y < setY.length; y++) {
+				setY[y] = Instructions.get(0x6100 | y);
+			}
+			Instructions.get(0xA000 | 0x14).execute(memory); // I = font sprite for 4.
+		}
+
+		@Override
+		public long run() {
+			for (int i = 0; i < 64; i++) {
+				n = (n + 7) & 0x7FF;
+				setX[n & 63].execute(memory);
+				setY[(n >>> 6) & 31].execute(memory);
+				draw.execute(memory);
+			}
+			sink += memory.getProgramCounter();
+			return 64;
+		}
+	}
+
+	/**
+	 * Clearing a full screen.
+	 */
+	static final class Clear extends Benchmark {
+		private FrameBuffer frameBuffer = new FrameBuffer();
+		private long[] pattern = new long[FrameBuffer.HEIGHT];
+
+		Clear() {
+			super("clear", "-", "clear");
+		}
+
+		@Override
+		public void setUp() {
+			for (int y = 0; y < pattern.length; y++) {
+				pattern[y] = 0x5555555555555555L << (y & 1);
+			}
+		}
+
+		@Override
+		public long run() {
+			frameBuffer.setRows(pattern);
+			frameBuffer.clear();
+			sink += frameBuffer.takeDirtyRows();
+			return 1;
+		}
+	}
+
+	/**
+	 * The toolkit free part of rendering a frame: finding the rows that changed
+	 * and expanding them into ARGB pixels. The upload into the JavaFX image
+	 * needs a running toolkit and is left out.
+	 */
+	static final class Render extends Benchmark {
+		private long[][] frames = new long[8][FrameBuffer.HEIGHT];
+		private long[] shown = new long[FrameBuffer.HEIGHT];
+		private int[] image = new int[FrameBuffer.WIDTH * FrameBuffer.HEIGHT];
+		private int[] line = new int[FrameBuffer.WIDTH];
+		private int n;
+
+		Render() {
+			super("render", "-", "frame");
+		}
+
+		@Override
+		public void setUp() {
+			movingSprite(frames);
+		}
+
+		@Override
+		public long run() {
+			long[] rows = frames[n++ & 7];
+			int dirty = FrameBuffer.diff(rows, shown);
+			while (dirty != 0) {
+				int y = Integer.numberOfTrailingZeros(dirty);
+				dirty &= dirty - 1;
+
+				shown[y] = rows[y];
+				FrameBuffer.expandRow(rows[y], line, 0xFFFFFFFF, 0xFF000000);
+				System.arraycopy(line, 0, image, y * FrameBuffer.WIDTH, FrameBuffer.WIDTH);
+			}
+			sink += image[n & 2047];
+			return 1;
+		}
+	}
+
+	/**
+	 * Rendering a frame the way the screen did before it uploaded changed rows
+	 * into an image: every pixel of every frame filled as a 12x12 block, into
+	 * an ARGB buffer the size of the old canvas. The same frames as the render
+	 * benchmark, which stands for the image upload.
+	 */
+	static final class RenderPerPixel extends Benchmark {
+		private static final int SCALE = 12; // Canvas pixels per CHIP-8 pixel, as the old screen drew them.
+		private static final int CANVAS_WIDTH = FrameBuffer.WIDTH * SCALE;
+		private long[][] frames = new long[8][FrameBuffer.HEIGHT];
+		private int[] canvas = new int[CANVAS_WIDTH * FrameBuffer.HEIGHT * SCALE];
+		private int n;
+
+		RenderPerPixel() {
+			super("renderPerPixel", "-", "frame");
+		}
+
+		@Override
+		public void setUp() {
+			movingSprite(frames);
+		}
+
+		@Override
+		public long run() {
+			long[] rows = frames[n++ & 7];
+			for (int y = 0; y < FrameBuffer.HEIGHT; y++) {
+				long row = rows[y];
+				for (int x = 0; x < FrameBuffer.WIDTH; x++) {
+					fillRect(x * SCALE, y * SCALE, (row << x) < 0 ? 0xFFFFFFFF : 0xFF000000);
+				}
+			}
+			sink += canvas[n & 2047];
+			return 1;
+		}
+
+		private void fillRect(int x, int y, int color) {
+			for (int line = y; line < y + SCALE; line++) {
+				Arrays.fill(canvas, line * CANVAS_WIDTH + x, line * CANVAS_WIDTH + x + SCALE, color);
+			}
+		}
+	}
+
+	/**
+	 * Fills frames with a sprite moving down the screen, a few rows change
+	 * between frames.
+	 */
+	static void movingSprite(long[][] frames) {
+		for (int f = 0; f < frames.length; f++) {
+			for (int y = 0; y < 5; y++) {
+				frames[f][f * 3 + y] = 0xF0L << (8 * f);
+			}
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import me.oskarmendel.chip8.FrameBuffer;
+import me.oskarmendel.chip8.Mode;
+import me.oskarmendel.chip8.SpectatorServer;
+import me.oskarmendel.chip8.SpectatorViewer;
+
+/**
+ * Self checking run of a {@link SpectatorServer} and its viewers over
+ * localhost. It checks that a viewer rebuilds every frame exactly from a
+ * keyframe and the deltas after it, that a slow viewer skips ahead with a
+ * new keyframe instead of falling further behind and that viewers which stop
+ * reading or send a bad request are closed while the others keep getting
+ * frames.
+ * 
+ * Usage: SpectatorCheck
+ * 
+ * Prints a line per check and exits with status 1 if any of them failed.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name SpectatorCheck.java
+ */
+public class SpectatorCheck {
+
+	private static final String HOST = "127.0.0.1";
+	private static final long TIMEOUT_MILLIS = 5000; // Longest wait for the server to do something.
+	private static final long STALL_MILLIS = 300; // Shorter than the default to keep the run short.
+	private static final int FRAMES = 200; // Frames published one at a time for the exact check.
+	private static final long PUBLISH_MILLIS = 2; // Time between frames, faster than the server sends them.
+	private static final long SLOW_READ_MILLIS = 100; // Time the slow viewer takes per message.
+	private static final int MAX_REQUEST = 64;
+
+	private final SpectatorServer server = new SpectatorServer(0);
+	private final SpectatorServer.Stream stream = server.addStream("check");
+	private final FrameBuffer frame = new FrameBuffer();
+	private final Random random = new Random(1);
+	private final ExecutorService readers = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "spectator-check-reader");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private int port;
+	private int failures;
+
+	public static void main(String[] args) throws Exception {
+		System.exit(new SpectatorCheck().run() ? 0 : 1);
+	}
+
+	/**
+	 * Runs every check against a server of its own.
+	 * 
+	 * @return True if all of them passed.
+	 * @throws Exception If a viewer could not connect or a read failed.
+	 */
+	boolean run() throws Exception {
+		server.setStallMillis(STALL_MILLIS);
+		server.start();
+		port = server.getPort();
+		try {
+			rebuildsFrames();
+			skipsAheadWhenSlow();
+			closesBadViewers();
+		} finally {
+			server.stop();
+			readers.shutdownNow();
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		return failures == 0;
+	}
+
+	/**
+	 * Publishes frames one at a time and reads each one back.
+	 */
+	private void rebuildsFrames() throws Exception {
+		SpectatorViewer viewer = new SpectatorViewer(HOST, port, stream.getId());
+		try {
+			draw();
+			stream.publish(frame);
+			boolean exact = Arrays.equals(state(next(viewer)), state(frame));
+			check(viewer.getKeyframes() == 1 && viewer.getDeltas() == 0, "a new viewer starts with a keyframe");
+
+			for (int i = 0; i < FRAMES; i++) {
+				draw();
+				stream.publish(frame);
+				exact &= Arrays.equals(state(next(viewer)), state(frame));
+			}
+			check(exact, "the keyframe and deltas rebuild every frame exactly");
+			check(viewer.getKeyframes() == 1 && viewer.getDeltas() == FRAMES,
+					"a viewer that keeps up gets a delta per frame");
+
+			frame.setMode(Mode.SCHIP);
+			frame.setHighResolution(true);
+			draw();
+			stream.publish(frame);
+			exact = Arrays.equals(state(next(viewer)), state(frame));
+			check(exact && viewer.getKeyframes() == 2, "a change of mode is sent as a keyframe");
+		} finally {
+			viewer.close();
+		}
+	}
+
+	/**
+	 * Publishes much faster than a viewer reads.
+	 */
+	private void skipsAheadWhenSlow() throws Exception {
+		long skipped = server.getSkipped();
+		Reader slow = new Reader(new SpectatorViewer(HOST, port, stream.getId()), SLOW_READ_MILLIS);
+		Future<Void> reading = readers.submit(slow);
+
+		publishFor(1000);
+		check(await(() -> Arrays.equals(slow.latest, state(frame))), "a slow viewer catches up to the latest frame");
+		slow.viewer.close();
+		finish(reading);
+
+		check(server.getSkipped() > skipped, "the server counts the frames a slow viewer skipped");
+		check(slow.viewer.getKeyframes() > 1, "a slow viewer skips ahead with a keyframe");
+	}
+
+	/**
+	 * Connects a viewer that never reads and some with bad requests next to
+	 * one that keeps up.
+	 */
+	private void closesBadViewers() throws Exception {
+		Reader good = new Reader(new SpectatorViewer(HOST, port, stream.getId()), 0);
+		Future<Void> reading = readers.submit(good);
+		long dropped = server.getDropped();
+
+		Socket stalled = connect("" + stream.getId() + "\n");
+		char[] tooLong = new char[MAX_REQUEST];
+		Arrays.fill(tooLong, '0');
+		Socket[] bad = { connect("abc\n"), connect("99\n"), connect("-1\n"), connect(new String(tooLong)) };
+
+		long before = good.messages;
+		publishFor(STALL_MILLIS * 3);
+		check(await(() -> server.getDropped() == dropped + 1), "a viewer that stopped reading is dropped");
+		check(isClosed(stalled), "the connection of a dropped viewer is closed");
+		boolean closed = true;
+		for (Socket socket : bad) {
+			closed &= isClosed(socket);
+		}
+		check(closed, "viewers asking for no stream or a bad one are closed");
+		check(good.messages - before > 1 && await(() -> Arrays.equals(good.latest, state(frame))),
+				"a viewer that keeps up keeps getting frames next to them");
+		check(await(() -> server.getViewers() == 1), "only the viewer that keeps up is left connected");
+
+		good.viewer.close();
+		finish(reading);
+	}
+
+	/**
+	 * Reads a viewer until it is closed, taking its time over every message.
+	 */
+	private static final class Reader implements Callable<Void> {
+		final SpectatorViewer viewer;
+		final long pauseMillis;
+		volatile byte[] latest; // The frame the viewer shows, as written by writeState.
+		volatile long messages;
+
+		Reader(SpectatorViewer viewer, long pauseMillis) {
+			this.viewer = viewer;
+			this.pauseMillis = pauseMillis;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			try {
+				while (true) {
+					latest = state(viewer.next());
+					messages++;
+					if (pauseMillis > 0) {
+						Thread.sleep(pauseMillis);
+					}
+				}
+			} catch (IOException e) {
+				// Closed by the check.
+				return null;
+			}
+		}
+	}
+
+	private void check(boolean passed, String what) {
+		System.out.println((passed ? "ok    " : "FAIL  ") + what);
+		if (!passed) {
+			failures++;
+		}
+	}
+
+	/**
+	 * Draws a few random sprite rows into the frame.
+	 */
+	private void draw() {
+		for (int i = 0; i < 4; i++) {
+			frame.drawRow(random.nextInt(frame.getWidth()), random.nextInt(frame.getHeight()), random.nextInt(256));
+		}
+	}
+
+	private void publishFor(long millis) throws InterruptedException {
+		long end = System.currentTimeMillis() + millis;
+		while (System.currentTimeMillis() < end) {
+			draw();
+			stream.publish(frame);
+			Thread.sleep(PUBLISH_MILLIS);
+		}
+	}
+
+	private FrameBuffer next(SpectatorViewer viewer) throws Exception {
+		return readers.submit(viewer::next).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static void finish(Future<Void> reading) throws InterruptedException, ExecutionException, TimeoutException {
+		reading.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static byte[] state(FrameBuffer frameBuffer) {
+		ByteBuffer state = ByteBuffer.allocate(FrameBuffer.stateSize(frameBuffer.getMode()));
+		frameBuffer.writeState(state);
+		return state.array();
+	}
+
+	private static boolean await(BooleanSupplier condition) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > end) {
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	/**
+	 * Connects a raw socket with a small receive buffer and sends a request
+	 * on it, nothing is ever read from it unless the check wants to.
+	 */
+	private Socket connect(String request) throws IOException {
+		Socket socket = new Socket();
+		socket.setReceiveBufferSize(1024);
+		socket.connect(new InetSocketAddress(HOST, port));
+		socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+		return socket;
+	}
+
+	/**
+	 * Reads what is left on a socket until the server closes it.
+	 * 
+	 * @return False if the server kept it open.
+	 */
+	private static boolean isClosed(Socket socket) throws IOException {
+		socket.setSoTimeout((int) TIMEOUT_MILLIS);
+		byte[] buffer = new byte[4096];
+		try (InputStream in = socket.getInputStream()) {
+			while (in.read(buffer) >= 0) {
+				// Messages sent before it was closed.
+			}
+			return true;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} catch (IOException e) {
+			// Reset by the server.
+			return true;
+		}
+	}
+}
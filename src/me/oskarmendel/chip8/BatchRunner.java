@@ -0,0 +1,317 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs many independent machines headless across all cores. Every job runs a
+ * ROM for a number of frames with scripted input and reports hashes of the
+ * final frame buffer and memory, the instruction count and the time it took.
+ * Results are written as soon as each job finishes.
+ * 
+ * Usage: BatchRunner [-n frames] [-m machines per ROM] [-s script] [-p threads] [-o results.csv] [-l] [-x mode] [-w port] [rom or directory ...]
+ * 
+ * Without a script every machine gets random key taps seeded with its number.
+ * The random number generator of every machine is seeded with its number too,
+ * or with the seed in the script if it has one, so every run of a batch gives
+ * the same hashes.
+ * 
+ * -l runs all machines of a ROM together on a {@link Lockstep} engine, one job
+ * per ROM, instead of a job per machine. The results are the same, except for
+ * scripts with key events inside frames, which the lockstep engine applies at
+ * the start of the frame. The lockstep engine only runs plain CHIP-8, ROMs
+ * in other modes get a job per machine as usual.
+ * 
+ * Every ROM runs in the mode given with -x, else the mode in the script, else
+ * its own, see {@link RomLibrary#modeOf(File)}.
+ * 
+ * -w serves the display of every machine not on the lockstep engine to
+ * spectators on the given local port, see {@link SpectatorServer}, a stream
+ * per machine named after its ROM and number.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name BatchRunner.java
+ */
+public class BatchRunner {
+
+	public static final String HEADER = "rom,machine,frames,instructions,frame_hash,memory_hash,millis,status";
+
+	private long frames = 3600;
+	private int machinesPerRom = 1;
+	private File script = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String output = null;
+	private boolean lockstep = false;
+	private Mode mode = null; // Mode to run every ROM in, null for their own.
+	private SpectatorServer spectatorServer = null;
+
+	/**
+	 * Outcome of a single machine.
+	 */
+	public static final class Result {
+		public String rom;
+		public int machine;
+		public long frames;
+		public long instructions;
+		public long frameHash;
+		public long memoryHash;
+		public long nanos;
+		public String status;
+
+		public String toCsv() {
+			return String.format("%s,%d,%d,%d,%016x,%016x,%.3f,%s", rom, machine, frames, instructions, frameHash,
+					memoryHash, nanos / 1e6, status);
+		}
+	}
+
+	/**
+	 * Runs one machine to completion.
+	 * 
+	 * @param name - Name of the ROM.
+	 * @param program - The program to run.
+	 * @param mode - The mode to run it in.
+	 * @param analysis - Analysis of the program, used to decode it ahead of time.
+	 * @param machine - Number of the machine, used to seed its input and random numbers.
+	 * @param input - The input to feed it.
+	 * @param frames - Number of frames to run.
+	 * @param spectators - Stream the frames that changed the screen are published to, or null.
+	 * @return The result.
+	 */
+	public static Result runMachine(String name, byte[] program, Mode mode, RomAnalyzer analysis, int machine,
+			InputScript input, long frames, SpectatorServer.Stream spectators) {
+		FrameBuffer frameBuffer = new FrameBuffer();
+		KeyState keys = new KeyState();
+		Memory memory = new Memory(frameBuffer, keys, mode);
+		memory.loadProgram(program);
+		memory.setDecodeCache(true);
+		memory.prewarm(analysis);
+		memory.setSeed(input.hasSeed() ? input.getSeed() : machine);
+		Scheduler scheduler = new Scheduler(memory);
+		if (input.getInstructionsPerFrame() > 0) {
+			scheduler.setInstructionsPerFrame(input.getInstructionsPerFrame());
+		}
+		KeyTimeline timeline = new KeyTimeline(keys, 0);
+		scheduler.setInput(timeline);
+
+		Result r = new Result();
+		r.rom = name;
+		r.machine = machine;
+		r.status = "ok";
+
+		long start = System.nanoTime();
+		int cursor = 0;
+		try {
+			for (long frame = 0; frame < frames; frame++) {
+				cursor = input.apply(frame, timeline, cursor);
+				scheduler.runFrame();
+				if (spectators != null && frameBuffer.takeDirtyRows() != 0) {
+					spectators.publish(frameBuffer);
+				}
+			}
+		} catch (RuntimeException e) {
+			r.status = "halted at " + Integer.toHexString(memory.getProgramCounter());
+		}
+		r.nanos = System.nanoTime() - start;
+		r.frames = scheduler.getFrames();
+		r.instructions = scheduler.getInstructions();
+		r.frameHash = frameBuffer.hash();
+		r.memoryHash = memory.hash();
+		return r;
+	}
+
+	/**
+	 * Runs machines of one ROM together on a {@link Lockstep} engine.
+	 * 
+	 * @param name - Name of the ROM.
+	 * @param program - The program to run.
+	 * @param machines - Number of machines.
+	 * @param shared - Input for every machine or null for random key taps
+	 *            seeded with the machine number.
+	 * @param frames - Number of frames to run.
+	 * @return A result per machine, the time is the total split evenly.
+	 */
+	public static List<Result> runLockstep(String name, byte[] program, int machines, InputScript shared,
+			long frames) {
+		Lockstep lockstep = new Lockstep(program, machines);
+		InputScript[] inputs = new InputScript[machines];
+		KeyState[] keys = new KeyState[machines];
+		int[] cursors = new int[machines];
+		for (int m = 0; m < machines; m++) {
+			inputs[m] = shared != null ? shared : InputScript.random(m, frames);
+			keys[m] = new KeyState();
+			lockstep.setSeed(m, inputs[m].hasSeed() ? inputs[m].getSeed() : m);
+		}
+		int instructionsPerFrame = shared != null && shared.getInstructionsPerFrame() > 0
+				? shared.getInstructionsPerFrame()
+				: Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND / Scheduler.FRAME_RATE;
+
+		long start = System.nanoTime();
+		for (long frame = 0; frame < frames && lockstep.getRunning() > 0; frame++) {
+			for (int m = 0; m < machines; m++) {
+				cursors[m] = inputs[m].apply(frame, keys[m], cursors[m]);
+				lockstep.setKeys(m, keys[m]);
+			}
+			lockstep.runFrame(instructionsPerFrame);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		List<Result> results = new ArrayList<>();
+		for (int m = 0; m < machines; m++) {
+			Result r = new Result();
+			r.rom = name;
+			r.machine = m;
+			r.status = lockstep.isHalted(m) ? "halted at " + Integer.toHexString(lockstep.getProgramCounter(m)) : "ok";
+			r.nanos = elapsed / machines;
+			r.frames = lockstep.getFrames(m);
+			r.instructions = lockstep.getInstructions(m);
+			r.frameHash = lockstep.frameHash(m);
+			r.memoryHash = lockstep.memoryHash(m);
+			results.add(r);
+		}
+		return results;
+	}
+
+	void run(List<File> roms) throws IOException, InterruptedException {
+		InputScript shared = script != null ? InputScript.read(script) : null;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		CompletionService<List<Result>> results = new ExecutorCompletionService<>(pool);
+		int jobs = 0;
+		long start = System.nanoTime();
+
+		for (File rom : roms) {
+			byte[] program = Files.readAllBytes(rom.toPath());
+			String name = rom.getName();
+			Mode romMode = mode != null ? mode
+					: shared != null && shared.getMode() != null ? shared.getMode() : RomLibrary.modeOf(rom);
+			RomAnalyzer analysis = RomAnalyzer.analyze(program, romMode);
+			if (lockstep && romMode == Mode.CHIP8) {
+				results.submit(() -> runLockstep(name, program, machinesPerRom, shared, frames));
+				jobs++;
+				continue;
+			}
+			for (int m = 0; m < machinesPerRom; m++) {
+				final int machine = m;
+				SpectatorServer.Stream stream = spectatorServer != null ? spectatorServer.addStream(name + "#" + m)
+						: null;
+				results.submit(() -> Collections.singletonList(runMachine(name, program, romMode, analysis, machine,
+						shared != null ? shared : InputScript.random(machine, frames), frames, stream)));
+				jobs++;
+			}
+		}
+
+		PrintWriter out = new PrintWriter(output != null ? new FileWriter(output) : new PrintWriter(System.out));
+		out.println(HEADER);
+		long instructions = 0;
+		int machines = 0;
+		int failed = 0;
+		for (int i = 0; i < jobs; i++) {
+			try {
+				for (Result r : results.take().get()) {
+					machines++;
+					instructions += r.instructions;
+					if (!r.status.equals("ok")) {
+						failed++;
+					}
+					out.println(r.toCsv());
+				}
+				out.flush();
+			} catch (ExecutionException e) {
+				failed++;
+				e.getCause().printStackTrace();
+			}
+		}
+		if (output != null) {
+			out.close();
+		}
+		pool.shutdown();
+
+		long elapsed = System.nanoTime() - start;
+		System.err.printf("%d machines, %d halted, %,d instructions in %.1f s, %,.0f IPS on %d threads%n", machines,
+				failed, instructions, elapsed / 1e9, instructions * 1e9 / elapsed, threads);
+	}
+
+	public static void main(String[] args) throws Exception {
+		BatchRunner runner = new BatchRunner();
+		List<String> paths = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-n":
+				runner.frames = Long.parseLong(args[++i]);
+				break;
+			case "-m":
+				runner.machinesPerRom = Integer.parseInt(args[++i]);
+				break;
+			case "-s":
+				runner.script = new File(args[++i]);
+				break;
+			case "-p":
+				runner.threads = Integer.parseInt(args[++i]);
+				break;
+			case "-o":
+				runner.output = args[++i];
+				break;
+			case "-l":
+				runner.lockstep = true;
+				break;
+			case "-x":
+				runner.mode = Mode.parse(args[++i]);
+				break;
+			case "-w":
+				runner.spectatorServer = new SpectatorServer(Integer.parseInt(args[++i]));
+				break;
+			default:
+				paths.add(args[i]);
+				break;
+			}
+		}
+
+		if (paths.isEmpty()) {
+			paths.add("roms");
+		}
+
+		if (runner.spectatorServer != null) {
+			runner.spectatorServer.start();
+			System.err.println("Spectators on port " + runner.spectatorServer.getPort());
+		}
+		runner.run(Headless.collectRoms(paths));
+		if (runner.spectatorServer != null) {
+			runner.spectatorServer.stop();
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.PrintStream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays the CHIP-8 beep while the sound timer is running. A feeder thread
+ * keeps a small {@link SourceDataLine} topped up with either a square wave or
+ * silence, both generated up front, so turning the tone on or off only flips
+ * a flag and is heard as soon as the line has played what it already holds.
+ * The feeder never allocates.
+ * 
+ * The time from {@link #setSounding(boolean)} to the line actually playing
+ * the change is measured on every change. Without an audio device, in
+ * headless runs or on CI, the beeper opens nothing and stays silent.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Beeper.java
+ */
+public class Beeper implements Runnable {
+
+	public static final int SAMPLE_RATE = 44100;
+	public static final int FREQUENCY = 441; // Close to the usual 440 Hz with a whole number of samples per period.
+	public static final int DEFAULT_BUFFER_SAMPLES = 512; // About 12 ms, well within a 60 Hz frame.
+	private static final int MIN_BUFFER_SAMPLES = 64;
+	private static final byte AMPLITUDE = 24; // Of 127, a beep shouldn't be too loud.
+
+	private final SourceDataLine line; // Null when there is no audio device.
+	private final int chunk; // Samples written per write, a quarter of the line buffer.
+	private final byte[] wave; // Whole periods of the square wave, at least a chunk plus a period long.
+	private final byte[] silence;
+	private final int period = SAMPLE_RATE / FREQUENCY;
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private volatile boolean sounding;
+	private volatile long changedAt; // When sounding last changed, in System.nanoTime().
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * Creates a beeper with the default buffer size.
+	 */
+	public Beeper() {
+		this(DEFAULT_BUFFER_SAMPLES);
+	}
+
+	/**
+	 * Creates a beeper and opens the audio line. If there is no line to open
+	 * the beeper stays silent.
+	 * 
+	 * @param bufferSamples - Size of the line buffer in samples, smaller is
+	 *            quicker to react but underruns sooner on a busy machine.
+	 */
+	public Beeper(int bufferSamples) {
+		bufferSamples = Math.max(MIN_BUFFER_SAMPLES, bufferSamples);
+		SourceDataLine line = null;
+		try {
+			AudioFormat format = new AudioFormat(SAMPLE_RATE, 8, 1, true, false);
+			line = AudioSystem.getSourceDataLine(format);
+			line.open(format, bufferSamples);
+		} catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+			System.out.println("No audio device, sound is off (" + e.getMessage() + ").");
+			line = null;
+		}
+		this.line = line;
+
+		// The line may have picked another size than asked for.
+		chunk = Math.max(1, (line != null ? line.getBufferSize() : bufferSamples) / 4);
+		wave = new byte[(chunk / period + 2) * period];
+		for (int i = 0; i < wave.length; i++) {
+			wave[i] = i % period < period / 2 ? AMPLITUDE : -AMPLITUDE;
+		}
+		silence = new byte[chunk];
+	}
+
+	/**
+	 * Starts the feeder thread, does nothing on a silent beeper.
+	 */
+	public synchronized void start() {
+		if (line == null || thread != null) {
+			return;
+		}
+		running = true;
+		line.start();
+		thread = new Thread(this, "chip8-audio");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops the feeder thread and closes the line.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+		if (line != null) {
+			line.close();
+		}
+	}
+
+	@Override
+	public void run() {
+		int phase = 0; // Where in the period the next chunk of the wave starts.
+		long written = 0; // Samples written to the line so far.
+		boolean playing = false;
+		long pendingFrame = -1; // Sample at which the last change starts, until it is played.
+		long pendingSince = 0;
+
+		while (running) {
+			boolean on = sounding;
+			if (on != playing) {
+				playing = on;
+				pendingFrame = written;
+				pendingSince = changedAt;
+			}
+
+			// Blocks until there is room for the chunk, that is what paces the thread.
+			if (playing) {
+				line.write(wave, phase, chunk);
+				phase = (phase + chunk) % period;
+			} else {
+				line.write(silence, 0, chunk);
+			}
+			written += chunk;
+
+			if (pendingFrame >= 0 && line.getLongFramePosition() >= pendingFrame) {
+				latency.record(System.nanoTime() - pendingSince);
+				pendingFrame = -1;
+			}
+		}
+		line.stop();
+		line.flush();
+	}
+
+	/**
+	 * Turns the tone on or off, cheap enough to call after every frame.
+	 * 
+	 * @param sounding - True while the sound timer is above zero.
+	 */
+	public void setSounding(boolean sounding) {
+		if (this.sounding != sounding) {
+			changedAt = System.nanoTime();
+			this.sounding = sounding;
+		}
+	}
+
+	/**
+	 * Checks if the tone is on.
+	 * 
+	 * @return True while sounding.
+	 */
+	public boolean isSounding() {
+		return sounding;
+	}
+
+	/**
+	 * Checks if the beeper has no audio line and plays nothing.
+	 * 
+	 * @return True if silent.
+	 */
+	public boolean isSilent() {
+		return line == null;
+	}
+
+	/**
+	 * Gets how long the line buffer takes to play, the most a change can
+	 * wait behind samples already written.
+	 * 
+	 * @return Buffer length in nanoseconds, 0 when silent.
+	 */
+	public long getBufferNanos() {
+		return line != null ? line.getBufferSize() * 1_000_000_000L / SAMPLE_RATE : 0;
+	}
+
+	/**
+	 * Gets the measured time from a change of {@link #setSounding(boolean)}
+	 * until the line played it.
+	 * 
+	 * @return Latencies in nanoseconds.
+	 */
+	public LatencyHistogram getLatency() {
+		return this.latency;
+	}
+
+	/**
+	 * Prints the buffer size and the measured latencies.
+	 * 
+	 * @param out - Where to print.
+	 */
+	public void report(PrintStream out) {
+		if (line == null) {
+			out.println("Audio: silent, no audio device.");
+			return;
+		}
+		out.printf("Audio: %d samples buffered (%.1f ms), %d changes, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+				line.getBufferSize(), getBufferNanos() / 1e6, latency.getCount(), latency.getPercentile(50) / 1e6,
+				latency.getPercentile(99) / 1e6, latency.getMax() / 1e6);
+	}
+}
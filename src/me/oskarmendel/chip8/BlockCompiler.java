@@ -0,0 +1,779 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional execution engine that compiles hot basic blocks into JVM classes
+ * HotSpot can then JIT like any other code.
+ * 
+ * Every address the interpreter starts at has a hotness counter. Once it passes
+ * {@link #BLOCK_THRESHOLD} the straight-line code from there up to the next jump,
+ * call, return, skip or memory write is decoded into a block. Once the block has
+ * run {@link #COMPILE_THRESHOLD} times it is compiled into a class. Register
+ * and index instructions become bytecode of their own in it, the rest are
+ * monomorphic calls to their instruction. Cold code stays in the interpreter.
+ * 
+ * Writes through FX33 and FX55 that land inside a block throw the block away so
+ * self modifying programs keep working.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name BlockCompiler.java
+ */
+public class BlockCompiler {
+
+	public static final int BLOCK_THRESHOLD = 16;
+	public static final int COMPILE_THRESHOLD = 512;
+	private static final int MAX_BLOCK_LENGTH = 64;
+
+	private static final String PACKAGE = "me/oskarmendel/chip8/";
+	private static final String SUPER_CLASS = PACKAGE + "CompiledBlock";
+	private static final String INSTRUCTION = PACKAGE + "Instruction";
+	private static final String MEMORY = PACKAGE + "Memory";
+
+	private static int classCounter;
+
+	private final Mode mode;
+	private final int[] heat; // Times the interpreter started at each address.
+	private final Block[] blocks; // Blocks indexed by their start address.
+	private final long[] covered; // Addresses that belong to at least one block.
+
+	private int blocksFormed;
+	private int blocksCompiled;
+	private int blocksInvalidated;
+
+	/**
+	 * Creates a block compiler for a machine running in target mode.
+	 * 
+	 * @param mode - The mode, which decides the size of the memory and the
+	 *            instructions blocks are made of.
+	 */
+	public BlockCompiler(Mode mode) {
+		this.mode = mode;
+		this.heat = new int[mode.getMemorySize()];
+		this.blocks = new Block[mode.getMemorySize()];
+		this.covered = new long[mode.getMemorySize() / 64];
+	}
+
+	/**
+	 * Runs target number of instructions, through compiled blocks where there are any.
+	 * 
+	 * @param m - The machine to execute on.
+	 * @param n - Number of instructions to execute.
+	 * @return The number of instructions executed.
+	 */
+	int run(Memory m, int n) {
+		int executed = 0;
+		
+		while (executed < n) {
+			int pc = m.getProgramCounter();
+			Block block = blocks[pc];
+
+			if (block == null && ++heat[pc] >= BLOCK_THRESHOLD) {
+				block = form(m, pc);
+			}
+
+			if (block != null && block.length <= n - executed) {
+				block.run(m);
+				executed += block.length;
+			} else {
+				m.step();
+				executed++;
+			}
+
+			// Jumps and FX0A end blocks, so idling shows up right after one.
+			if (m.isIdle()) {
+				executed += m.skipIdle(n - executed);
+			}
+		}
+		
+		return executed;
+	}
+
+	/**
+	 * Forms a block at the start of every basic block an analysis found,
+	 * instead of waiting for them to get hot. They are still only compiled
+	 * once they have run often enough.
+	 * 
+	 * @param m - The machine to read the code from.
+	 * @param analysis - Analysis of the program in memory.
+	 */
+	void prewarm(Memory m, RomAnalyzer analysis) {
+		for (RomAnalyzer.Block block : analysis.getBlocks()) {
+			if (blocks[block.getStart()] == null) {
+				form(m, block.getStart());
+			}
+		}
+	}
+
+	/**
+	 * Called for every byte the program writes, throws away blocks containing it.
+	 * A block is at most {@link #MAX_BLOCK_LENGTH} instructions long, so only
+	 * blocks starting that far back can contain the address.
+	 * 
+	 * @param address - The address written to.
+	 */
+	void written(int address) {
+		if ((covered[address >>> 6] & (1L << address)) == 0) {
+			return;
+		}
+
+		int from = Math.max(0, address - 2 * MAX_BLOCK_LENGTH + 1);
+		int to = address + 1; // End of the addresses the dropped blocks covered.
+		for (int i = from; i <= address; i++) {
+			Block block = blocks[i];
+			if (block != null && address < block.end) {
+				blocks[i] = null;
+				heat[i] = 0;
+				blocksInvalidated++;
+				to = Math.max(to, block.end);
+			}
+		}
+
+		// Clear the coverage around the dropped blocks and put back what the
+		// blocks left there still cover, writes into code are rare.
+		for (int a = from; a < to; a++) {
+			covered[a >>> 6] &= ~(1L << a);
+		}
+		for (int i = Math.max(0, from - 2 * MAX_BLOCK_LENGTH + 1); i < to; i++) {
+			Block block = blocks[i];
+			if (block != null && block.end > from) {
+				cover(block);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the basic block starting at target address.
+	 * 
+	 * @param m - The machine to read the code from.
+	 * @param start - Address of the first instruction.
+	 * @return The block or null if there is no valid instruction at the address.
+	 */
+	private Block form(Memory m, int start) {
+		List<Instruction> code = new ArrayList<>();
+		int[] opcodes = new int[MAX_BLOCK_LENGTH];
+		int address = start;
+
+		while (address + 1 < blocks.length && code.size() < MAX_BLOCK_LENGTH) {
+			int opcode = (m.read(address) << 8) | m.read(address + 1);
+			if (!Instructions.isValid(opcode, mode)) {
+				break;
+			}
+
+			opcodes[code.size()] = opcode;
+			code.add(Instructions.get(opcode));
+			address += 2;
+
+			if (Instructions.endsBlock(opcode)) {
+				break;
+			}
+		}
+
+		if (code.isEmpty()) {
+			return null;
+		}
+
+		Block block = new Block(start, address, code.toArray(new Instruction[code.size()]),
+				Arrays.copyOf(opcodes, code.size()));
+		blocks[start] = block;
+		cover(block);
+		blocksFormed++;
+		return block;
+	}
+
+	private void cover(Block block) {
+		for (int a = block.start; a < block.end; a++) {
+			covered[a >>> 6] |= 1L << a;
+		}
+	}
+
+	/**
+	 * Compiles a block into a class of its own.
+	 * 
+	 * @param block - The block to compile.
+	 * @return An instance of the generated class.
+	 */
+	private CompiledBlock compile(Block block) {
+		String name;
+		synchronized (BlockCompiler.class) {
+			name = PACKAGE + "Block$" + Integer.toHexString(block.start) + "$" + (classCounter++);
+		}
+
+		try {
+			byte[] bytes = generate(name, block);
+			// A loader per class lets invalidated blocks be unloaded.
+			Class<?> c = new BlockLoader(BlockCompiler.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+			blocksCompiled++;
+			return (CompiledBlock) c.getConstructor(Instruction[].class).newInstance((Object) block.code);
+		} catch (IOException | ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not compile block at " + Integer.toHexString(block.start), e);
+		}
+	}
+
+	/**
+	 * Writes the class file for a block. The class keeps every instruction in
+	 * a final field. Register and index instructions are written out as
+	 * bytecode working on the registers directly, with I held in a local and
+	 * the program counter only set when something needs it. Everything else
+	 * calls its instruction.
+	 * 
+	 * @param name - Internal name of the class.
+	 * @param block - The block to compile.
+	 * @return The class file.
+	 * @throws IOException Never, the class is written to memory.
+	 */
+	private byte[] generate(String name, Block block) throws IOException {
+		int length = block.length;
+		ConstantPool cp = new ConstantPool();
+		int thisClass = cp.classRef(name);
+		int superClass = cp.classRef(SUPER_CLASS);
+		int superInit = cp.member(10, SUPER_CLASS, "<init>", "()V");
+		int execute = cp.member(11, INSTRUCTION, "execute", "(L" + MEMORY + ";)V");
+		int code = cp.utf8("Code");
+		int[] fields = new int[length];
+		int[] fieldNames = new int[length];
+		int fieldType = cp.utf8("L" + INSTRUCTION + ";");
+		for (int i = 0; i < length; i++) {
+			fields[i] = cp.member(9, name, "i" + i, "L" + INSTRUCTION + ";");
+			fieldNames[i] = cp.utf8("i" + i);
+		}
+		int initName = cp.utf8("<init>");
+		int initType = cp.utf8("([L" + INSTRUCTION + ";)V");
+		int runName = cp.utf8("run");
+		int runType = cp.utf8("(L" + MEMORY + ";)V");
+
+		// Constructor: super(); then i<n> = code[n] for every instruction.
+		ByteArrayOutputStream initCode = new ByteArrayOutputStream();
+		DataOutputStream init = new DataOutputStream(initCode);
+		init.writeByte(0x2A); // aload_0
+		init.writeByte(0xB7); // invokespecial
+		init.writeShort(superInit);
+		for (int i = 0; i < length; i++) {
+			init.writeByte(0x2A); // aload_0
+			init.writeByte(0x2B); // aload_1
+			init.writeByte(0x10); // bipush
+			init.writeByte(i);
+			init.writeByte(0x32); // aaload
+			init.writeByte(0xB5); // putfield
+			init.writeShort(fields[i]);
+		}
+		init.writeByte(0xB1); // return
+
+		// run(Memory): locals are this, m, the registers, I and a temporary.
+		int registers = cp.member(10, SUPER_CLASS, "registers", "(L" + MEMORY + ";)[I");
+		int getIndex = cp.member(10, SUPER_CLASS, "index", "(L" + MEMORY + ";)I");
+		int setIndex = cp.member(10, SUPER_CLASS, "setIndex", "(L" + MEMORY + ";I)V");
+		int setPc = cp.member(10, SUPER_CLASS, "setProgramCounter", "(L" + MEMORY + ";I)V");
+		int delayTimer = cp.member(10, MEMORY, "getDelayTimer", "()I");
+
+		ByteArrayOutputStream runCode = new ByteArrayOutputStream();
+		DataOutputStream run = new DataOutputStream(runCode);
+		run.writeByte(0x2B); // aload_1
+		run.writeByte(0xB8); // invokestatic
+		run.writeShort(registers);
+		run.writeByte(0x4D); // astore_2
+		run.writeByte(0x2B); // aload_1
+		run.writeByte(0xB8); // invokestatic
+		run.writeShort(getIndex);
+		run.writeByte(0x3E); // istore_3
+
+		boolean indexChanged = false; // I in the local differs from the machine's.
+		boolean pcBehind = false; // The machine's program counter is behind the code.
+		for (int i = 0; i < length; i++) {
+			int opcode = block.opcodes[i];
+			if (inline(run, cp, opcode, delayTimer)) {
+				int nn = opcode & 0xFF;
+				indexChanged |= (opcode & 0xF000) == 0xA000 || (opcode & 0xF000) == 0xF000 && (nn == 0x1E || nn == 0x29);
+				pcBehind = true;
+				continue;
+			}
+
+			if (indexChanged) {
+				run.writeByte(0x2B); // aload_1
+				run.writeByte(0x1D); // iload_3
+				run.writeByte(0xB8); // invokestatic
+				run.writeShort(setIndex);
+				indexChanged = false;
+			}
+			if (pcBehind) {
+				run.writeByte(0x2B); // aload_1
+				push(run, cp, block.start + 2 * i);
+				run.writeByte(0xB8); // invokestatic
+				run.writeShort(setPc);
+				pcBehind = false;
+			}
+			run.writeByte(0x2A); // aload_0
+			run.writeByte(0xB4); // getfield
+			run.writeShort(fields[i]);
+			run.writeByte(0x2B); // aload_1
+			run.writeByte(0xB9); // invokeinterface
+			run.writeShort(execute);
+			run.writeByte(2);
+			run.writeByte(0);
+			if (i + 1 < length) {
+				// The instruction may have moved I.
+				run.writeByte(0x2B); // aload_1
+				run.writeByte(0xB8); // invokestatic
+				run.writeShort(getIndex);
+				run.writeByte(0x3E); // istore_3
+			}
+		}
+		if (indexChanged) {
+			run.writeByte(0x2B); // aload_1
+			run.writeByte(0x1D); // iload_3
+			run.writeByte(0xB8); // invokestatic
+			run.writeShort(setIndex);
+		}
+		if (pcBehind) {
+			run.writeByte(0x2B); // aload_1
+			push(run, cp, block.end);
+			run.writeByte(0xB8); // invokestatic
+			run.writeShort(setPc);
+		}
+		run.writeByte(0xB1); // return
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52); // Java 8
+		cp.write(out);
+		out.writeShort(0x0031); // public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0); // interfaces
+
+		out.writeShort(length);
+		for (int i = 0; i < length; i++) {
+			out.writeShort(0x0012); // private final
+			out.writeShort(fieldNames[i]);
+			out.writeShort(fieldType);
+			out.writeShort(0);
+		}
+
+		out.writeShort(2);
+		writeMethod(out, initName, initType, code, 3, 2, initCode.toByteArray());
+		writeMethod(out, runName, runType, code, 6, 5, runCode.toByteArray());
+		out.writeShort(0); // attributes
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes the bytecode of an instruction that only works on the registers
+	 * and I, doing exactly what its method in {@link Memory} does. The code
+	 * has no branches so the class needs no stack map frames.
+	 * 
+	 * @param run - The code of the run method.
+	 * @param cp - The constant pool of the class.
+	 * @param opcode - The 16 bit opcode.
+	 * @param delayTimer - Method reference to {@link Memory#getDelayTimer()}.
+	 * @return False if the instruction has to be called instead, nothing is written then.
+	 * @throws IOException Never, the class is written to memory.
+	 */
+	private boolean inline(DataOutputStream run, ConstantPool cp, int opcode, int delayTimer) throws IOException {
+		int x = (opcode & 0x0F00) >>> 8;
+		int y = (opcode & 0x00F0) >>> 4;
+		int nn = opcode & 0x00FF;
+
+		switch (opcode & 0xF000) {
+		case 0x6000:
+			// V[x] = nn
+			register(run, cp, x);
+			push(run, cp, nn);
+			run.writeByte(0x4F); // iastore
+			return true;
+		case 0x7000:
+			// V[x] = (V[x] + nn) & 0xFF
+			register(run, cp, x);
+			load(run, cp, x);
+			push(run, cp, nn);
+			run.writeByte(0x60); // iadd
+			mask(run, cp);
+			run.writeByte(0x4F); // iastore
+			return true;
+		case 0x8000:
+			return inlineArithmetic(run, cp, opcode & 0xF, x, y);
+		case 0xA000:
+			// I = nnn
+			push(run, cp, opcode & 0x0FFF);
+			run.writeByte(0x3E); // istore_3
+			return true;
+		case 0xF000:
+			switch (nn) {
+			case 0x07:
+				// V[x] = delayTimer & 0xFF
+				register(run, cp, x);
+				run.writeByte(0x2B); // aload_1
+				run.writeByte(0xB6); // invokevirtual
+				run.writeShort(delayTimer);
+				mask(run, cp);
+				run.writeByte(0x4F); // iastore
+				return true;
+			case 0x1E:
+				// V[0xF] = I + V[x] > addressMask ? 1 : 0, then I = (I + V[x]) & addressMask
+				register(run, cp, 0xF);
+				run.writeByte(0x1D); // iload_3
+				load(run, cp, x);
+				run.writeByte(0x60); // iadd
+				push(run, cp, mode.getMemorySize());
+				run.writeByte(0x64); // isub
+				push(run, cp, 31);
+				run.writeByte(0x7C); // iushr
+				run.writeByte(0x04); // iconst_1
+				run.writeByte(0x82); // ixor
+				run.writeByte(0x4F); // iastore
+				run.writeByte(0x1D); // iload_3
+				load(run, cp, x);
+				run.writeByte(0x60); // iadd
+				push(run, cp, mode.getMemorySize() - 1);
+				run.writeByte(0x7E); // iand
+				run.writeByte(0x3E); // istore_3
+				return true;
+			case 0x29:
+				// I = V[x] * 5
+				load(run, cp, x);
+				push(run, cp, 5);
+				run.writeByte(0x68); // imul
+				run.writeByte(0x3E); // istore_3
+				return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the bytecode of an 8XYN instruction. VF is always written before
+	 * Vx and Vx is read again after, like in {@link Memory}, so X or Y being F
+	 * comes out the same.
+	 */
+	private static boolean inlineArithmetic(DataOutputStream run, ConstantPool cp, int n, int x, int y)
+			throws IOException {
+		switch (n) {
+		case 0x0:
+		case 0x1:
+		case 0x2:
+		case 0x3:
+			// V[x] = V[y], V[x] | V[y], V[x] & V[y] or V[x] ^ V[y]
+			register(run, cp, x);
+			if (n != 0x0) {
+				load(run, cp, x);
+			}
+			load(run, cp, y);
+			if (n == 0x1) {
+				run.writeByte(0x80); // ior
+			} else if (n == 0x2) {
+				run.writeByte(0x7E); // iand
+			} else if (n == 0x3) {
+				run.writeByte(0x82); // ixor
+			}
+			run.writeByte(0x4F); // iastore
+			return true;
+		case 0x4:
+			// sum = V[x] + V[y], V[0xF] = sum >>> 8, V[x] = sum & 0xFF
+			load(run, cp, x);
+			load(run, cp, y);
+			run.writeByte(0x60); // iadd
+			run.writeByte(0x36); // istore
+			run.writeByte(4);
+			register(run, cp, 0xF);
+			run.writeByte(0x15); // iload
+			run.writeByte(4);
+			push(run, cp, 8);
+			run.writeByte(0x7C); // iushr
+			run.writeByte(0x4F); // iastore
+			register(run, cp, x);
+			run.writeByte(0x15); // iload
+			run.writeByte(4);
+			mask(run, cp);
+			run.writeByte(0x4F); // iastore
+			return true;
+		case 0x5:
+		case 0x7:
+			// V[0xF] = borrow ? 0 : 1, from the sign of V[x] - V[y]
+			register(run, cp, 0xF);
+			load(run, cp, x);
+			load(run, cp, y);
+			run.writeByte(0x64); // isub
+			push(run, cp, 31);
+			run.writeByte(0x7C); // iushr
+			if (n == 0x5) {
+				run.writeByte(0x04); // iconst_1
+				run.writeByte(0x82); // ixor
+			}
+			run.writeByte(0x4F); // iastore
+			// V[x] = (V[x] - V[y]) & 0xFF or (V[y] - V[x]) & 0xFF
+			register(run, cp, x);
+			load(run, cp, n == 0x5 ? x : y);
+			load(run, cp, n == 0x5 ? y : x);
+			run.writeByte(0x64); // isub
+			mask(run, cp);
+			run.writeByte(0x4F); // iastore
+			return true;
+		case 0x6:
+		case 0xE:
+			// V[0xF] = the bit shifted out, then V[x] shifted by one
+			register(run, cp, 0xF);
+			load(run, cp, x);
+			if (n == 0x6) {
+				run.writeByte(0x04); // iconst_1
+				run.writeByte(0x7E); // iand
+			} else {
+				push(run, cp, 7);
+				run.writeByte(0x7C); // iushr
+			}
+			run.writeByte(0x4F); // iastore
+			register(run, cp, x);
+			load(run, cp, x);
+			run.writeByte(0x04); // iconst_1
+			if (n == 0x6) {
+				run.writeByte(0x7C); // iushr
+			} else {
+				run.writeByte(0x78); // ishl
+				mask(run, cp);
+			}
+			run.writeByte(0x4F); // iastore
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Pushes the registers and the index of one of them, ready for an iastore.
+	 */
+	private static void register(DataOutputStream run, ConstantPool cp, int x) throws IOException {
+		run.writeByte(0x2C); // aload_2
+		push(run, cp, x);
+	}
+
+	/**
+	 * Pushes the value of a register.
+	 */
+	private static void load(DataOutputStream run, ConstantPool cp, int x) throws IOException {
+		register(run, cp, x);
+		run.writeByte(0x2E); // iaload
+	}
+
+	/**
+	 * Masks the value on the stack to a byte.
+	 */
+	private static void mask(DataOutputStream run, ConstantPool cp) throws IOException {
+		push(run, cp, 0xFF);
+		run.writeByte(0x7E); // iand
+	}
+
+	/**
+	 * Pushes an int constant with the shortest instruction for it.
+	 */
+	private static void push(DataOutputStream run, ConstantPool cp, int value) throws IOException {
+		if (value >= -1 && value <= 5) {
+			run.writeByte(0x03 + value); // iconst_<n>
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			run.writeByte(0x10); // bipush
+			run.writeByte(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			run.writeByte(0x11); // sipush
+			run.writeShort(value);
+		} else {
+			run.writeByte(0x13); // ldc_w
+			run.writeShort(cp.integer(value));
+		}
+	}
+
+	private static void writeMethod(DataOutputStream out, int name, int type, int codeAttribute,
+			int maxStack, int maxLocals, byte[] code) throws IOException {
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeAttribute);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	/**
+	 * Getter for the number of blocks decoded so far.
+	 * 
+	 * @return The number of blocks formed.
+	 */
+	public int getBlocksFormed() {
+		return this.blocksFormed;
+	}
+
+	/**
+	 * Getter for the number of blocks compiled into classes so far.
+	 * 
+	 * @return The number of blocks compiled.
+	 */
+	public int getBlocksCompiled() {
+		return this.blocksCompiled;
+	}
+
+	/**
+	 * Getter for the number of blocks thrown away because the program wrote into them.
+	 * 
+	 * @return The number of blocks invalidated.
+	 */
+	public int getBlocksInvalidated() {
+		return this.blocksInvalidated;
+	}
+
+	/**
+	 * A decoded basic block, run through its instructions until it gets hot
+	 * enough to be compiled.
+	 */
+	private final class Block {
+		final int start; // Address of the first instruction.
+		final int end; // Address after the last instruction.
+		final int length; // Number of instructions.
+		final Instruction[] code;
+		final int[] opcodes;
+
+		int runs;
+		CompiledBlock compiled;
+
+		Block(int start, int end, Instruction[] code, int[] opcodes) {
+			this.start = start;
+			this.end = end;
+			this.length = code.length;
+			this.code = code;
+			this.opcodes = opcodes;
+		}
+
+		void run(Memory m) {
+			if (compiled != null) {
+				compiled.run(m);
+				return;
+			}
+
+			for (Instruction instruction : code) {
+				instruction.execute(m);
+			}
+
+			if (++runs == COMPILE_THRESHOLD) {
+				compiled = compile(this);
+			}
+		}
+	}
+
+	/**
+	 * Class loader for a single generated block.
+	 */
+	private static final class BlockLoader extends ClassLoader {
+
+		BlockLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Constant pool of a generated class.
+	 */
+	private static final class ConstantPool {
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private DataOutputStream out = new DataOutputStream(bytes);
+		private Map<String, Integer> entries = new HashMap<>();
+		private int count = 1;
+
+		int utf8(String s) throws IOException {
+			Integer index = entries.get(s);
+			if (index != null) {
+				return index;
+			}
+
+			out.writeByte(1);
+			out.writeUTF(s);
+			entries.put(s, count);
+			return count++;
+		}
+
+		int classRef(String name) throws IOException {
+			Integer index = entries.get("class " + name);
+			if (index != null) {
+				return index;
+			}
+
+			int utf8 = utf8(name);
+			out.writeByte(7);
+			out.writeShort(utf8);
+			entries.put("class " + name, count);
+			return count++;
+		}
+
+		int integer(int value) throws IOException {
+			Integer index = entries.get("int " + value);
+			if (index != null) {
+				return index;
+			}
+
+			out.writeByte(3);
+			out.writeInt(value);
+			entries.put("int " + value, count);
+			return count++;
+		}
+
+		/**
+		 * Adds a field (9), method (10) or interface method (11) reference.
+		 */
+		int member(int tag, String owner, String name, String type) throws IOException {
+			int ownerClass = classRef(owner);
+			int nameIndex = utf8(name);
+			int typeIndex = utf8(type);
+			out.writeByte(12);
+			out.writeShort(nameIndex);
+			out.writeShort(typeIndex);
+			int nameAndType = count++;
+			out.writeByte(tag);
+			out.writeShort(ownerClass);
+			out.writeShort(nameAndType);
+			return count++;
+		}
+
+		void write(DataOutputStream to) throws IOException {
+			to.writeShort(count);
+			to.write(bytes.toByteArray());
+		}
+	}
+}
@@ -23,26 +23,22 @@
  */
 package me.oskarmendel.chip8;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
 /**
  * Main entry point of the application.
@@ -55,20 +51,32 @@ public class Chip8 extends Application {
 
 	private static final int SCREEN_WIDTH = 800;
 	private static final int SCREEN_HEIGHT = 450;
+	private static final String TITLE = "CHIP-8-Emulator";
 
 	private Stage mainStage;
 
-	Timeline gameLoop;
-	
-	private Memory memory;
+	private Emulator emulator;
+	private int instructionsPerSecond = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND;
+	private AnimationTimer presenter; // Shows the latest frame once per display refresh.
+	private long presents; // Frames shown so far.
+	private RuntimeException shownFailure; // The emulator failure shown in the title.
 	private Screen screen;
 	private Keyboard keyboard;
+	private SaveSlots saveSlots = new SaveSlots(new File("saves"), 4);
+	private RewindBuffer rewindBuffer = new RewindBuffer();
+	private RomLibrary library = new RomLibrary(new File("roms"), RomLibrary.DEFAULT_CAPACITY);
+	private LibraryBrowser libraryBrowser;
+	private RomLibrary.Image current; // The ROM running now.
+	private Beeper beeper;
+	private VideoExporter video; // The recording running now, null for none.
+	private SpectatorServer spectatorServer;
+	private SpectatorServer.Stream spectators;
 	
 	/**
 	 * Setup the graphics and input systen and clear the memory and screen.
 	 */
 	private void initialize() {
-		mainStage.setTitle("CHIP-8-Emulator");
+		mainStage.setTitle(TITLE);
 
 		screen = new Screen();
 		keyboard = new Keyboard();
@@ -82,38 +90,134 @@ public class Chip8 extends Application {
 			// Open file choose to let the user select a ROM.
 			FileChooser f = new FileChooser();
 			f.setTitle("Open ROM File");
+			if (library.getDirectory().isDirectory()) {
+				f.setInitialDirectory(library.getDirectory());
+			}
 			File file = f.showOpenDialog(mainStage);
 			
 			if (file != null) {
-				loadProgram(file.getPath());
+				loadProgram(file);
 			}
 		});
-		MenuItem exitItem = new MenuItem("Exit");
-		exitItem.setOnAction(e -> {
-			System.exit(0);
+		MenuItem saveLogItem = new MenuItem("Save Input Log");
+		saveLogItem.setOnAction(e -> {
+			// The log replays this run headless, see Replay.
+			FileChooser f = new FileChooser();
+			f.setTitle("Save Input Log");
+			File file = f.showSaveDialog(mainStage);
+			
+			if (file != null) {
+				try {
+					emulator.getInputLog().write(file);
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+		});
+		MenuItem recordItem = new MenuItem("Record Video");
+		recordItem.setOnAction(e -> {
+			// Frames go to disk straight from the emulator, .gif and .png pick the format, see VideoExporter.
+			if (video != null) {
+				stopRecording();
+				recordItem.setText("Record Video");
+				return;
+			}
+			FileChooser f = new FileChooser();
+			f.setTitle("Record Video");
+			File file = f.showSaveDialog(mainStage);
+			
+			if (file != null) {
+				try {
+					video = new VideoExporter(file);
+					video.start();
+					emulator.setVideoExporter(video);
+					recordItem.setText("Stop Recording");
+				} catch (IOException ex) {
+					video = null;
+					ex.printStackTrace();
+				}
+			}
 		});
+		MenuItem exitItem = new MenuItem("Exit");
+		// Shuts down through stop() so a running recording is finished and the reports printed.
+		exitItem.setOnAction(e -> Platform.exit());
 		
 		menuFile.getItems().add(loadRomItem);
+		menuFile.getItems().add(saveLogItem);
+		menuFile.getItems().add(recordItem);
 		menuFile.getItems().add(exitItem);
 		
+		// Save states, F1 - F4 saves to a slot and Shift + F1 - F4 loads it again.
+		Menu menuState = new Menu("State");
+		for (int i = 0; i < saveSlots.size(); i++) {
+			final int slot = i;
+			MenuItem saveItem = new MenuItem("Save Slot " + (slot + 1));
+			saveItem.setAccelerator(KeyCombination.keyCombination("F" + (slot + 1)));
+			saveItem.setOnAction(e -> emulator.saveState(slot));
+			menuState.getItems().add(saveItem);
+		}
+		for (int i = 0; i < saveSlots.size(); i++) {
+			final int slot = i;
+			MenuItem loadItem = new MenuItem("Load Slot " + (slot + 1));
+			loadItem.setAccelerator(KeyCombination.keyCombination("Shift+F" + (slot + 1)));
+			loadItem.setOnAction(e -> emulator.loadState(slot));
+			menuState.getItems().add(loadItem);
+		}
+		
+		// The library keeps recently run ROMs loaded, switching between them doesn't touch the disk.
+		Menu menuLibrary = new Menu("Library");
+		MenuItem browseItem = new MenuItem("Browse Library");
+		browseItem.setAccelerator(KeyCombination.keyCombination("Shortcut+L"));
+		browseItem.setOnAction(e -> {
+			if (libraryBrowser == null) {
+				libraryBrowser = new LibraryBrowser(library, this::loadProgram);
+				libraryBrowser.initOwner(mainStage);
+			}
+			libraryBrowser.refresh();
+			libraryBrowser.show();
+			libraryBrowser.toFront();
+		});
+		menuLibrary.getItems().add(browseItem);
+		
+		// The mode is remembered per ROM in the library, running it again restarts it in that mode.
+		for (Mode mode : Mode.values()) {
+			MenuItem modeItem = new MenuItem("Run as " + mode);
+			modeItem.setOnAction(e -> {
+				if (current == null) {
+					return;
+				}
+				try {
+					library.setMode(current.getEntry(), mode);
+					loadProgram(current.getEntry());
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			});
+			menuLibrary.getItems().add(modeItem);
+		}
+		
 		menuBar.getMenus().add(menuFile);
+		menuBar.getMenus().add(menuState);
+		menuBar.getMenus().add(menuLibrary);
 		
-		// Initial render of the screen.
-		screen.render();
-
 		// Place all elements into the main window.
 		VBox root = new VBox();
+		root.setStyle("-fx-background-color: black;");
 		root.getChildren().add(menuBar);
 		root.getChildren().add(screen);
 
 		
 		Scene mainScene = new Scene(root);
 
-		// Handle key presses.
+		// Handle key presses, backspace rewinds for as long as it is held.
 		mainScene.setOnKeyPressed(new EventHandler<KeyEvent>() {
 			@Override
 			public void handle(KeyEvent e) {
-				keyboard.setKeyDown(e.getCode());
+				if (e.getCode() == KeyCode.BACK_SPACE) {
+					emulator.setRewinding(true);
+				} else {
+					keyboard.setKeyDown(e.getCode());
+				}
 			}
 		});
 
@@ -121,7 +225,11 @@ public class Chip8 extends Application {
 		mainScene.setOnKeyReleased(new EventHandler<KeyEvent>() {
 			@Override
 			public void handle(KeyEvent e) {
-				keyboard.setKeyUp(e.getCode());
+				if (e.getCode() == KeyCode.BACK_SPACE) {
+					emulator.setRewinding(false);
+				} else {
+					keyboard.setKeyUp(e.getCode());
+				}
 			}
 		});
 
@@ -134,78 +242,118 @@ public class Chip8 extends Application {
 		mainStage.setMinHeight(SCREEN_HEIGHT);
 		mainStage.setResizable(false);
 		
-		gameLoop = new Timeline();
-        gameLoop.setCycleCount(Timeline.INDEFINITE);
-		
-        // Construct the keyframe telling the application what to happen inside the game loop.
-        KeyFrame kf = new KeyFrame(
-                Duration.seconds(0.003),
-                actionEvent -> {
-                    try {
-                    	// Fetch opcode
-    					memory.fetchOpcode();
-    					// Decode & Execute opcode
-    					memory.decodeOpcode();
-                    } catch (RuntimeException e) {
-                        gameLoop.stop();
-                    }
-                    
-                    // Render
-                    if (memory.isDrawFlag()) {
-                        screen.render();
-                        memory.setDrawFlag(false);
-                    }
-
-	                 // Update Timers
-					if (memory.getDelayTimer() > 0) {
-						memory.setDelayTimer(memory.getDelayTimer() - 1);
-					}
-	
-					if (memory.getSoundTimer() > 0) {
-						if (memory.getSoundTimer() == 1) {
-							System.out.println("Make Sound!");
-						}
-						memory.setSoundTimer(memory.getSoundTimer() - 1);
-					}
-                });
-
-        gameLoop.getKeyFrames().add(kf);
-		loadProgram("roms/INVADERS");
+		try {
+			library.scan();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		loadProgram(new File("roms/INVADERS"));
         
 		mainStage.show();
 	}
 
 	/**
-	 * Copy the program to run into the memory
+	 * Loads a ROM file through the library and runs it.
+	 * 
+	 * @param file - The ROM file.
+	 */
+	private void loadProgram(File file) {
+		try {
+			loadProgram(library.load(file));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Loads a ROM from the library and runs it.
 	 * 
-	 * @param program
-	 *            - The program to copy into memory.
+	 * @param entry - The ROM.
 	 */
-	private void loadProgram(String program) {
-		gameLoop.stop();
+	private void loadProgram(RomLibrary.Entry entry) {
+		try {
+			loadProgram(library.load(entry));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Runs a program. The first one starts the emulation thread, after that
+	 * the running machine is reset and the program copied into it.
+	 * 
+	 * @param rom - The program to run.
+	 */
+	private void loadProgram(RomLibrary.Image rom) {
+		FlightEvents.RomLoadEvent event = FlightEvents.romLoad();
+		current = rom;
+		mainStage.setTitle(TITLE);
 		
-		screen.clear();
-		memory = new Memory(screen, keyboard);
+		if (emulator != null && emulator.isRunning()) {
+			emulator.load(rom);
+		} else {
+			if (emulator != null) {
+				emulator.stop();
+			}
+			emulator = new Emulator(rom.getProgram(), rom.getMode(), rom.getAnalysis(), keyboard.getEvents(), null);
+			emulator.getScheduler().setInstructionsPerSecond(instructionsPerSecond);
+			emulator.setSaveSlots(saveSlots);
+			emulator.setRewindBuffer(rewindBuffer);
+			emulator.setBeeper(beeper);
+			emulator.setVideoExporter(video);
+			emulator.setSpectators(spectators);
+			emulator.setName(rom.getEntry().getName());
+			emulator.start();
+		}
 		
-		// Load binary and pass it to memory
+		if (event != null) {
+			event.path = rom.getEntry().getFile().getPath();
+			event.size = rom.getProgram().length;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Stops the recording and waits for the encoder to write out what it
+	 * still has.
+	 */
+	private void stopRecording() {
+		emulator.setVideoExporter(null);
 		try {
-			File f = new File(program);
-
-			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
-
-			byte[] b = new byte[(int) f.length()];
-			in.read(b);
-
-			memory.loadProgram(b);
-			
-			in.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			video.close(emulator.getMonitor().getFrames());
+			System.out.printf("Video: %d frames, %d dropped, encoded %.1fx faster than real time%n",
+					video.getCaptured(), video.getDropped(), video.getSpeed());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		video = null;
+	}
+	
+	/**
+	 * Shows the latest finished frame if there is a new one, runs on the
+	 * JavaFX thread once per display refresh. Frames the emulator finished
+	 * in between are never shown, they are counted as coalesced by the
+	 * {@link TripleBuffer}. If the program crashed the machine, the title
+	 * says which opcode did it and where.
+	 */
+	private void present() {
+		if (emulator == null) {
+			return;
+		}
 		
-		gameLoop.play();
+		FrameBuffer frame = emulator.getFrames().latest();
+		if (frame != null) {
+			screen.render(frame);
+			presents++;
+		}
+		
+		// A program that crashed stops the machine, say so instead of leaving a frozen screen.
+		RuntimeException failure = emulator.getFailure();
+		if (failure != null && failure != shownFailure) {
+			shownFailure = failure;
+			mainStage.setTitle(TITLE + " - Stopped: " + failure.getMessage());
+			failure.printStackTrace();
+		}
 	}
 
 	public static void main(String[] args) {
@@ -215,6 +363,73 @@ public class Chip8 extends Application {
 	@Override
 	public void start(Stage primaryStage) throws Exception {
 		mainStage = primaryStage;
+		
+		// Emulation speed can be given as --ips=<instructions per second>.
+		String ips = getParameters().getNamed().get("ips");
+		if (ips != null) {
+			instructionsPerSecond = Integer.parseInt(ips);
+		}
+		
+		// Audio buffer size in samples can be given as --audio-buffer=<samples>, smaller reacts quicker.
+		String audioBuffer = getParameters().getNamed().get("audio-buffer");
+		beeper = new Beeper(audioBuffer != null ? Integer.parseInt(audioBuffer) : Beeper.DEFAULT_BUFFER_SAMPLES);
+		beeper.start();
+		
+		// Spectators can watch over TCP with --spectate=<port>, see SpectatorViewer.
+		String spectate = getParameters().getNamed().get("spectate");
+		if (spectate != null) {
+			spectatorServer = new SpectatorServer(Integer.parseInt(spectate));
+			spectators = spectatorServer.addStream(TITLE);
+			spectatorServer.start();
+		}
+		
 		initialize();
+		
+		presenter = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				present();
+			}
+		};
+		presenter.start();
+		
+		// Keys can be remapped with --keymap=<file>, see Keyboard.
+		String keymap = getParameters().getNamed().get("keymap");
+		if (keymap != null) {
+			try {
+				keyboard.loadKeymap(new File(keymap));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	@Override
+	public void stop() throws Exception {
+		presenter.stop();
+		if (emulator != null) {
+			if (video != null) {
+				stopRecording();
+			}
+			emulator.stop();
+			TripleBuffer<FrameBuffer> frames = emulator.getFrames();
+			System.out.printf("Display: %d frames finished, %d shown, %d coalesced%n", frames.getPublished(),
+					presents, frames.getOverwritten());
+			LatencyHistogram latency = emulator.getMonitor().getInputLatency();
+			System.out.printf("Input: %d key presses, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+					latency.getCount(), latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6,
+					latency.getMax() / 1e6);
+		}
+		// The emulator thread is done with the slots, flush them to their files.
+		saveSlots.close();
+		System.out.printf("Average render: %d ns, %.1f rows%n", screen.getAverageRenderNanos(),
+				screen.getAverageRowsPerRender());
+		System.out.printf("Rewind: %d frames in %d KB, %d KB per minute%n", rewindBuffer.getFrames(),
+				rewindBuffer.getBytesUsed() / 1024, rewindBuffer.getBytesPerMinute() / 1024);
+		beeper.stop();
+		beeper.report(System.out);
+		if (spectatorServer != null) {
+			spectatorServer.stop();
+		}
 	}
 }
@@ -0,0 +1,64 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * Base class of the classes generated by the {@link BlockCompiler}. Each
+ * subclass runs one basic block of Chip 8 code as straight-line bytecode.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name CompiledBlock.java
+ */
+public abstract class CompiledBlock {
+
+	protected CompiledBlock() {
+	}
+
+	/**
+	 * Runs every instruction in the block.
+	 * 
+	 * @param m - The machine to execute on.
+	 */
+	public abstract void run(Memory m);
+
+	// The generated classes live in class loaders of their own, so they can't
+	// reach into Memory themselves. These get inlined into them by HotSpot.
+
+	protected static int[] registers(Memory m) {
+		return m.getRegisters();
+	}
+
+	protected static int index(Memory m) {
+		return m.getIndex();
+	}
+
+	protected static void setIndex(Memory m, int i) {
+		m.setIndex(i);
+	}
+
+	protected static void setProgramCounter(Memory m, int pc) {
+		m.setProgramCounter(pc);
+	}
+}
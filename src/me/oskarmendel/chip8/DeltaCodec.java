@@ -0,0 +1,144 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * XOR delta between two equally long byte arrays, run length encoded so the
+ * bytes that didn't change cost next to nothing.
+ * 
+ * A delta is a list of runs, each made of the number of unchanged bytes to
+ * skip and the number of changed bytes that follow, both as unsigned LEB128
+ * varints, then the changed bytes XORed with their old value. Gaps shorter
+ * than {@link #MIN_SKIP} bytes are kept inside the run they split, since
+ * starting a new run would cost more than it saves.
+ * 
+ * XOR works both ways, applying the delta between a and b to a gives b and
+ * applying it to b gives a again.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name DeltaCodec.java
+ */
+public final class DeltaCodec {
+
+	public static final int MIN_SKIP = 4;
+
+	private DeltaCodec() {
+	}
+
+	/**
+	 * Gets the most bytes a delta between two arrays can take up.
+	 * 
+	 * @param length - Length of the arrays.
+	 * @return Size in bytes.
+	 */
+	public static int maxEncodedLength(int length) {
+		return length + 10;
+	}
+
+	/**
+	 * Encodes the delta between two arrays.
+	 * 
+	 * @param from - The old bytes.
+	 * @param to - The new bytes.
+	 * @param length - Number of bytes to compare from index 0.
+	 * @param out - Target for the delta, needs room for {@link #maxEncodedLength(int)} bytes.
+	 * @param offset - Index in out to start writing at.
+	 * @return The number of bytes written, 0 if the arrays are equal.
+	 */
+	public static int encode(byte[] from, byte[] to, int length, byte[] out, int offset) {
+		int o = offset;
+		int i = 0;
+		while (i < length) {
+			int start = i;
+			while (i < length && from[i] == to[i]) {
+				i++;
+			}
+			if (i == length) {
+				break;
+			}
+
+			// Extend the run until enough unchanged bytes follow the last changed one.
+			int end = i + 1;
+			for (int j = end; j < length && j - end < MIN_SKIP; j++) {
+				if (from[j] != to[j]) {
+					end = j + 1;
+				}
+			}
+
+			o = putVarint(out, o, i - start);
+			o = putVarint(out, o, end - i);
+			for (; i < end; i++) {
+				out[o++] = (byte) (from[i] ^ to[i]);
+			}
+		}
+		return o - offset;
+	}
+
+	/**
+	 * XORs a delta into target array.
+	 * 
+	 * @param delta - Array holding the delta.
+	 * @param offset - Index of the delta in its array.
+	 * @param length - Length of the delta in bytes.
+	 * @param target - The bytes to change.
+	 */
+	public static void apply(byte[] delta, int offset, int length, byte[] target) {
+		int end = offset + length;
+		int in = offset;
+		int t = 0;
+		while (in < end) {
+			int skip = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = delta[in++];
+				skip |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			int count = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = delta[in++];
+				count |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+
+			t += skip;
+			for (int k = 0; k < count; k++) {
+				target[t++] ^= delta[in++];
+			}
+		}
+	}
+
+	private static int putVarint(byte[] out, int o, int value) {
+		while ((value & ~0x7F) != 0) {
+			out[o++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[o++] = (byte) value;
+		return o;
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * Turns opcodes into text, both as the pattern of the instruction class they
+ * belong to, for example <code>8XY4</code>, and as assembly in the usual
+ * Chip 8 mnemonics, for example <code>ADD V1, V2</code>. The SUPER-CHIP and
+ * XO-CHIP instructions come after the CHIP-8 ones, in the mnemonics of Octo.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Disassembler.java
+ */
+public final class Disassembler {
+
+	/**
+	 * Every instruction class, the last one covers the opcodes that don't exist
+	 * in any mode.
+	 */
+	public static final String[] PATTERNS = { "00E0", "00EE", "1NNN", "2NNN", "3XNN", "4XNN", "5XY0", "6XNN", "7XNN",
+			"8XY0", "8XY1", "8XY2", "8XY3", "8XY4", "8XY5", "8XY6", "8XY7", "8XYE", "9XY0", "ANNN", "BNNN", "CXNN",
+			"DXYN", "EX9E", "EXA1", "FX07", "FX0A", "FX15", "FX18", "FX1E", "FX29", "FX33", "FX55", "FX65", "00CN",
+			"00DN", "00FB", "00FC", "00FD", "00FE", "00FF", "5XY2", "5XY3", "F000", "FN01", "F002", "FX30", "FX3A",
+			"FX75", "FX85", "????" };
+
+	public static final int CLASSES = PATTERNS.length;
+	public static final int INVALID = CLASSES - 1;
+
+	private static final byte[] CLASS = new byte[0x10000];
+
+	static {
+		for (int op = 0; op < CLASS.length; op++) {
+			CLASS[op] = (byte) (Instructions.isValidInAnyMode(op) ? classify(op) : INVALID);
+		}
+	}
+
+	private Disassembler() {
+	}
+
+	/**
+	 * Finds the class of a valid opcode, the index into {@link #PATTERNS}.
+	 */
+	private static int classify(int op) {
+		int nibble = op >>> 12;
+		switch (nibble) {
+		case 0x0:
+			if (op == 0x00E0 || op == 0x00EE) {
+				return op == 0x00E0 ? 0 : 1;
+			}
+			return find((op & 0xFFF0) == 0x00C0 ? "00CN" : (op & 0xFFF0) == 0x00D0 ? "00DN" : String.format("%04X", op));
+		case 0x5:
+			// 5XY2 and 5XY3 are skips like 5XY0 outside XO-CHIP.
+			return (op & 0xF) == 0x2 ? find("5XY2") : (op & 0xF) == 0x3 ? find("5XY3") : 6;
+		case 0x8:
+			return (op & 0xF) == 0xE ? 17 : 9 + (op & 0xF);
+		case 0xE:
+			return (op & 0xFF) == 0x9E ? 23 : 24;
+		case 0xF:
+			int nn = op & 0xFF;
+			if (op == 0xF000 || op == 0xF002) {
+				return find(String.format("%04X", op));
+			}
+			for (int c = 25; c < INVALID; c++) {
+				if (PATTERNS[c].charAt(0) == 'F' && PATTERNS[c].charAt(1) != '0'
+						&& Integer.parseInt(PATTERNS[c].substring(2), 16) == nn) {
+					return c;
+				}
+			}
+			return INVALID;
+		default:
+			// 1NNN to 7XNN follow 00EE in order, 9XY0 to DXYN follow 8XYE.
+			return nibble < 0x8 ? nibble + 1 : nibble + 9;
+		}
+	}
+
+	private static int find(String pattern) {
+		for (int c = 0; c < INVALID; c++) {
+			if (PATTERNS[c].equals(pattern)) {
+				return c;
+			}
+		}
+		return INVALID;
+	}
+
+	/**
+	 * Gets the instruction class of target opcode.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return Index into {@link #PATTERNS}, {@link #INVALID} for opcodes that don't exist.
+	 */
+	public static int classOf(int opcode) {
+		return CLASS[opcode];
+	}
+
+	/**
+	 * Gets the pattern of the instruction class of target opcode.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return The pattern, for example <code>DXYN</code>.
+	 */
+	public static String pattern(int opcode) {
+		return PATTERNS[CLASS[opcode]];
+	}
+
+	/**
+	 * Gets the address an instruction refers to.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return NNN of 1NNN, 2NNN, ANNN and BNNN, -1 for every other opcode.
+	 */
+	public static int target(int opcode) {
+		switch (opcode & 0xF000) {
+		case 0x1000:
+		case 0x2000:
+		case 0xA000:
+		case 0xB000:
+			return opcode & 0x0FFF;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Disassembles a single opcode.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return The instruction in assembly.
+	 */
+	public static String disassemble(int opcode) {
+		return disassemble(opcode, null);
+	}
+
+	/**
+	 * Disassembles a single opcode, addresses that have a symbol are written
+	 * as the symbol.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @param symbols - Symbol per address with null where there is none, or null for no symbols.
+	 * @return The instruction in assembly.
+	 */
+	public static String disassemble(int opcode, String[] symbols) {
+		int x = (opcode & 0x0F00) >>> 8;
+		int y = (opcode & 0x00F0) >>> 4;
+		int n = opcode & 0x000F;
+		int nn = opcode & 0x00FF;
+		String address = address(opcode & 0x0FFF, symbols);
+
+		switch (PATTERNS[CLASS[opcode]]) {
+		case "00E0":
+			return "CLS";
+		case "00EE":
+			return "RET";
+		case "1NNN":
+			return "JP " + address;
+		case "2NNN":
+			return "CALL " + address;
+		case "3XNN":
+			return String.format("SE V%X, 0x%02X", x, nn);
+		case "4XNN":
+			return String.format("SNE V%X, 0x%02X", x, nn);
+		case "5XY0":
+			return String.format("SE V%X, V%X", x, y);
+		case "6XNN":
+			return String.format("LD V%X, 0x%02X", x, nn);
+		case "7XNN":
+			return String.format("ADD V%X, 0x%02X", x, nn);
+		case "8XY0":
+			return String.format("LD V%X, V%X", x, y);
+		case "8XY1":
+			return String.format("OR V%X, V%X", x, y);
+		case "8XY2":
+			return String.format("AND V%X, V%X", x, y);
+		case "8XY3":
+			return String.format("XOR V%X, V%X", x, y);
+		case "8XY4":
+			return String.format("ADD V%X, V%X", x, y);
+		case "8XY5":
+			return String.format("SUB V%X, V%X", x, y);
+		case "8XY6":
+			return String.format("SHR V%X", x);
+		case "8XY7":
+			return String.format("SUBN V%X, V%X", x, y);
+		case "8XYE":
+			return String.format("SHL V%X", x);
+		case "9XY0":
+			return String.format("SNE V%X, V%X", x, y);
+		case "ANNN":
+			return "LD I, " + address;
+		case "BNNN":
+			return "JP V0, " + address;
+		case "CXNN":
+			return String.format("RND V%X, 0x%02X", x, nn);
+		case "DXYN":
+			return String.format("DRW V%X, V%X, %d", x, y, n);
+		case "EX9E":
+			return String.format("SKP V%X", x);
+		case "EXA1":
+			return String.format("SKNP V%X", x);
+		case "FX07":
+			return String.format("LD V%X, DT", x);
+		case "FX0A":
+			return String.format("LD V%X, K", x);
+		case "FX15":
+			return String.format("LD DT, V%X", x);
+		case "FX18":
+			return String.format("LD ST, V%X", x);
+		case "FX1E":
+			return String.format("ADD I, V%X", x);
+		case "FX29":
+			return String.format("LD F, V%X", x);
+		case "FX33":
+			return String.format("LD B, V%X", x);
+		case "FX55":
+			return String.format("LD [I], V%X", x);
+		case "FX65":
+			return String.format("LD V%X, [I]", x);
+		case "00CN":
+			return String.format("SCD %d", n);
+		case "00DN":
+			return String.format("SCU %d", n);
+		case "00FB":
+			return "SCR";
+		case "00FC":
+			return "SCL";
+		case "00FD":
+			return "EXIT";
+		case "00FE":
+			return "LOW";
+		case "00FF":
+			return "HIGH";
+		case "5XY2":
+			return String.format("SAVE V%X - V%X", x, y);
+		case "5XY3":
+			return String.format("LOAD V%X - V%X", x, y);
+		case "F000":
+			return "LD I, LONG";
+		case "FN01":
+			return String.format("PLANE %d", x);
+		case "F002":
+			return "AUDIO";
+		case "FX30":
+			return String.format("LD HF, V%X", x);
+		case "FX3A":
+			return String.format("PITCH V%X", x);
+		case "FX75":
+			return String.format("LD R, V%X", x);
+		case "FX85":
+			return String.format("LD V%X, R", x);
+		default:
+			return String.format("DW 0x%04X", opcode);
+		}
+	}
+
+	private static String address(int nnn, String[] symbols) {
+		if (symbols != null && symbols[nnn] != null) {
+			return symbols[nnn];
+		}
+		return String.format("0x%03X", nnn);
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * Sink for everything the interpreter draws. Implementations don't need any
+ * UI toolkit, a frontend reads the pixels back out when it wants to render.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Display.java
+ */
+public interface Display {
+
+	/**
+	 * Clears the display setting all the pixels of the selected planes to zero.
+	 */
+	void clear();
+
+	/**
+	 * Gets the content of target pixel.
+	 * 
+	 * @param x - X coordinate.
+	 * @param y - Y coordinate.
+	 * @return The pixel at target x and y coordinate, bit p set when it is
+	 *         set in plane p, so 1 for white and 0 for black with one plane.
+	 */
+	int getPixel(int x, int y);
+
+	/**
+	 * Flips the pixel at target location in the first plane.
+	 * 
+	 * @param x - X coordinate.
+	 * @param y - Y coordinate.
+	 */
+	void setPixel(int x, int y);
+
+	/**
+	 * Draws one 8 pixel wide sprite row by XOR with its leftmost pixel at target
+	 * location. Pixels that end up outside the display are clipped. Only used
+	 * at the 64x32 resolution of plain CHIP-8 with a single plane.
+	 * 
+	 * @param x - X coordinate of the leftmost pixel.
+	 * @param y - Y coordinate.
+	 * @param row - The sprite row, most significant bit leftmost.
+	 * @return True if any pixel was switched off (collision).
+	 */
+	boolean drawRow(int x, int y, int row);
+
+	/**
+	 * Draws a sprite row of up to 16 pixels into one plane by XOR.
+	 * 
+	 * @param plane - The bit plane, 0 or 1.
+	 * @param x - X coordinate of the leftmost pixel, within the display.
+	 * @param y - Y coordinate, within the display.
+	 * @param bits - The sprite row, leftmost pixel in bit width - 1.
+	 * @param width - Pixels in the row, 8 or 16.
+	 * @param wrap - True to wrap pixels past the right edge around to the left,
+	 *            false to clip them.
+	 * @return True if any pixel was switched off (collision).
+	 */
+	boolean drawSprite(int plane, int x, int y, int bits, int width, boolean wrap);
+
+	/**
+	 * Sets up the display for a mode, with the number of planes it has, at
+	 * low resolution and cleared.
+	 * 
+	 * @param mode - The mode.
+	 */
+	void setMode(Mode mode);
+
+	/**
+	 * Switches between 64x32 and 128x64 pixels, the display is cleared.
+	 * 
+	 * @param high - True for 128x64.
+	 */
+	void setHighResolution(boolean high);
+
+	/**
+	 * Getter for the width at the current resolution.
+	 * 
+	 * @return Width in pixels.
+	 */
+	int getWidth();
+
+	/**
+	 * Getter for the height at the current resolution.
+	 * 
+	 * @return Height in pixels.
+	 */
+	int getHeight();
+
+	/**
+	 * Selects the planes {@link #clear()}, the scrolls and sprites work on.
+	 * 
+	 * @param mask - Bit p set to select plane p.
+	 */
+	void selectPlanes(int mask);
+
+	/**
+	 * Getter for the selected planes.
+	 * 
+	 * @return Bit p set when plane p is selected.
+	 */
+	int getSelectedPlanes();
+
+	/**
+	 * Scrolls the selected planes down, rows scrolled in at the top are clear.
+	 * 
+	 * @param n - Pixels to scroll.
+	 */
+	void scrollDown(int n);
+
+	/**
+	 * Scrolls the selected planes up, rows scrolled in at the bottom are clear.
+	 * 
+	 * @param n - Pixels to scroll.
+	 */
+	void scrollUp(int n);
+
+	/**
+	 * Scrolls the selected planes right by 4 pixels.
+	 */
+	void scrollRight();
+
+	/**
+	 * Scrolls the selected planes left by 4 pixels.
+	 */
+	void scrollLeft();
+}
@@ -0,0 +1,489 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+
+/**
+ * Runs a machine on a thread of its own. Key events come in through a
+ * {@link KeyEventQueue} and finished frames go out through a {@link TripleBuffer},
+ * so the emulation and the UI never wait on each other. While running the
+ * machine can be watched over JMX through a {@link MachineMonitor}.
+ * 
+ * Key events are put on a {@link KeyTimeline} as far apart in instructions as
+ * they were in time, and every press is held for at least a frame. The time
+ * from a press to the first frame after it that changes the screen is
+ * measured as the input latency.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Emulator.java
+ */
+public class Emulator implements Runnable {
+
+	private static final int NO_COMMAND = -1;
+	private static final int SAVE = 0x100; // Command flag, save to the slot in the low bits.
+	private static final int LOAD = 0x200; // Command flag, load from the slot in the low bits.
+	private static final int MAX_INPUT_FRAMES = 30; // Frames a key press may take to show before it isn't measured.
+
+	private final Memory memory;
+	private final FrameBuffer frameBuffer = new FrameBuffer();
+	private final KeyState keys = new KeyState();
+	private final Scheduler scheduler;
+	private volatile RomAnalyzer analysis;
+
+	private final KeyEventQueue input;
+	private KeyTimeline timeline;
+	private long pressTime; // Host time of a key press that hasn't shown on screen yet, 0 for none.
+	private long pressFrame; // Frames run when it was applied.
+	private final TripleBuffer<FrameBuffer> frames = new TripleBuffer<>(new FrameBuffer(), new FrameBuffer(),
+			new FrameBuffer());
+	private final Runnable onFrame;
+	
+	private SaveSlots saveSlots;
+	private RewindBuffer rewindBuffer;
+	private volatile InputLog inputLog;
+	private String name = "unnamed";
+	private MachineMonitor monitor;
+	private volatile boolean rewinding;
+	private final AtomicInteger command = new AtomicInteger(NO_COMMAND);
+	private final AtomicReference<RomLibrary.Image> nextRom = new AtomicReference<>();
+
+	private volatile boolean running;
+	private volatile RuntimeException failure;
+	private volatile Thread thread;
+	private Beeper beeper;
+	private volatile VideoExporter video;
+	private SpectatorServer.Stream spectators;
+	private VideoExporter recording; // The exporter the emulation thread last saw.
+
+	/**
+	 * Creates an emulator for a plain CHIP-8 program.
+	 * 
+	 * @param program - The program to run.
+	 * @param input - Queue the key events are read from.
+	 * @param onFrame - Called on the emulation thread after every published frame, or null.
+	 */
+	public Emulator(byte[] program, KeyEventQueue input, Runnable onFrame) {
+		this(program, Mode.CHIP8, RomAnalyzer.analyze(program), input, onFrame);
+	}
+
+	/**
+	 * Creates an emulator for a program that was analyzed already.
+	 * 
+	 * @param program - The program to run.
+	 * @param mode - The mode to run it in.
+	 * @param analysis - Analysis of the program for that mode.
+	 * @param input - Queue the key events are read from.
+	 * @param onFrame - Called on the emulation thread after every published frame, or null.
+	 */
+	public Emulator(byte[] program, Mode mode, RomAnalyzer analysis, KeyEventQueue input, Runnable onFrame) {
+		this.memory = new Memory(frameBuffer, keys, mode);
+		this.memory.loadProgram(program);
+		this.analysis = analysis;
+		this.memory.prewarm(analysis);
+		this.scheduler = new Scheduler(memory);
+		this.scheduler.setFrameListener(this::recordFrame);
+		this.input = input;
+		this.onFrame = onFrame;
+	}
+
+	/**
+	 * Starts the emulation thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+
+		inputLog = new InputLog(memory.getSeed(), scheduler.getInstructionsPerFrame());
+		inputLog.setMode(memory.getMode());
+		timeline = new KeyTimeline(keys, scheduler.getInstructionsPerFrame());
+		timeline.setLog(inputLog);
+		scheduler.setInput(timeline);
+		monitor = new MachineMonitor(name);
+		scheduler.setFrameTimes(monitor.getFrameTimes());
+		try {
+			monitor.register();
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		running = true;
+		thread = new Thread(this, "chip8-emulator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the emulation thread and waits for it to finish.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+		if (monitor != null) {
+			monitor.unregister();
+		}
+		if (beeper != null) {
+			beeper.setSounding(false);
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				input.drainTo(timeline, Scheduler.FRAME_NANOS / scheduler.getInstructionsPerFrame());
+				runCommand();
+
+				long next;
+				if (rewinding && rewindBuffer != null) {
+					// Step back a frame per frame, the clock starts over once rewinding stops.
+					if (rewindBuffer.rewind(memory, frameBuffer)) {
+						inputLog.stop();
+					}
+					scheduler.reset();
+					next = System.nanoTime() + Scheduler.FRAME_NANOS;
+					if (beeper != null) {
+						beeper.setSounding(false);
+					}
+				} else {
+					if (scheduler.advance(System.nanoTime()) > 0 && beeper != null) {
+						beeper.setSounding(memory.getSoundTimer() > 0);
+					}
+					next = scheduler.getNextFrameTime();
+				}
+
+				long press = timeline.takePressTime();
+				if (press != 0 && pressTime == 0) {
+					pressTime = press;
+					pressFrame = scheduler.getFrames();
+				}
+
+				VideoExporter video = this.video;
+				if (video != recording) {
+					// A new recording starts with the whole picture.
+					recording = video;
+					if (video != null) {
+						frameBuffer.markAllDirty();
+					}
+				}
+
+				if (frameBuffer.takeDirtyRows() != 0) {
+					frameBuffer.copyTo(frames.back());
+					frames.publish();
+					if (video != null) {
+						video.capture(scheduler.getFrames(), frameBuffer);
+					}
+					if (spectators != null) {
+						spectators.publish(frameBuffer);
+					}
+					if (onFrame != null) {
+						onFrame.run();
+					}
+					if (pressTime != 0) {
+						monitor.getInputLatency().record(System.nanoTime() - pressTime);
+						pressTime = 0;
+					}
+				} else if (pressTime != 0 && scheduler.getFrames() - pressFrame > MAX_INPUT_FRAMES) {
+					// The press changed nothing on screen, a later frame shouldn't count for it.
+					pressTime = 0;
+				}
+
+				long wait = next - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+				}
+			}
+		} catch (RuntimeException e) {
+			failure = describe(e);
+			running = false;
+		}
+	}
+
+	/**
+	 * Makes sure the error that stopped the machine tells the opcode and
+	 * where it ran, the trap for invalid opcodes already does.
+	 * 
+	 * @param e - The error thrown on the emulation thread.
+	 * @return The error to report.
+	 */
+	private RuntimeException describe(RuntimeException e) {
+		if (e instanceof IllegalStateException) {
+			return e;
+		}
+		int pc = memory.getProgramCounter();
+		int mask = memory.getMode().getMemorySize() - 1;
+		int opcode = memory.read(pc & mask) << 8 | memory.read((pc + 1) & mask);
+		return new IllegalStateException(String.format("%s running %04X at %03X", e, opcode, pc), e);
+	}
+
+	/**
+	 * Adds the frame that just ran to the monitor, the input log and the
+	 * rewind history.
+	 */
+	private void recordFrame() {
+		monitor.update(scheduler, memory, frames);
+		inputLog.frame(scheduler.getFrames(), frameBuffer);
+		if (rewindBuffer != null) {
+			rewindBuffer.record(memory, frameBuffer);
+		}
+	}
+
+	/**
+	 * Resets the machine and copies another program into it. The thread,
+	 * the machine and everything the JIT did for them are kept, the memory
+	 * only changes size when the program runs in a mode with another size.
+	 * 
+	 * @param rom - The program to switch to.
+	 */
+	private void switchTo(RomLibrary.Image rom) {
+		memory.reset(rom.getMode());
+		memory.loadProgram(rom.getProgram());
+		memory.prewarm(rom.getAnalysis());
+		analysis = rom.getAnalysis();
+		name = rom.getEntry().getName();
+
+		scheduler.restart();
+		// The new log starts with every key up, keys held for the old program are let go.
+		timeline.clear();
+		inputLog = new InputLog(memory.getSeed(), scheduler.getInstructionsPerFrame());
+		inputLog.setMode(memory.getMode());
+		timeline.setLog(inputLog);
+		if (rewindBuffer != null) {
+			rewindBuffer.clear();
+		}
+		monitor.restart(name);
+	}
+
+	/**
+	 * Runs the ROM switch, save or load asked for through {@link #load(RomLibrary.Image)},
+	 * {@link #saveState(int)} or {@link #loadState(int)}, on the emulation thread
+	 * between frames.
+	 */
+	private void runCommand() {
+		RomLibrary.Image rom = nextRom.getAndSet(null);
+		if (rom != null) {
+			switchTo(rom);
+		}
+
+		int c = command.getAndSet(NO_COMMAND);
+		if (c == NO_COMMAND || saveSlots == null) {
+			return;
+		}
+
+		try {
+			if ((c & SAVE) != 0) {
+				saveSlots.save(c & 0xFF, memory, frameBuffer);
+			} else if (saveSlots.load(c & 0xFF, memory, frameBuffer)) {
+				inputLog.stop();
+			} else {
+				System.out.println("Save slot " + (c & 0xFF) + " is empty.");
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Setter for the name the machine is shown under, only to be changed
+	 * before the emulator is started.
+	 * 
+	 * @param name - Name of the ROM.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Sets the beeper played while the sound timer runs, it is turned on and
+	 * off after every frame.
+	 * 
+	 * @param beeper - The beeper or null for no sound.
+	 */
+	public void setBeeper(Beeper beeper) {
+		this.beeper = beeper;
+	}
+
+	/**
+	 * Sets the exporter every frame that changed the screen is captured to,
+	 * starting with the frame after this call.
+	 * 
+	 * @param video - The started exporter or null to stop capturing.
+	 */
+	public void setVideoExporter(VideoExporter video) {
+		this.video = video;
+	}
+
+	/**
+	 * Sets the stream every frame that changed the screen is published to for
+	 * spectators, only to be changed before the emulator is started.
+	 * 
+	 * @param spectators - The stream or null to not publish.
+	 */
+	public void setSpectators(SpectatorServer.Stream spectators) {
+		this.spectators = spectators;
+	}
+
+	/**
+	 * Sets the slots used by {@link #saveState(int)} and {@link #loadState(int)}.
+	 * 
+	 * @param saveSlots - The save slots.
+	 */
+	public void setSaveSlots(SaveSlots saveSlots) {
+		this.saveSlots = saveSlots;
+	}
+
+	/**
+	 * Sets the buffer the frames are recorded to for rewinding. Anything
+	 * recorded in it before is forgotten.
+	 * 
+	 * @param rewindBuffer - The rewind buffer or null to not record.
+	 */
+	public void setRewindBuffer(RewindBuffer rewindBuffer) {
+		if (rewindBuffer != null) {
+			rewindBuffer.clear();
+		}
+		this.rewindBuffer = rewindBuffer;
+	}
+
+	/**
+	 * Steps the machine back a frame at a time instead of running it, for as
+	 * long as rewinding is on.
+	 * 
+	 * @param rewinding - True to rewind, false to run as usual again.
+	 */
+	public void setRewinding(boolean rewinding) {
+		this.rewinding = rewinding;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Switches the running machine to another program between the next two
+	 * frames, it starts over as if it was just created.
+	 * 
+	 * @param rom - The program to run.
+	 */
+	public void load(RomLibrary.Image rom) {
+		nextRom.set(rom);
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Saves the machine to a slot between the next two frames.
+	 * 
+	 * @param slot - The slot.
+	 */
+	public void saveState(int slot) {
+		command.set(SAVE | slot);
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Restores the machine from a slot between the next two frames.
+	 * 
+	 * @param slot - The slot.
+	 */
+	public void loadState(int slot) {
+		command.set(LOAD | slot);
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Gets the log of the key presses since the emulator was started, written
+	 * out it reproduces the run with {@link Replay}.
+	 * 
+	 * @return The input log, null before the emulator is started.
+	 */
+	public InputLog getInputLog() {
+		return this.inputLog;
+	}
+
+	/**
+	 * Gets the statistics of the running machine.
+	 * 
+	 * @return The monitor, null before the emulator is started.
+	 */
+	public MachineMonitor getMonitor() {
+		return this.monitor;
+	}
+
+	/**
+	 * Gets the analysis of the program made when it was loaded.
+	 * 
+	 * @return The analysis.
+	 */
+	public RomAnalyzer getAnalysis() {
+		return this.analysis;
+	}
+
+	/**
+	 * Gets the frames produced by the emulation thread.
+	 * 
+	 * @return The frame hand off buffer.
+	 */
+	public TripleBuffer<FrameBuffer> getFrames() {
+		return this.frames;
+	}
+
+	/**
+	 * Getter for the scheduler, only to be changed before the emulator is started.
+	 * 
+	 * @return The scheduler.
+	 */
+	public Scheduler getScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * Gets the error that stopped the emulation thread, its message names the
+	 * opcode and the program counter.
+	 * 
+	 * @return The error or null if the thread didn't fail.
+	 */
+	public RuntimeException getFailure() {
+		return this.failure;
+	}
+
+	/**
+	 * Checks if the emulation thread is running.
+	 * 
+	 * @return True while running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the emulator, found under CHIP-8 in a
+ * recording. An event is only created while a recording asks for it, the
+ * factory methods return null otherwise, so nothing is allocated when nobody
+ * is recording or on a JVM without the flight recorder.
+ * 
+ * The emulator targets Java 8, which only has jdk.jfr from update 262 on, so
+ * whether the classes exist is checked once and the events are left out on
+ * older runtimes instead of failing to load.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name FlightEvents.java
+ */
+final class FlightEvents {
+
+	private static final String CATEGORY = "CHIP-8";
+
+	/** Whether this JVM has a flight recorder, nothing else in jdk.jfr is touched without it. */
+	private static final boolean AVAILABLE = probe();
+
+	private FlightEvents() {
+	}
+
+	private static boolean probe() {
+		try {
+			Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * The registered event types, only loaded once the flight recorder is
+	 * known to be there since loading it loads every event class.
+	 */
+	private static final class Types {
+		static final EventType FRAME = type(FrameEvent.class);
+		static final EventType RENDER = type(RenderEvent.class);
+		static final EventType LATE = type(LateFrameEvent.class);
+		static final EventType DROPPED = type(DroppedFramesEvent.class);
+		static final EventType ROM_LOAD = type(RomLoadEvent.class);
+
+		private static EventType type(Class<? extends Event> event) {
+			try {
+				return EventType.getEventType(event);
+			} catch (RuntimeException | LinkageError e) {
+				// The flight recorder is there but can't be used, the event is never enabled.
+				return null;
+			}
+		}
+	}
+
+	private static boolean enabled(EventType type) {
+		return type != null && type.isEnabled();
+	}
+
+	@Name("me.oskarmendel.chip8.Frame")
+	@Label("Frame")
+	@Category(CATEGORY)
+	@Description("One frame worth of instructions and a timer tick")
+	@StackTrace(false)
+	static final class FrameEvent extends Event {
+		@Label("Frame")
+		long frame;
+
+		@Label("Instructions")
+		int instructions;
+	}
+
+	@Name("me.oskarmendel.chip8.Render")
+	@Label("Render")
+	@Category(CATEGORY)
+	@Description("Uploading a frame to the screen")
+	@StackTrace(false)
+	static final class RenderEvent extends Event {
+		@Label("Rows Uploaded")
+		int rows;
+	}
+
+	@Name("me.oskarmendel.chip8.LateFrame")
+	@Label("Late Frame")
+	@Category(CATEGORY)
+	@Description("A frame that ran more than a frame after it was due")
+	@StackTrace(false)
+	static final class LateFrameEvent extends Event {
+		@Label("Frame")
+		long frame;
+
+		@Label("Lateness")
+		@Timespan(Timespan.NANOSECONDS)
+		long lateness;
+	}
+
+	@Name("me.oskarmendel.chip8.DroppedFrames")
+	@Label("Dropped Frames")
+	@Category(CATEGORY)
+	@Description("Frames skipped because the host fell too far behind")
+	@StackTrace(false)
+	static final class DroppedFramesEvent extends Event {
+		@Label("Frames")
+		long frames;
+	}
+
+	@Name("me.oskarmendel.chip8.RomLoad")
+	@Label("ROM Load")
+	@Category(CATEGORY)
+	@Description("Reading a ROM and starting a machine on it")
+	static final class RomLoadEvent extends Event {
+		@Label("Path")
+		String path;
+
+		@Label("Size")
+		@DataAmount
+		long size;
+	}
+
+	/**
+	 * Starts a frame event.
+	 * 
+	 * @return The begun event or null if it isn't being recorded.
+	 */
+	static FrameEvent frame() {
+		if (!AVAILABLE || !enabled(Types.FRAME)) {
+			return null;
+		}
+		FrameEvent event = new FrameEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Starts a render event.
+	 * 
+	 * @return The begun event or null if it isn't being recorded.
+	 */
+	static RenderEvent render() {
+		if (!AVAILABLE || !enabled(Types.RENDER)) {
+			return null;
+		}
+		RenderEvent event = new RenderEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Starts a ROM load event.
+	 * 
+	 * @return The begun event or null if it isn't being recorded.
+	 */
+	static RomLoadEvent romLoad() {
+		if (!AVAILABLE || !enabled(Types.ROM_LOAD)) {
+			return null;
+		}
+		RomLoadEvent event = new RomLoadEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Records a frame that ran late.
+	 * 
+	 * @param frame - Number of the frame.
+	 * @param lateness - How long after it was due the frame ran, in nanoseconds.
+	 */
+	static void lateFrame(long frame, long lateness) {
+		if (AVAILABLE && enabled(Types.LATE)) {
+			LateFrameEvent event = new LateFrameEvent();
+			event.frame = frame;
+			event.lateness = lateness;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records frames that were dropped.
+	 * 
+	 * @param frames - Number of frames dropped.
+	 */
+	static void droppedFrames(long frames) {
+		if (AVAILABLE && enabled(Types.DROPPED)) {
+			DroppedFramesEvent event = new DroppedFramesEvent();
+			event.frames = frames;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,534 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The display memory of the Chip 8, kept free of any UI toolkit so it can be
+ * used by headless runs as well as by the {@link Screen}. Plain CHIP-8 has
+ * 64x32 monochrome pixels, SUPER-CHIP adds 128x64 and XO-CHIP a second bit
+ * plane, so a pixel can have four colors.
+ * 
+ * Every row is one long per 64 pixels with the leftmost pixel in the most
+ * significant bit, so a sprite row is drawn with a shift and XOR or two, a
+ * scroll moves whole words and a whole frame can be copied, hashed and
+ * compared a row at a time. At 64x32 with one plane the rows are the first
+ * 32 longs, the layout plain CHIP-8 always had.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name FrameBuffer.java
+ */
+public class FrameBuffer implements Display {
+
+	public static final int WIDTH = 64;
+	public static final int HEIGHT = 32;
+	public static final int HIGH_WIDTH = 128;
+	public static final int HIGH_HEIGHT = 64;
+	public static final int MAX_PLANES = 2;
+
+	// Plane p, row y, word w is at (p * height + y) * words + w.
+	private final long[] rows = new long[MAX_PLANES * HIGH_HEIGHT * HIGH_WIDTH / 64];
+	private long dirtyRows = -1; // Bit y is set when row y changed since the last render.
+
+	private Mode mode = Mode.CHIP8;
+	private int width = WIDTH;
+	private int height = HEIGHT;
+	private int words = 1; // Longs per row.
+	private int planes = 1;
+	private int selected = 1; // Planes drawn, cleared and scrolled.
+
+	/**
+	 * Clears the display setting all the pixels of the selected planes to zero.
+	 */
+	@Override
+	public void clear() {
+		int size = height * words;
+		for (int p = 0; p < planes; p++) {
+			if ((selected & (1 << p)) == 0) {
+				continue;
+			}
+			for (int i = p * size; i < (p + 1) * size; i++) {
+				if (rows[i] != 0) {
+					rows[i] = 0;
+					dirtyRows |= 1L << (i / words % height);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void setMode(Mode mode) {
+		this.mode = mode;
+		this.planes = mode.getPlanes();
+		this.selected = 1;
+		setHighResolution(false);
+	}
+
+	/**
+	 * Getter for the mode the display was set up for.
+	 * 
+	 * @return The mode.
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	@Override
+	public void setHighResolution(boolean high) {
+		width = high ? HIGH_WIDTH : WIDTH;
+		height = high ? HIGH_HEIGHT : HEIGHT;
+		words = width / 64;
+		// Words past the frame stay clear, snapshots and hashes can take them as they are.
+		Arrays.fill(rows, 0);
+		dirtyRows = -1;
+	}
+
+	/**
+	 * Checks if the display is at 128x64.
+	 * 
+	 * @return True at high resolution.
+	 */
+	public boolean isHighResolution() {
+		return width == HIGH_WIDTH;
+	}
+
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Getter for the number of planes.
+	 * 
+	 * @return 1, or 2 for XO-CHIP.
+	 */
+	public int getPlanes() {
+		return this.planes;
+	}
+
+	/**
+	 * Getter for the number of longs per row.
+	 * 
+	 * @return 1 at 64 pixels wide, 2 at 128.
+	 */
+	public int getWordsPerRow() {
+		return this.words;
+	}
+
+	@Override
+	public void selectPlanes(int mask) {
+		this.selected = mask & ((1 << planes) - 1);
+	}
+
+	@Override
+	public int getSelectedPlanes() {
+		return this.selected;
+	}
+
+	@Override
+	public int getPixel(int x, int y) {
+		int pixel = 0;
+		for (int p = 0; p < planes; p++) {
+			long word = rows[(p * height + y) * words + (x >>> 6)];
+			pixel |= (int) ((word << x) >>> 63) << p;
+		}
+		return pixel;
+	}
+
+	@Override
+	public void setPixel(int x, int y) {
+		rows[y * words + (x >>> 6)] ^= Long.MIN_VALUE >>> x;
+		dirtyRows |= 1L << y;
+	}
+
+	@Override
+	public boolean drawRow(int x, int y, int row) {
+		if (x >= WIDTH || y >= HEIGHT) {
+			return false;
+		}
+
+		long bits = ((long) (row & 0xFF) << 56) >>> x;
+		boolean collision = (rows[y] & bits) != 0;
+		if (bits != 0) {
+			rows[y] ^= bits;
+			dirtyRows |= 1L << y;
+		}
+		return collision;
+	}
+
+	@Override
+	public boolean drawSprite(int plane, int x, int y, int bits, int width, boolean wrap) {
+		if (bits == 0) {
+			return false;
+		}
+
+		// The sprite lands in the word x is in and spills into the next one.
+		long sprite = (long) bits << (64 - width);
+		int offset = x & 63;
+		int index = (plane * height + y) * words;
+		int first = index + (x >>> 6);
+		int second = first + 1;
+		long spill = offset == 0 ? 0 : sprite << (64 - offset);
+		sprite >>>= offset;
+		if (second == index + words) {
+			second = index;
+			if (!wrap) {
+				spill = 0;
+			}
+		}
+
+		boolean collision = (rows[first] & sprite) != 0 || (rows[second] & spill) != 0;
+		rows[first] ^= sprite;
+		rows[second] ^= spill;
+		dirtyRows |= 1L << y;
+		return collision;
+	}
+
+	@Override
+	public void scrollDown(int n) {
+		n = Math.min(n, height);
+		for (int p = 0; p < planes; p++) {
+			if ((selected & (1 << p)) != 0) {
+				int base = p * height * words;
+				System.arraycopy(rows, base, rows, base + n * words, (height - n) * words);
+				Arrays.fill(rows, base, base + n * words, 0);
+			}
+		}
+		dirtyRows = -1;
+	}
+
+	@Override
+	public void scrollUp(int n) {
+		n = Math.min(n, height);
+		for (int p = 0; p < planes; p++) {
+			if ((selected & (1 << p)) != 0) {
+				int base = p * height * words;
+				System.arraycopy(rows, base + n * words, rows, base, (height - n) * words);
+				Arrays.fill(rows, base + (height - n) * words, base + height * words, 0);
+			}
+		}
+		dirtyRows = -1;
+	}
+
+	@Override
+	public void scrollRight() {
+		for (int p = 0; p < planes; p++) {
+			if ((selected & (1 << p)) == 0) {
+				continue;
+			}
+			for (int i = p * height * words; i < (p + 1) * height * words; i += words) {
+				if (words == 1) {
+					rows[i] >>>= 4;
+				} else {
+					rows[i + 1] = rows[i + 1] >>> 4 | rows[i] << 60;
+					rows[i] >>>= 4;
+				}
+			}
+		}
+		dirtyRows = -1;
+	}
+
+	@Override
+	public void scrollLeft() {
+		for (int p = 0; p < planes; p++) {
+			if ((selected & (1 << p)) == 0) {
+				continue;
+			}
+			for (int i = p * height * words; i < (p + 1) * height * words; i += words) {
+				if (words == 1) {
+					rows[i] <<= 4;
+				} else {
+					rows[i] = rows[i] << 4 | rows[i + 1] >>> 60;
+					rows[i + 1] <<= 4;
+				}
+			}
+		}
+		dirtyRows = -1;
+	}
+
+	/**
+	 * Gets the rows that changed since the last call and starts tracking anew.
+	 * 
+	 * @return A mask with bit y set for every row y that changed.
+	 */
+	public long takeDirtyRows() {
+		long dirty = dirtyRows;
+		dirtyRows = 0;
+		return dirty;
+	}
+
+	/**
+	 * Marks every row as changed, for example when a renderer lost its image.
+	 */
+	public void markAllDirty() {
+		dirtyRows = -1;
+	}
+
+	/**
+	 * Gets a whole row of pixels of the first plane at 64x32.
+	 * 
+	 * @param y - Y coordinate.
+	 * @return The row, leftmost pixel in the most significant bit.
+	 */
+	public long getRow(int y) {
+		return rows[y];
+	}
+
+	/**
+	 * Replaces a whole row of pixels of the first plane at 64x32.
+	 * 
+	 * @param y - Y coordinate.
+	 * @param row - The row, leftmost pixel in the most significant bit.
+	 */
+	public void setRow(int y, long row) {
+		if (rows[y] != row) {
+			rows[y] = row;
+			dirtyRows |= 1L << y;
+		}
+	}
+
+	/**
+	 * Gets 64 pixels of a row.
+	 * 
+	 * @param plane - The plane.
+	 * @param y - Y coordinate.
+	 * @param w - Which 64 pixels, 0 for the leftmost.
+	 * @return The pixels, leftmost in the most significant bit.
+	 */
+	public long getWord(int plane, int y, int w) {
+		return rows[(plane * height + y) * words + w];
+	}
+
+	/**
+	 * Gets the rows backing the frame buffer so renderers can read them
+	 * without a copy, see {@link #getWord(int, int, int)} for the layout. The
+	 * array must not be modified.
+	 * 
+	 * @return The live rows.
+	 */
+	public long[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * Gets the number of longs the current frame takes up in {@link #getRows()}.
+	 * 
+	 * @return Planes times rows times words per row.
+	 */
+	public int getFrameWords() {
+		return planes * height * words;
+	}
+
+	/**
+	 * Copies the frame into target array.
+	 * 
+	 * @param dest - Array of at least {@link #getFrameWords()} longs.
+	 */
+	public void copyRows(long[] dest) {
+		System.arraycopy(rows, 0, dest, 0, getFrameWords());
+	}
+
+	/**
+	 * Replaces the frame with the content of target array, at the current
+	 * resolution.
+	 * 
+	 * @param src - Array of at least {@link #getFrameWords()} longs.
+	 */
+	public void setRows(long[] src) {
+		if (words == 1 && planes == 1) {
+			dirtyRows |= diff(rows, src);
+		} else {
+			dirtyRows = -1;
+		}
+		System.arraycopy(src, 0, rows, 0, getFrameWords());
+	}
+
+	/**
+	 * Copies the whole display, resolution and planes included, into another
+	 * frame buffer, for example to hand it to another thread.
+	 * 
+	 * @param dest - The frame buffer to copy into.
+	 */
+	public void copyTo(FrameBuffer dest) {
+		dest.mode = mode;
+		dest.width = width;
+		dest.height = height;
+		dest.words = words;
+		dest.planes = planes;
+		dest.selected = selected;
+		System.arraycopy(rows, 0, dest.rows, 0, getFrameWords());
+		dest.dirtyRows = -1;
+	}
+
+	/**
+	 * Compares this frame with another one row by row.
+	 * 
+	 * @param other - The other frame.
+	 * @return A mask with bit y set for every row y that differs, all rows if
+	 *         the resolution or planes differ.
+	 */
+	public long diff(FrameBuffer other) {
+		if (other.width != width || other.planes != planes) {
+			return -1;
+		}
+		long mask = 0;
+		int size = height * words;
+		for (int i = 0; i < planes * size; i++) {
+			if (rows[i] != other.rows[i]) {
+				mask |= 1L << (i % size / words);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Expands a row of the current frame into one ARGB color per pixel, the
+	 * color of a pixel is picked by its bits in all planes.
+	 * 
+	 * @param y - Y coordinate.
+	 * @param dest - Array receiving {@link #getWidth()} colors.
+	 * @param palette - Color per pixel value, bit p of the value set by plane p.
+	 */
+	public void expandRow(int y, int[] dest, int[] palette) {
+		for (int w = 0; w < words; w++) {
+			long low = rows[y * words + w];
+			long high = planes > 1 ? rows[(height + y) * words + w] : 0;
+			for (int x = 0; x < 64; x++) {
+				dest[w * 64 + x] = palette[(int) ((low << x) >>> 63) | (int) ((high << x) >>> 63) << 1];
+			}
+		}
+	}
+
+	/**
+	 * Expands a row into one ARGB color per pixel.
+	 * 
+	 * @param row - The row, leftmost pixel in the most significant bit.
+	 * @param dest - Array receiving {@link #WIDTH} colors.
+	 * @param on - Color of pixels that are set.
+	 * @param off - Color of pixels that are clear.
+	 */
+	public static void expandRow(long row, int[] dest, int on, int off) {
+		for (int x = 0; x < WIDTH; x++) {
+			dest[x] = (row << x) < 0 ? on : off;
+		}
+	}
+
+	/**
+	 * Gets the size of what {@link #writeState(ByteBuffer)} writes for a mode,
+	 * which is the same at either resolution.
+	 * 
+	 * @param mode - The mode.
+	 * @return Size in bytes.
+	 */
+	public static int stateSize(Mode mode) {
+		int words = mode.isExtended() ? HIGH_HEIGHT * HIGH_WIDTH / 64 : HEIGHT * WIDTH / 64;
+		return 8 + mode.getPlanes() * words * 8;
+	}
+
+	/**
+	 * Writes the resolution, the selected planes and every pixel, see
+	 * {@link SaveState}.
+	 * 
+	 * @param buffer - Buffer with room for {@link #stateSize(Mode)} bytes.
+	 */
+	public void writeState(ByteBuffer buffer) {
+		buffer.put((byte) (isHighResolution() ? 1 : 0));
+		buffer.put((byte) selected);
+		buffer.putShort((short) 0);
+		buffer.putInt(0);
+		int end = (stateSize(mode) - 8) / 8;
+		for (int i = 0; i < end; i++) {
+			buffer.putLong(rows[i]);
+		}
+	}
+
+	/**
+	 * Restores the display written by {@link #writeState(ByteBuffer)}, in the
+	 * mode it was set up for.
+	 * 
+	 * @param buffer - Buffer to read from.
+	 */
+	public void readState(ByteBuffer buffer) {
+		setHighResolution(buffer.get() != 0);
+		selectPlanes(buffer.get());
+		buffer.getShort();
+		buffer.getInt();
+		int end = (stateSize(mode) - 8) / 8;
+		for (int i = 0; i < end; i++) {
+			rows[i] = buffer.getLong();
+		}
+	}
+
+	/**
+	 * Hashes the current frame.
+	 * 
+	 * @return A 64 bit hash of every pixel.
+	 */
+	public long hash() {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < getFrameWords(); i++) {
+			h = (h ^ rows[i]) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Hashes a frame given as rows.
+	 * 
+	 * @param rows - The rows of a 64x32 frame.
+	 * @return A 64 bit FNV-1a hash over the rows.
+	 */
+	public static long hash(long[] rows) {
+		long h = 0xCBF29CE484222325L;
+		for (int y = 0; y < HEIGHT; y++) {
+			h = (h ^ rows[y]) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Compares two 64x32 frames row by row.
+	 * 
+	 * @param a - Rows of the first frame.
+	 * @param b - Rows of the second frame.
+	 * @return A mask with bit y set for every row y that differs.
+	 */
+	public static int diff(long[] a, long[] b) {
+		int mask = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			if (a[y] != b[y]) {
+				mask |= 1 << y;
+			}
+		}
+		return mask;
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs ROMs without any UI toolkit at full speed and reports how many
+ * instructions per second the interpreter manages.
+ * 
+ * Usage: Headless [-n instructions] [-f instructions per frame] [-c] [-d] [-w] [-p] [-x mode] [-v format] [rom or directory ...]
+ * 
+ * Every ROM runs in 60 Hz frames through a {@link Scheduler}, as fast as the
+ * host allows.
+ * 
+ * -c runs the ROMs through the {@link BlockCompiler} instead of the interpreter,
+ * -d turns on the decode cache, -w records every frame into a {@link RewindBuffer}
+ * and reports how much memory a minute of rewind history takes, -p profiles
+ * every ROM with a {@link Profiler} and prints its report. -x runs every ROM in
+ * the given {@link Mode} instead of its own, see {@link RomLibrary#modeOf(File)}.
+ * -v records every ROM with a {@link VideoExporter} into a file named after
+ * it in the working directory, the format is raw, png or gif. No frame is
+ * dropped, the machine waits for the encoder if it has to.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Headless.java
+ */
+public class Headless {
+
+	private static final String DEFAULT_ROMS = "roms";
+	private static final int PROFILE_TOP = 10; // Entries per list in profiler reports.
+
+	private long instructions = 10_000_000;
+	private int instructionsPerFrame = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND / Scheduler.FRAME_RATE;
+	private boolean compile = false;
+	private boolean decodeCache = false;
+	private RewindBuffer rewindBuffer;
+	private Profiler profiler;
+	private Mode mode; // Mode to run every ROM in, null for their own.
+	private VideoExporter.Format videoFormat; // Null to not record.
+
+	/**
+	 * Runs a single ROM and prints a line with the result.
+	 * 
+	 * @param rom - The ROM file to run.
+	 * @throws IOException If the ROM could not be read.
+	 */
+	public void run(File rom) throws IOException {
+		byte[] program = Files.readAllBytes(rom.toPath());
+		Mode romMode = mode != null ? mode : RomLibrary.modeOf(rom);
+
+		FrameBuffer frameBuffer = new FrameBuffer();
+		Memory memory = new Memory(frameBuffer, new KeyState(), romMode);
+		memory.loadProgram(program);
+		memory.setBlockCompiler(compile);
+		memory.setDecodeCache(decodeCache);
+		memory.prewarm(RomAnalyzer.analyze(program, romMode));
+		if (profiler != null) {
+			profiler.reset();
+			memory.setProfiler(profiler);
+		}
+
+		Scheduler scheduler = new Scheduler(memory);
+		scheduler.setInstructionsPerFrame(instructionsPerFrame);
+		if (rewindBuffer != null) {
+			rewindBuffer.clear();
+			scheduler.setFrameListener(() -> rewindBuffer.record(memory, frameBuffer));
+		}
+
+		VideoExporter video = null;
+		if (videoFormat != null) {
+			video = new VideoExporter(new File(rom.getName() + "." + videoFormat.getExtension()), videoFormat,
+					VideoExporter.DEFAULT_SCALE, VideoExporter.DEFAULT_QUEUE_FRAMES, true);
+			video.start();
+			video.capture(0, frameBuffer);
+		}
+
+		String status = "ok";
+		long start = System.nanoTime();
+		try {
+			while (scheduler.getInstructions() < instructions) {
+				scheduler.runFrame();
+				if (video != null && frameBuffer.takeDirtyRows() != 0) {
+					video.capture(scheduler.getFrames(), frameBuffer);
+				}
+			}
+		} catch (RuntimeException e) {
+			status = "halted at 0x" + Integer.toHexString(memory.getProgramCounter()) + " (" + e + ")";
+		}
+		long elapsed = System.nanoTime() - start;
+		long executed = scheduler.getInstructions();
+
+		BlockCompiler compiler = memory.getBlockCompiler();
+		if (compiler != null) {
+			status += String.format(" [%d blocks, %d compiled, %d invalidated]", compiler.getBlocksFormed(),
+					compiler.getBlocksCompiled(), compiler.getBlocksInvalidated());
+		}
+		if (memory.getIdleSkipped() > 0) {
+			status += String.format(" [%.1f%% idle]", 100.0 * memory.getIdleSkipped() / Math.max(1, executed));
+		}
+		if (video != null) {
+			video.close(scheduler.getFrames());
+			status += String.format(" [video %,d frames, %.0fx real time]", video.getCaptured(), video.getSpeed());
+		}
+		if (rewindBuffer != null) {
+			status += String.format(" [rewind %,d frames, %,d KB/min]", rewindBuffer.getFrames(),
+					rewindBuffer.getBytesPerMinute() / 1024);
+		}
+
+		System.out.printf("%-10s %,14d instr %10.1f ms %,16.0f IPS  %s%n", rom.getName(), executed,
+				elapsed / 1e6, executed * 1e9 / Math.max(1, elapsed), status);
+		if (profiler != null) {
+			profiler.report(System.out, PROFILE_TOP);
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Collects the ROM files to run, directories are expanded to the files
+	 * inside them except for the {@link RomLibrary#MODES_FILE}.
+	 * 
+	 * @param paths - Files and directories given on the command line.
+	 * @return The ROM files sorted by name within each directory.
+	 */
+	public static List<File> collectRoms(List<String> paths) {
+		List<File> roms = new ArrayList<>();
+		for (String path : paths) {
+			File f = new File(path);
+			if (f.isDirectory()) {
+				File[] files = f.listFiles(file -> file.isFile() && !file.getName().equals(RomLibrary.MODES_FILE));
+				if (files != null) {
+					Arrays.sort(files);
+					roms.addAll(Arrays.asList(files));
+				}
+			} else {
+				roms.add(f);
+			}
+		}
+		return roms;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Headless headless = new Headless();
+		List<String> paths = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-n":
+				headless.instructions = Long.parseLong(args[++i]);
+				break;
+			case "-f":
+				headless.instructionsPerFrame = Integer.parseInt(args[++i]);
+				break;
+			case "-c":
+				headless.compile = true;
+				break;
+			case "-d":
+				headless.decodeCache = true;
+				break;
+			case "-w":
+				headless.rewindBuffer = new RewindBuffer();
+				break;
+			case "-p":
+				headless.profiler = new Profiler();
+				break;
+			case "-x":
+				headless.mode = Mode.parse(args[++i]);
+				break;
+			case "-v":
+				headless.videoFormat = VideoExporter.Format.valueOf(args[++i].toUpperCase());
+				break;
+			default:
+				paths.add(args[i]);
+				break;
+			}
+		}
+
+		if (paths.isEmpty()) {
+			paths.add(DEFAULT_ROMS);
+		}
+
+		for (File rom : collectRoms(paths)) {
+			headless.run(rom);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Records every change of keypad state along with the frame and the
+ * instruction in it that it happened at, plus a frame buffer hash every so often. Written out it is an
+ * {@link InputScript} that {@link Replay} feeds back to a fresh machine to
+ * reproduce the run exactly.
+ * 
+ * Loading a save state or rewinding replaces the machine state with one the
+ * log knows nothing about, recording stops there and the log replays up to
+ * that point.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name InputLog.java
+ */
+public class InputLog {
+
+	public static final int DEFAULT_CHECK_INTERVAL = Scheduler.FRAME_RATE;
+
+	private final long seed;
+	private final int instructionsPerFrame;
+	private final int checkInterval;
+	private Mode mode = Mode.CHIP8;
+
+	private long[] events = new long[256]; // Frame in the high bits, then down and the key.
+	private int[] offsets = new int[256]; // Instructions into the frame of every event.
+	private int eventCount;
+	private long[] checks = new long[256]; // Pairs of frame and frame buffer hash.
+	private int checkCount;
+	private boolean stopped;
+
+	/**
+	 * Creates an empty log.
+	 * 
+	 * @param seed - Seed of the machine, see {@link Memory#setSeed(long)}.
+	 * @param instructionsPerFrame - Instructions the machine runs per frame.
+	 */
+	public InputLog(long seed, int instructionsPerFrame) {
+		this(seed, instructionsPerFrame, DEFAULT_CHECK_INTERVAL);
+	}
+
+	/**
+	 * Creates an empty log.
+	 * 
+	 * @param seed - Seed of the machine, see {@link Memory#setSeed(long)}.
+	 * @param instructionsPerFrame - Instructions the machine runs per frame.
+	 * @param checkInterval - Frames between two frame buffer hashes.
+	 */
+	public InputLog(long seed, int instructionsPerFrame, int checkInterval) {
+		this.seed = seed;
+		this.instructionsPerFrame = instructionsPerFrame;
+		this.checkInterval = checkInterval;
+	}
+
+	/**
+	 * Records a key press or release at the start of a frame.
+	 * 
+	 * @param frame - Number of frames run before the change.
+	 * @param key - Key on the keypad, 0x0 to 0xF.
+	 * @param down - True for a press, false for a release.
+	 */
+	public void record(long frame, int key, boolean down) {
+		record(frame, 0, key, down);
+	}
+
+	/**
+	 * Records a key press or release.
+	 * 
+	 * @param frame - Number of frames run before the change.
+	 * @param offset - Number of instructions run in the frame before the change.
+	 * @param key - Key on the keypad, 0x0 to 0xF.
+	 * @param down - True for a press, false for a release.
+	 */
+	public synchronized void record(long frame, int offset, int key, boolean down) {
+		if (stopped) {
+			return;
+		}
+
+		if (eventCount == events.length) {
+			events = Arrays.copyOf(events, eventCount * 2);
+			offsets = Arrays.copyOf(offsets, eventCount * 2);
+		}
+		offsets[eventCount] = offset;
+		events[eventCount++] = frame << 5 | (down ? 0x10 : 0) | (key & 0xF);
+	}
+
+	/**
+	 * Called after every frame, takes a hash of the frame buffer every check
+	 * interval frames.
+	 * 
+	 * @param frames - Number of frames run.
+	 * @param frameBuffer - The frame buffer the machine draws into.
+	 */
+	public synchronized void frame(long frames, FrameBuffer frameBuffer) {
+		if (stopped || frames % checkInterval != 0) {
+			return;
+		}
+
+		if (checkCount * 2 == checks.length) {
+			checks = Arrays.copyOf(checks, checks.length * 2);
+		}
+		checks[checkCount * 2] = frames;
+		checks[checkCount * 2 + 1] = frameBuffer.hash();
+		checkCount++;
+	}
+
+	/**
+	 * Setter for the mode the machine runs in, written to the log if it isn't
+	 * plain CHIP-8.
+	 * 
+	 * @param mode - The mode.
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Stops recording, for when the machine state is replaced.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Checks if recording has stopped.
+	 * 
+	 * @return True once {@link #stop()} has been called.
+	 */
+	public synchronized boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Getter for the number of key changes recorded.
+	 * 
+	 * @return The number of events.
+	 */
+	public synchronized int size() {
+		return eventCount;
+	}
+
+	/**
+	 * Writes the log in the {@link InputScript} text form.
+	 * 
+	 * @param file - The file to write.
+	 * @throws IOException If the file could not be written.
+	 */
+	public synchronized void write(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			out.println("# CHIP-8 input log");
+			if (stopped) {
+				out.println("# state was loaded or rewound after the last line");
+			}
+			out.printf("seed %016x%n", seed);
+			out.printf("ipf %d%n", instructionsPerFrame);
+			if (mode != Mode.CHIP8) {
+				out.printf("mode %s%n", mode.name().toLowerCase());
+			}
+
+			// Events and hashes in frame order, a hash comes after the events of the
+			// frames it covers.
+			int c = 0;
+			for (int e = 0; e < eventCount; e++) {
+				long frame = events[e] >>> 5;
+				for (; c < checkCount && checks[c * 2] <= frame; c++) {
+					out.printf("%d hash %016x%n", checks[c * 2], checks[c * 2 + 1]);
+				}
+				out.printf("%d %x %s", frame, events[e] & 0xF, (events[e] & 0x10) != 0 ? "down" : "up");
+				out.println(offsets[e] != 0 ? " " + offsets[e] : "");
+			}
+			for (; c < checkCount; c++) {
+				out.printf("%d hash %016x%n", checks[c * 2], checks[c * 2 + 1]);
+			}
+		}
+	}
+}
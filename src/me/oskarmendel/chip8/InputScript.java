@@ -0,0 +1,298 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Scripted keypad input, a list of key presses and releases each happening at
+ * the start of a given frame or a number of instructions into it.
+ * 
+ * The text form has one event per line, <code>frame key down|up [instruction]</code> with the
+ * key in hex and the instruction within the frame, 0 if left out, and <code>#</code> starts a comment. Scripts written by an
+ * {@link InputLog} also hold the seed the machine ran with,
+ * <code>seed hex</code>, its speed, <code>ipf n</code>, the mode if it isn't CHIP-8, <code>mode name</code>,
+ * and frame buffer hashes to check a replay against,
+ * <code>frame hash hex</code> with frame being the number of frames run when
+ * the hash was taken.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name InputScript.java
+ */
+public class InputScript {
+
+	private final long[] frames;
+	private final int[] keys;
+	private final boolean[] down;
+	private final int[] offsets;
+
+	private final boolean seeded;
+	private final long seed;
+	private final int instructionsPerFrame;
+	private final Mode mode;
+	private final long[] checkFrames;
+	private final long[] checkHashes;
+
+	private InputScript(List<long[]> events) {
+		this(events, new ArrayList<long[]>(), false, 0, 0, null);
+	}
+
+	private InputScript(List<long[]> events, List<long[]> checks, boolean seeded, long seed,
+			int instructionsPerFrame, Mode mode) {
+		this.seeded = seeded;
+		this.seed = seed;
+		this.instructionsPerFrame = instructionsPerFrame;
+		this.mode = mode;
+		checkFrames = new long[checks.size()];
+		checkHashes = new long[checks.size()];
+		for (int i = 0; i < checks.size(); i++) {
+			checkFrames[i] = checks.get(i)[0];
+			checkHashes[i] = checks.get(i)[1];
+		}
+
+		frames = new long[events.size()];
+		keys = new int[events.size()];
+		down = new boolean[events.size()];
+		offsets = new int[events.size()];
+		for (int i = 0; i < events.size(); i++) {
+			long[] e = events.get(i);
+			frames[i] = e[0];
+			keys[i] = (int) e[1];
+			down[i] = e[2] != 0;
+			offsets[i] = e.length > 3 ? (int) e[3] : 0;
+		}
+	}
+
+	/**
+	 * Creates an empty script.
+	 * 
+	 * @return A script without any events.
+	 */
+	public static InputScript empty() {
+		return new InputScript(new ArrayList<long[]>());
+	}
+
+	/**
+	 * Reads a script from its text form.
+	 * 
+	 * @param file - The script file.
+	 * @return The script.
+	 * @throws IOException If the file could not be read or has a malformed line.
+	 */
+	public static InputScript read(File file) throws IOException {
+		List<long[]> events = new ArrayList<>();
+		List<long[]> checks = new ArrayList<>();
+		boolean seeded = false;
+		long seed = 0;
+		int instructionsPerFrame = 0;
+		Mode mode = null;
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			int lineNumber = 0;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				lineNumber++;
+				int comment = line.indexOf('#');
+				if (comment >= 0) {
+					line = line.substring(0, comment);
+				}
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				String[] f = line.split("\\s+");
+				if (f.length == 2 && f[0].equals("seed")) {
+					seeded = true;
+					seed = Long.parseUnsignedLong(f[1], 16);
+					continue;
+				}
+				if (f.length == 2 && f[0].equals("ipf")) {
+					instructionsPerFrame = Integer.parseInt(f[1]);
+					continue;
+				}
+				if (f.length == 2 && f[0].equals("mode")) {
+					try {
+						mode = Mode.parse(f[1]);
+					} catch (IllegalArgumentException e) {
+						throw new IOException(file + ":" + lineNumber + ": unknown mode " + f[1]);
+					}
+					continue;
+				}
+				if (f.length == 3 && f[1].equals("hash")) {
+					checks.add(new long[] { Long.parseLong(f[0]), Long.parseUnsignedLong(f[2], 16) });
+					continue;
+				}
+				if (f.length < 3 || f.length > 4 || !(f[2].equals("down") || f[2].equals("up"))) {
+					throw new IOException(file + ":" + lineNumber + ": expected 'frame key down|up [instruction]'");
+				}
+				long frame = Long.parseLong(f[0]);
+				int offset = f.length == 4 ? Integer.parseInt(f[3]) : 0;
+				if (!events.isEmpty() && frame < events.get(events.size() - 1)[0]) {
+					throw new IOException(file + ":" + lineNumber + ": frames must not go backwards");
+				}
+				events.add(new long[] { frame, Integer.parseInt(f[1], 16) & 0xF, f[2].equals("down") ? 1 : 0, offset });
+			}
+		}
+		return new InputScript(events, checks, seeded, seed, instructionsPerFrame, mode);
+	}
+
+	/**
+	 * Generates random key taps, the same seed always gives the same script.
+	 * 
+	 * @param seed - Seed of the generator.
+	 * @param length - Number of frames to cover.
+	 * @return The script.
+	 */
+	public static InputScript random(long seed, long length) {
+		SplittableRandom random = new SplittableRandom(seed);
+		List<long[]> events = new ArrayList<>();
+		long frame = random.nextInt(30);
+		while (frame < length) {
+			int key = random.nextInt(16);
+			long hold = 2 + random.nextInt(20);
+			events.add(new long[] { frame, key, 1 });
+			events.add(new long[] { frame + hold, key, 0 });
+			frame += hold + random.nextInt(60);
+		}
+		return new InputScript(events);
+	}
+
+	/**
+	 * Applies every event of target frame at its start, instructions within
+	 * the frame are ignored.
+	 * 
+	 * @param frame - The frame about to run.
+	 * @param state - Keypad state to update.
+	 * @param cursor - Index of the first event not applied yet, 0 to start with.
+	 * @return The cursor to pass in for the next frame.
+	 */
+	public int apply(long frame, KeyState state, int cursor) {
+		while (cursor < frames.length && frames[cursor] <= frame) {
+			if (down[cursor]) {
+				state.press(keys[cursor]);
+			} else {
+				state.release(keys[cursor]);
+			}
+			cursor++;
+		}
+		return cursor;
+	}
+
+	/**
+	 * Schedules every event of target frame on a timeline at the instruction
+	 * it happened at, to be called before the frame runs.
+	 * 
+	 * @param frame - The frame about to run.
+	 * @param timeline - Timeline to schedule the events on.
+	 * @param cursor - Index of the first event not scheduled yet, 0 to start with.
+	 * @return The cursor to pass in for the next frame.
+	 */
+	public int apply(long frame, KeyTimeline timeline, int cursor) {
+		while (cursor < frames.length && frames[cursor] <= frame) {
+			timeline.add(frames[cursor] < frame ? 0 : offsets[cursor], keys[cursor], down[cursor], 0);
+			cursor++;
+		}
+		return cursor;
+	}
+
+	/**
+	 * Checks if the script says which seed to run the machine with.
+	 * 
+	 * @return True if there is a seed line.
+	 */
+	public boolean hasSeed() {
+		return this.seeded;
+	}
+
+	/**
+	 * Getter for the seed to run the machine with.
+	 * 
+	 * @return The seed, 0 if the script has none.
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+
+	/**
+	 * Getter for the speed to run the machine at.
+	 * 
+	 * @return Instructions per frame, 0 if the script doesn't say.
+	 */
+	public int getInstructionsPerFrame() {
+		return this.instructionsPerFrame;
+	}
+
+	/**
+	 * Getter for the mode to run the machine in.
+	 * 
+	 * @return The mode, null if the script doesn't say.
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * Getter for the number of frame buffer hashes to check.
+	 * 
+	 * @return The number of hash lines.
+	 */
+	public int getCheckpoints() {
+		return this.checkFrames.length;
+	}
+
+	/**
+	 * Getter for the frame a hash was taken at.
+	 * 
+	 * @param i - Index of the hash.
+	 * @return Number of frames run when the hash was taken.
+	 */
+	public long getCheckpointFrame(int i) {
+		return this.checkFrames[i];
+	}
+
+	/**
+	 * Getter for a frame buffer hash.
+	 * 
+	 * @param i - Index of the hash.
+	 * @return The hash as from {@link FrameBuffer#hash()}.
+	 */
+	public long getCheckpointHash(int i) {
+		return this.checkHashes[i];
+	}
+
+	/**
+	 * Getter for the number of events.
+	 * 
+	 * @return The number of events in the script.
+	 */
+	public int size() {
+		return frames.length;
+	}
+}
@@ -0,0 +1,307 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * Dispatch table covering all 65536 opcodes. Every opcode is decoded once when
+ * the class loads into an {@link Instruction} with its X, Y, N, NN and NNN operands
+ * bound, so the interpreter does a single indexed lookup per instruction.
+ * Opcodes that don't exist map to {@link Memory#trap(int)}.
+ * 
+ * The SUPER-CHIP and XO-CHIP instructions are in the same table, the machine
+ * traps them itself when it runs in a mode that doesn't have them.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Instructions.java
+ */
+public final class Instructions {
+
+	static final Instruction[] TABLE = new Instruction[0x10000];
+	private static final byte[] MODES = new byte[0x10000]; // Bit per Mode ordinal the opcode exists in.
+
+	static {
+		for (int op = 0; op < TABLE.length; op++) {
+			Instruction instruction = decode(op);
+			MODES[op] = (byte) (instruction != null ? modes(op) : 0);
+			TABLE[op] = instruction != null ? instruction : trap(op);
+		}
+	}
+
+	private Instructions() {
+	}
+
+	/**
+	 * Gets the decoded instruction for target opcode.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return The instruction, never null.
+	 */
+	public static Instruction get(int opcode) {
+		return TABLE[opcode];
+	}
+
+	/**
+	 * Checks if target opcode is a real CHIP-8 instruction.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return False if the opcode goes to the trap.
+	 */
+	public static boolean isValid(int opcode) {
+		return (MODES[opcode] & 1) != 0;
+	}
+
+	/**
+	 * Checks if target opcode is a real instruction in a mode.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @param mode - The mode.
+	 * @return False if the opcode traps in that mode.
+	 */
+	public static boolean isValid(int opcode, Mode mode) {
+		return (MODES[opcode] & (1 << mode.ordinal())) != 0;
+	}
+
+	/**
+	 * Checks if target opcode is a real instruction in any mode.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return False if the opcode traps in every mode.
+	 */
+	public static boolean isValidInAnyMode(int opcode) {
+		return MODES[opcode] != 0;
+	}
+
+	/**
+	 * Finds the modes a decoded opcode exists in.
+	 * 
+	 * @param op - An opcode that decodes to an instruction.
+	 * @return Bit per {@link Mode} ordinal.
+	 */
+	private static int modes(int op) {
+		int all = 1 << Mode.CHIP8.ordinal() | 1 << Mode.SCHIP.ordinal() | 1 << Mode.XOCHIP.ordinal();
+		int superChip = 1 << Mode.SCHIP.ordinal() | 1 << Mode.XOCHIP.ordinal();
+		int xoChip = 1 << Mode.XOCHIP.ordinal();
+		switch (op & 0xF000) {
+		case 0x0000:
+			if (op == 0x00E0 || op == 0x00EE) {
+				return all;
+			}
+			return (op & 0xFFF0) == 0x00D0 ? xoChip : superChip;
+		case 0xF000:
+			switch (op & 0x00FF) {
+			case 0x00:
+			case 0x01:
+			case 0x02:
+			case 0x3A:
+				return xoChip;
+			case 0x30:
+				return superChip;
+			case 0x75:
+			case 0x85:
+				// SUPER-CHIP has 8 flag registers, XO-CHIP 16.
+				return (op & 0x0F00) < 0x0800 ? superChip : xoChip;
+			default:
+				return all;
+			}
+		default:
+			return all;
+		}
+	}
+
+	/**
+	 * Checks if target opcode ends a basic block, which is any instruction that
+	 * may leave the program counter somewhere other than the next instruction
+	 * or that writes to memory.
+	 * 
+	 * @param opcode - The 16 bit opcode.
+	 * @return True if no instruction may follow it in a block.
+	 */
+	public static boolean endsBlock(int opcode) {
+		switch (opcode & 0xF000) {
+		case 0x0000:
+			return opcode == 0x00EE || opcode == 0x00FD;
+		case 0x1000:
+		case 0x2000:
+		case 0x3000:
+		case 0x4000:
+		case 0x5000:
+		case 0x9000:
+		case 0xB000:
+		case 0xE000:
+			return true;
+		case 0xF000:
+			int nn = opcode & 0x00FF;
+			// F000 is followed by its operand instead of an instruction.
+			return nn == 0x0A || nn == 0x33 || nn == 0x55 || opcode == 0xF000;
+		default:
+			return false;
+		}
+	}
+
+	private static Instruction trap(int op) {
+		return m -> m.trap(op);
+	}
+
+	/**
+	 * Decodes a single opcode into its instruction.
+	 * 
+	 * @param op - The 16 bit opcode.
+	 * @return The instruction performing the opcode or null if there is none.
+	 */
+	private static Instruction decode(int op) {
+		final int x = (op & 0x0F00) >>> 8;
+		final int y = (op & 0x00F0) >>> 4;
+		final int n = op & 0x000F;
+		final int nn = op & 0x00FF;
+		final int nnn = op & 0x0FFF;
+
+		switch (op & 0xF000) {
+		case 0x0000:
+			switch (op) {
+			case 0x00E0:
+				return Memory::clearScreen;
+			case 0x00EE:
+				return Memory::returnFromSubroutine;
+			case 0x00FB:
+				return Memory::scrollRight;
+			case 0x00FC:
+				return Memory::scrollLeft;
+			case 0x00FD:
+				return Memory::exit;
+			case 0x00FE:
+				return Memory::lowResolution;
+			case 0x00FF:
+				return Memory::highResolution;
+			}
+			if ((op & 0xFFF0) == 0x00C0) {
+				return m -> m.scrollDown(n);
+			}
+			if ((op & 0xFFF0) == 0x00D0) {
+				return m -> m.scrollUp(n);
+			}
+			break;
+		case 0x1000:
+			return m -> m.jump(nnn);
+		case 0x2000:
+			return m -> m.call(nnn);
+		case 0x3000:
+			return m -> m.skipIfEqual(x, nn);
+		case 0x4000:
+			return m -> m.skipIfNotEqual(x, nn);
+		case 0x5000:
+			switch (n) {
+			case 0x2:
+				return m -> m.storeRange(x, y);
+			case 0x3:
+				return m -> m.loadRange(x, y);
+			default:
+				return m -> m.skipIfRegistersEqual(x, y);
+			}
+		case 0x6000:
+			return m -> m.load(x, nn);
+		case 0x7000:
+			return m -> m.add(x, nn);
+		case 0x8000:
+			switch (n) {
+			case 0x0:
+				return m -> m.copy(x, y);
+			case 0x1:
+				return m -> m.or(x, y);
+			case 0x2:
+				return m -> m.and(x, y);
+			case 0x3:
+				return m -> m.xor(x, y);
+			case 0x4:
+				return m -> m.addRegisters(x, y);
+			case 0x5:
+				return m -> m.subtract(x, y);
+			case 0x6:
+				return m -> m.shiftRight(x);
+			case 0x7:
+				return m -> m.subtractReverse(x, y);
+			case 0xE:
+				return m -> m.shiftLeft(x);
+			}
+			break;
+		case 0x9000:
+			// Like 5XYN the low nibble isn't checked, 9XYN skips for any N.
+			return m -> m.skipIfRegistersNotEqual(x, y);
+		case 0xA000:
+			return m -> m.loadIndex(nnn);
+		case 0xB000:
+			return m -> m.jumpOffset(nnn);
+		case 0xC000:
+			return m -> m.random(x, nn);
+		case 0xD000:
+			return m -> m.draw(x, y, n);
+		case 0xE000:
+			switch (nn) {
+			case 0x9E:
+				return m -> m.skipIfPressed(x);
+			case 0xA1:
+				return m -> m.skipIfNotPressed(x);
+			}
+			break;
+		case 0xF000:
+			switch (nn) {
+			case 0x00:
+				return x == 0 ? Memory::loadLongIndex : null;
+			case 0x01:
+				return m -> m.selectPlanes(x);
+			case 0x02:
+				return x == 0 ? Memory::loadAudioPattern : null;
+			case 0x07:
+				return m -> m.loadDelayTimer(x);
+			case 0x0A:
+				return m -> m.waitForKey(x);
+			case 0x15:
+				return m -> m.storeDelayTimer(x);
+			case 0x18:
+				return m -> m.storeSoundTimer(x);
+			case 0x1E:
+				return m -> m.addIndex(x);
+			case 0x29:
+				return m -> m.loadFontIndex(x);
+			case 0x33:
+				return m -> m.storeBcd(x);
+			case 0x55:
+				return m -> m.storeRegisters(x);
+			case 0x65:
+				return m -> m.loadRegisters(x);
+			case 0x30:
+				return m -> m.loadBigFontIndex(x);
+			case 0x3A:
+				return m -> m.loadPitch(x);
+			case 0x75:
+				return m -> m.storeFlags(x);
+			case 0x85:
+				return m -> m.loadFlags(x);
+			}
+			break;
+		}
+
+		return null;
+	}
+}
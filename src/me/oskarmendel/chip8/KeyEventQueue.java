@@ -0,0 +1,163 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single producer, single consumer ring of key events used to pass key
+ * presses from the UI thread to the emulation thread without locking.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name KeyEventQueue.java
+ */
+public class KeyEventQueue {
+
+	public static final int DOWN = 0x100; // Flag set on key press events.
+	public static final int EMPTY = -1;
+
+	private final int[] events;
+	private final long[] times; // Host time of every event.
+	private final int mask;
+	private long polledTime; // Host time of the event polled last, owned by the consumer.
+
+	private final AtomicLong head = new AtomicLong(); // Next slot to read, owned by the consumer.
+	private final AtomicLong tail = new AtomicLong(); // Next slot to write, owned by the producer.
+
+	/**
+	 * Creates a queue.
+	 * 
+	 * @param capacity - Number of events the queue holds, rounded up to a power of two.
+	 */
+	public KeyEventQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		events = new int[size];
+		times = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Adds an event made now, only to be called from the producer thread.
+	 * 
+	 * @param key - Key on the keypad, 0x0 to 0xF.
+	 * @param down - True for a press, false for a release.
+	 * @return False if the queue was full and the event was dropped.
+	 */
+	public boolean offer(int key, boolean down) {
+		return offer(key, down, System.nanoTime());
+	}
+
+	/**
+	 * Adds an event, only to be called from the producer thread.
+	 * 
+	 * @param key - Key on the keypad, 0x0 to 0xF.
+	 * @param down - True for a press, false for a release.
+	 * @param time - Host time the event was made at, as from {@link System#nanoTime()}.
+	 * @return False if the queue was full and the event was dropped.
+	 */
+	public boolean offer(int key, boolean down, long time) {
+		long t = tail.get();
+		if (t - head.get() == events.length) {
+			return false;
+		}
+
+		events[(int) t & mask] = down ? key | DOWN : key;
+		times[(int) t & mask] = time;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Takes the oldest event, only to be called from the consumer thread.
+	 * 
+	 * @return The event, the key in the low bits and {@link #DOWN} set for presses,
+	 *         or {@link #EMPTY} if there is none. Its time is then
+	 *         {@link #getPolledTime()}.
+	 */
+	public int poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return EMPTY;
+		}
+
+		int event = events[(int) h & mask];
+		polledTime = times[(int) h & mask];
+		head.lazySet(h + 1);
+		return event;
+	}
+
+	/**
+	 * Gets the host time of the event {@link #poll()} returned last, only to
+	 * be called from the consumer thread.
+	 * 
+	 * @return Host time in nanoseconds.
+	 */
+	public long getPolledTime() {
+		return this.polledTime;
+	}
+
+	/**
+	 * Applies every queued event to target keypad state.
+	 * 
+	 * @param keys - The keypad state to update.
+	 */
+	public void drainTo(KeyState keys) {
+		for (int event = poll(); event != EMPTY; event = poll()) {
+			if ((event & DOWN) != 0) {
+				keys.press(event & 0xF);
+			} else {
+				keys.release(event & 0xF);
+			}
+		}
+	}
+
+	/**
+	 * Moves every queued event onto a timeline, keeping the time between
+	 * them. The first one is due right away, the rest as many instructions
+	 * later as fit into the time since the first. Once the timeline is full
+	 * the rest stay queued, in order, for the next call.
+	 * 
+	 * @param timeline - The timeline to schedule the events on.
+	 * @param instructionNanos - Host time one instruction stands for, in nanoseconds.
+	 */
+	public void drainTo(KeyTimeline timeline, long instructionNanos) {
+		long first = 0;
+		boolean any = false;
+		for (long h = head.get(); h != tail.get(); h++) {
+			int event = events[(int) h & mask];
+			long time = times[(int) h & mask];
+			if (!any) {
+				first = time;
+				any = true;
+			}
+			if (!timeline.add((time - first) / Math.max(1, instructionNanos), event & 0xF, (event & DOWN) != 0, time)) {
+				// Taken off only once it is on the timeline, a lost release would leave a key stuck.
+				return;
+			}
+			polledTime = time;
+			head.lazySet(h + 1);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * Plain keypad state that can be driven by any input source, a UI toolkit,
+ * a script or a replay.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name KeyState.java
+ */
+public class KeyState implements Keypad {
+
+	protected boolean[] keys = new boolean[16]; // Chip 8 uses a HEX based keypad (0x0 -
+	// 0xF), This array stores the state of
+	// each key.
+
+	/**
+	 * Marks target key as held down.
+	 * 
+	 * @param key - Key on the keypad, 0x0 to 0xF.
+	 */
+	public void press(int key) {
+		keys[key] = true;
+	}
+
+	/**
+	 * Marks target key as released.
+	 * 
+	 * @param key - Key on the keypad, 0x0 to 0xF.
+	 */
+	public void release(int key) {
+		keys[key] = false;
+	}
+
+	/**
+	 * Releases every key.
+	 */
+	public void releaseAll() {
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = false;
+		}
+	}
+
+	@Override
+	public boolean isPressed(int key) {
+		return keys[key];
+	}
+}
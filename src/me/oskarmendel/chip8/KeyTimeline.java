@@ -0,0 +1,224 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.util.Arrays;
+
+/**
+ * Key events waiting to be applied at given instructions. The
+ * {@link Scheduler} runs a frame in pieces, up to the next event, applies it
+ * and carries on, so keys change between two instructions instead of only
+ * between frames and presses keep the spacing they were made with.
+ * 
+ * Positions count the instructions run through the timeline. A release is
+ * never applied sooner than the minimum hold after its press, a tap shorter
+ * than the gap between two polls of the program would be missed otherwise.
+ * The releases that are held back keep their order with later presses of the
+ * same key.
+ * 
+ * Nothing is allocated once the timeline is created, it is meant to be used
+ * from the emulation thread only.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name KeyTimeline.java
+ */
+public class KeyTimeline {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final KeyState keys;
+	private final int minHold;
+
+	// Pending events sorted by position, events at the same position in the order they came.
+	private final long[] at;
+	private final long[] times; // Host time the event was made at, 0 if unknown.
+	private final int[] events; // Key, with KeyEventQueue.DOWN set for presses.
+	private int count;
+
+	private final long[] last = new long[16]; // Position of the last event of every key.
+	private final long[] pressed = new long[16]; // Position of the last press of every key.
+	private long position; // Instructions run so far.
+	private long pressTime; // Host time of the first press applied since the last take, 0 for none.
+	private InputLog log;
+
+	/**
+	 * Creates a timeline.
+	 * 
+	 * @param keys - The keypad state the events are applied to.
+	 * @param minHold - Fewest instructions a key stays down, 0 to apply
+	 *            releases exactly where they are scheduled.
+	 */
+	public KeyTimeline(KeyState keys, int minHold) {
+		this(keys, minHold, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a timeline.
+	 * 
+	 * @param keys - The keypad state the events are applied to.
+	 * @param minHold - Fewest instructions a key stays down.
+	 * @param capacity - Most events pending at once.
+	 */
+	public KeyTimeline(KeyState keys, int minHold, int capacity) {
+		this.keys = keys;
+		this.minHold = minHold;
+		at = new long[capacity];
+		times = new long[capacity];
+		events = new int[capacity];
+		Arrays.fill(pressed, Long.MIN_VALUE / 2);
+	}
+
+	/**
+	 * Schedules a key event.
+	 * 
+	 * @param delay - Instructions from now until the event.
+	 * @param key - Key on the keypad, 0x0 to 0xF.
+	 * @param down - True for a press, false for a release.
+	 * @param time - Host time the event was made at, as from
+	 *            {@link System#nanoTime()}, or 0.
+	 * @return False if the timeline was full and the event was dropped.
+	 */
+	public boolean add(long delay, int key, boolean down, long time) {
+		if (count == at.length) {
+			return false;
+		}
+
+		long p = Math.max(position + Math.max(0, delay), last[key]);
+		if (down) {
+			pressed[key] = p;
+		} else {
+			p = Math.max(p, pressed[key] + minHold);
+		}
+		last[key] = p;
+
+		// Insert after every event at or before the position.
+		int i = count;
+		while (i > 0 && at[i - 1] > p) {
+			at[i] = at[i - 1];
+			times[i] = times[i - 1];
+			events[i] = events[i - 1];
+			i--;
+		}
+		at[i] = p;
+		times[i] = time;
+		events[i] = down ? key | KeyEventQueue.DOWN : key;
+		count++;
+		return true;
+	}
+
+	/**
+	 * Applies every event that is due and advances the timeline to the next
+	 * one, called by the {@link Scheduler} before running a piece of a frame.
+	 * 
+	 * @param frame - Number of frames run so far.
+	 * @param offset - Instructions run so far in this frame.
+	 * @param budget - Instructions left in this frame.
+	 * @return The number of instructions to run before calling again, at most
+	 *         the budget.
+	 */
+	public int apply(long frame, int offset, int budget) {
+		int due = 0;
+		while (due < count && at[due] <= position) {
+			int key = events[due] & 0xF;
+			boolean down = (events[due] & KeyEventQueue.DOWN) != 0;
+			if (keys.isPressed(key) != down) {
+				if (log != null) {
+					log.record(frame, offset, key, down);
+				}
+				if (down && pressTime == 0) {
+					pressTime = times[due];
+				}
+			}
+			if (down) {
+				keys.press(key);
+			} else {
+				keys.release(key);
+			}
+			due++;
+		}
+		if (due > 0) {
+			System.arraycopy(at, due, at, 0, count - due);
+			System.arraycopy(times, due, times, 0, count - due);
+			System.arraycopy(events, due, events, 0, count - due);
+			count -= due;
+		}
+
+		int n = count > 0 ? (int) Math.min(budget, at[0] - position) : budget;
+		position += n;
+		return n;
+	}
+
+	/**
+	 * Takes the host time of the first key press that changed the keypad
+	 * since the last call.
+	 * 
+	 * @return Host time in nanoseconds, 0 if there was none or its time isn't known.
+	 */
+	public long takePressTime() {
+		long t = pressTime;
+		pressTime = 0;
+		return t;
+	}
+
+	/**
+	 * Drops every pending event and releases every key, so nothing carries
+	 * over into a program that is started in place of the running one.
+	 */
+	public void clear() {
+		count = 0;
+		pressTime = 0;
+		Arrays.fill(last, 0);
+		Arrays.fill(pressed, Long.MIN_VALUE / 2);
+		keys.releaseAll();
+	}
+
+	/**
+	 * Sets the log the key changes are recorded to, with the frame and
+	 * instruction they were applied at.
+	 * 
+	 * @param log - The log or null to not record.
+	 */
+	public void setLog(InputLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Getter for the number of events waiting.
+	 * 
+	 * @return Pending events.
+	 */
+	public int getPending() {
+		return this.count;
+	}
+
+	/**
+	 * Getter for the position.
+	 * 
+	 * @return Instructions run through the timeline so far.
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+}
@@ -23,9 +23,32 @@
  */
 package me.oskarmendel.chip8;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Properties;
+
 import javafx.scene.input.KeyCode;
 
 /**
+ * JavaFX frontend for the keypad, translates key codes into Chip 8 key events
+ * and passes them on to the emulation thread, stamped with the time they
+ * came in.
+ * 
+ * Key codes are looked up in a table indexed by {@link KeyCode}, by default
+ * the left side of the keyboard stands in for the keypad:
+ * 
+ * <pre>
+ * 1 2 3 4      0 1 2 3
+ * Q W E R  -&gt;  4 5 6 7
+ * A S D F      8 9 A B
+ * Z X C V      C D E F
+ * </pre>
+ * 
+ * A keymap file changes that, it has a line <code>KEYCODE=key</code> for
+ * every key code to use with the key in hex, for example <code>X=0</code>.
  * 
  * @author Oskar Mendel
  * @version 0.00.00
@@ -33,151 +56,107 @@ import javafx.scene.input.KeyCode;
  */
 public class Keyboard {
 
-	private boolean[] keys = new boolean[16]; // Chip 8 uses a HEX based keypad (0x0 -
-	// 0xF), This array stores the state of
-	// each key.
-	
-	public static final int[] FONT = {
-			0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
-            0x20, 0x60, 0x20, 0x20, 0x70, // 1
-            0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
-            0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
-            0x90, 0x90, 0xF0, 0x10, 0x10, // 4
-            0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
-            0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
-            0xF0, 0x10, 0x20, 0x40, 0x50, // 7
-            0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
-            0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
-            0xF0, 0x90, 0xF0, 0x90, 0x90, // A
-            0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
-            0xF0, 0x80, 0x80, 0x80, 0xF0, // C
-            0xE0, 0x90, 0x90, 0x90, 0xE0, // D
-            0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
-            0xF0, 0x80, 0xF0, 0x80, 0x80  // F
-	};
-	
+	private static final KeyCode[] DEFAULT_LAYOUT = { KeyCode.DIGIT1, KeyCode.DIGIT2, KeyCode.DIGIT3, KeyCode.DIGIT4,
+			KeyCode.Q, KeyCode.W, KeyCode.E, KeyCode.R, KeyCode.A, KeyCode.S, KeyCode.D, KeyCode.F, KeyCode.Z,
+			KeyCode.X, KeyCode.C, KeyCode.V };
+	private static final int UNMAPPED = -1;
+
+	private KeyEventQueue events = new KeyEventQueue(64);
+	private final int[] keymap = new int[KeyCode.values().length]; // Keypad key of every key code.
+
+	/**
+	 * Creates a keyboard with the default layout.
+	 */
 	public Keyboard() {
-		for (int i = 0; i < 15; i++) {
-			keys[i] = false;
+		clearKeymap();
+		for (int key = 0; key < DEFAULT_LAYOUT.length; key++) {
+			setKey(DEFAULT_LAYOUT[key], key);
 		}
 	}
-
 	
+	/**
+	 * Gets the queue the key events are passed on through.
+	 * 
+	 * @return The key event queue.
+	 */
+	public KeyEventQueue getEvents() {
+		return this.events;
+	}
+
+	/**
+	 * Maps a key code to a key on the keypad.
+	 * 
+	 * @param code - The key code.
+	 * @param key - Key on the keypad, 0x0 to 0xF, or -1 to not use the key code.
+	 */
+	public void setKey(KeyCode code, int key) {
+		if (key < UNMAPPED || key > 0xF) {
+			throw new IllegalArgumentException("No such key on the keypad: " + key);
+		}
+		keymap[code.ordinal()] = key;
+	}
+
+	/**
+	 * Gets the key on the keypad a key code is mapped to.
+	 * 
+	 * @param code - The key code.
+	 * @return Key on the keypad, 0x0 to 0xF, or -1 if the key code isn't used.
+	 */
+	public int getKey(KeyCode code) {
+		return keymap[code.ordinal()];
+	}
+
+	/**
+	 * Unmaps every key code.
+	 */
+	public void clearKeymap() {
+		Arrays.fill(keymap, UNMAPPED);
+	}
+
+	/**
+	 * Replaces the keymap with the one in a file.
+	 * 
+	 * @param file - The keymap file.
+	 * @throws IOException If the file could not be read or names an unknown
+	 *             key code or key.
+	 */
+	public void loadKeymap(File file) throws IOException {
+		Properties p = new Properties();
+		try (Reader in = new FileReader(file)) {
+			p.load(in);
+		}
+
+		int[] loaded = new int[keymap.length];
+		Arrays.fill(loaded, UNMAPPED);
+		for (String name : p.stringPropertyNames()) {
+			try {
+				int key = Integer.parseInt(p.getProperty(name).trim(), 16);
+				if (key < 0 || key > 0xF) {
+					throw new IOException(file + ": no such key on the keypad: " + p.getProperty(name));
+				}
+				loaded[KeyCode.valueOf(name.trim()).ordinal()] = key;
+			} catch (IllegalArgumentException e) {
+				throw new IOException(file + ": bad keymap line " + name + "=" + p.getProperty(name), e);
+			}
+		}
+		System.arraycopy(loaded, 0, keymap, 0, keymap.length);
+	}
+
 	public boolean setKeyDown(KeyCode k) {
-		switch (k) {
-		case DIGIT1:
-			keys[0] = true;
-			break;
-		case DIGIT2:
-			keys[1] = true;
-			break;
-		case DIGIT3:
-			keys[2] = true;
-			break;
-		case DIGIT4:
-			keys[3] = true;
-			break;
-		case Q:
-			keys[4] = true;
-			break;
-		case W:
-			keys[5] = true;
-			break;
-		case E:
-			keys[6] = true;
-			break;
-		case R:
-			keys[7] = true;
-			break;
-		case A:
-			keys[8] = true;
-			break;
-		case S:
-			keys[9] = true;
-			break;
-		case D:
-			keys[10] = true;
-			break;
-		case F:
-			keys[11] = true;
-			break;
-		case Z:
-			keys[12] = true;
-			break;
-		case X:
-			keys[13] = true;
-			break;
-		case C:
-			keys[14] = true;
-			break;
-		case V:
-			keys[15] = true;
-			break;
-		default:
-			break;
+		int key = keymap[k.ordinal()];
+		if (key != UNMAPPED) {
+			events.offer(key, true);
 		}
 		
         return true;
 	}
 	
 	public boolean setKeyUp(KeyCode k) {
-		switch (k) {
-		case DIGIT1:
-			keys[0] = false;
-			break;
-		case DIGIT2:
-			keys[1] = false;
-			break;
-		case DIGIT3:
-			keys[2] = false;
-			break;
-		case DIGIT4:
-			keys[3] = false;
-			break;
-		case Q:
-			keys[4] = false;
-			break;
-		case W:
-			keys[5] = false;
-			break;
-		case E:
-			keys[6] = false;
-			break;
-		case R:
-			keys[7] = false;
-			break;
-		case A:
-			keys[8] = false;
-			break;
-		case S:
-			keys[9] = false;
-			break;
-		case D:
-			keys[10] = false;
-			break;
-		case F:
-			keys[11] = false;
-			break;
-		case Z:
-			keys[12] = false;
-			break;
-		case X:
-			keys[13] = false;
-			break;
-		case C:
-			keys[14] = false;
-			break;
-		case V:
-			keys[15] = false;
-			break;
-		default:
-			break;
+		int key = keymap[k.ordinal()];
+		if (key != UNMAPPED) {
+			events.offer(key, false);
 		}
 		
         return true;
 	}
-
-	public boolean isPressed(int j) {
-		return keys[j];
-	}
 }
@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations. One thread or many record into it while
+ * others read percentiles, nothing is allocated or locked on either side.
+ * 
+ * Values are counted in buckets that are exact below 16 and split every power
+ * of two into 16 buckets above that, so a percentile is never off by more
+ * than 1/16 of its value.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name LatencyHistogram.java
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS; // Buckets per power of two.
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 * 
+	 * @param value - The value, usually nanoseconds, negative values count as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.getAndIncrement(bucket(value));
+		count.getAndIncrement();
+		sum.getAndAdd(value);
+		for (long m = max.get(); value > m && !max.compareAndSet(m, value); m = max.get()) {
+			// Someone else raised the max, try again against theirs.
+		}
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB + (int) (value >>> shift) - SUB;
+	}
+
+	private static long highest(int bucket) {
+		if (bucket < SUB) {
+			return bucket;
+		}
+		int shift = bucket / SUB - 1;
+		long mantissa = bucket % SUB + SUB;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * Gets the value below which a share of the recorded values fall. Taken
+	 * while others record the result is close but not exact.
+	 * 
+	 * @param percentile - The share, 0 to 100.
+	 * @return The highest value of the bucket the percentile falls in but at
+	 *         most the largest value recorded, 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts.get(b);
+			if (seen >= rank) {
+				return Math.min(highest(b), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Getter for the number of values recorded.
+	 * 
+	 * @return Values recorded since the last reset.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Getter for the mean of the recorded values.
+	 * 
+	 * @return The mean, 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Getter for the largest recorded value.
+	 * 
+	 * @return The largest value, 0 if nothing was recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Forgets every recorded value. Values recorded at the same time may be
+	 * partly kept.
+	 */
+	public void reset() {
+		for (int b = 0; b < BUCKETS; b++) {
+			counts.set(b, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+/**
+ * Window listing the ROMs of a {@link RomLibrary}. Double click a ROM or
+ * press enter to run it.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name LibraryBrowser.java
+ */
+public class LibraryBrowser extends Stage {
+
+	private final RomLibrary library;
+	private final Consumer<RomLibrary.Entry> onLoad;
+
+	private ListView<RomLibrary.Entry> list = new ListView<>();
+	private Label status = new Label();
+
+	/**
+	 * Creates the browser, call {@link #refresh()} and show it to use it.
+	 * 
+	 * @param library - The library to list.
+	 * @param onLoad - Called on the JavaFX thread with the ROM to run.
+	 */
+	public LibraryBrowser(RomLibrary library, Consumer<RomLibrary.Entry> onLoad) {
+		this.library = library;
+		this.onLoad = onLoad;
+		setTitle("ROM Library - " + library.getDirectory());
+
+		list.setStyle("-fx-font-family: monospace;");
+		list.setOnMouseClicked(e -> {
+			if (e.getClickCount() == 2) {
+				load();
+			}
+		});
+		list.setOnKeyPressed(e -> {
+			if (e.getCode() == KeyCode.ENTER) {
+				load();
+			}
+		});
+		VBox.setVgrow(list, Priority.ALWAYS);
+
+		Button rescan = new Button("Rescan");
+		rescan.setOnAction(e -> {
+			try {
+				library.scan();
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+			refresh();
+		});
+
+		HBox bar = new HBox(8, rescan, status);
+		bar.setPadding(new Insets(6));
+		setScene(new Scene(new VBox(list, bar), 460, 380));
+	}
+
+	private void load() {
+		RomLibrary.Entry entry = list.getSelectionModel().getSelectedItem();
+		if (entry != null) {
+			onLoad.accept(entry);
+			refresh();
+		}
+	}
+
+	/**
+	 * Shows the entries and cache statistics of the library as they are now.
+	 */
+	public void refresh() {
+		RomLibrary.Entry selected = list.getSelectionModel().getSelectedItem();
+		list.getItems().setAll(library.getEntries());
+		list.getSelectionModel().select(selected);
+		status.setText(String.format("%d ROMs, %d loaded, %d hits, %d misses", list.getItems().size(),
+				library.getCached(), library.getHits(), library.getMisses()));
+	}
+}
@@ -0,0 +1,757 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs many copies of one program side by side, for bulk testing with many
+ * different inputs. The machines are stored as a structure of arrays, one
+ * array per register with an entry per machine, and machines whose program
+ * counters agree run each instruction together: it is fetched and decoded
+ * once and then applied to every machine of the group in a tight loop over
+ * the arrays.
+ * 
+ * Machines that take different branches are split into groups of their own
+ * and groups that arrive at the same address are merged again, so as long as
+ * most machines follow the same path the cost of decoding is shared between
+ * them. The loops are plain scalar array code over the machines of a group,
+ * which HotSpot unrolls. The emulator runs on Java 8, where the incubating
+ * vector API of Java 16 and later, jdk.incubator.vector, doesn't exist, so
+ * these loops are the only version.
+ * 
+ * Every machine behaves exactly like a CHIP-8 {@link Memory} with the same
+ * seed and keys, the SUPER-CHIP and XO-CHIP modes aren't supported. A
+ * machine that hits an invalid opcode or reaches outside memory or the stack
+ * halts on its own while the others carry on.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Lockstep.java
+ */
+public class Lockstep {
+
+	private static final int MEMORY_SIZE = 4096;
+	private static final int ADDRESSES = MEMORY_SIZE + 0x100; // Highest reachable program counter is 0xFFF + 0xFF.
+
+	private final int n;
+
+	// Machine state, indexed by register, stack level or address first when
+	// every machine has more than one.
+	private final byte[] memory; // Machine * 4096 + address.
+	private final int[] v; // Register * n + machine.
+	private final int[] index;
+	private final int[] pc;
+	private final int[] sp;
+	private final int[] stack; // Level * n + machine.
+	private final int[] delay;
+	private final int[] sound;
+	private final long[] random;
+	private final long[] rows; // Machine * 32 + y, leftmost pixel in the top bit.
+	private final int[] keys; // Bit per key held down.
+	private final boolean[] halted;
+	private final long[] frames;
+	private final long[] instructions;
+
+	// Groups of machines on the same program counter, every group is a run of
+	// machine numbers in lanes starting at groupStart.
+	private int[] lanes;
+	private int[] nextLanes;
+	private final int[] groupStart;
+	private int groups;
+	private boolean regroup; // Set when machines left their group or halted.
+	private final int[] seen = new int[ADDRESSES];
+	private final int[] slot = new int[ADDRESSES];
+	private final int[] count;
+	private int stamp;
+
+	private final long[] code = new long[ADDRESSES / 64]; // Addresses fetched as code by any machine.
+	private boolean verify; // Some machine wrote into code, check the opcode of every machine.
+
+	private long groupsRun;
+	private long lanesRun;
+
+	/**
+	 * Creates machines that all start out running the same program.
+	 * 
+	 * @param program - The program to run.
+	 * @param machines - Number of machines.
+	 * @throws IllegalArgumentException If the program doesn't fit in memory.
+	 */
+	public Lockstep(byte[] program, int machines) {
+		if (program.length > MEMORY_SIZE - 0x200) {
+			throw new IllegalArgumentException("Program too large: " + program.length + " bytes");
+		}
+
+		this.n = machines;
+		memory = new byte[machines * MEMORY_SIZE];
+		v = new int[16 * machines];
+		index = new int[machines];
+		pc = new int[machines];
+		sp = new int[machines];
+		stack = new int[16 * machines];
+		delay = new int[machines];
+		sound = new int[machines];
+		random = new long[machines];
+		rows = new long[FrameBuffer.HEIGHT * machines];
+		keys = new int[machines];
+		halted = new boolean[machines];
+		frames = new long[machines];
+		instructions = new long[machines];
+
+		lanes = new int[machines];
+		nextLanes = new int[machines];
+		groupStart = new int[machines + 1];
+		count = new int[machines];
+
+		for (int m = 0; m < machines; m++) {
+			int base = m * MEMORY_SIZE;
+			for (int i = 0; i < 80; i++) {
+				memory[base + i] = (byte) Memory.FONT[i];
+			}
+			System.arraycopy(program, 0, memory, base + 0x200, program.length);
+			pc[m] = 0x200;
+			random[m] = ThreadLocalRandom.current().nextLong();
+			lanes[m] = m;
+		}
+
+		// Everyone starts out in one group.
+		groups = machines > 0 ? 1 : 0;
+		groupStart[1] = machines;
+	}
+
+	/**
+	 * Runs a frame on every machine that hasn't halted, a frame worth of
+	 * instructions followed by a timer tick, the same as
+	 * {@link Scheduler#runFrame()}.
+	 * 
+	 * @param instructionsPerFrame - Instructions per frame.
+	 */
+	public void runFrame(int instructionsPerFrame) {
+		step(instructionsPerFrame);
+		for (int m = 0; m < n; m++) {
+			if (!halted[m]) {
+				if (delay[m] > 0) {
+					delay[m]--;
+				}
+				if (sound[m] > 0) {
+					sound[m]--;
+				}
+				frames[m]++;
+				instructions[m] += instructionsPerFrame;
+			}
+		}
+	}
+
+	/**
+	 * Runs target number of instructions on every machine that hasn't halted.
+	 * 
+	 * @param count - Number of instructions.
+	 */
+	public void step(int count) {
+		for (int i = 0; i < count && groups > 0; i++) {
+			for (int g = 0; g < groups; g++) {
+				run(groupStart[g], groupStart[g + 1]);
+			}
+			if (regroup) {
+				regroup();
+			}
+		}
+	}
+
+	/**
+	 * Runs the instruction at the program counter of a group.
+	 * 
+	 * @param from - Index in lanes of the first machine of the group.
+	 * @param to - Index in lanes after the last machine of the group.
+	 */
+	private void run(int from, int to) {
+		int p = pc[lanes[from]];
+		if (p >= MEMORY_SIZE - 1) {
+			for (int k = from; k < to; k++) {
+				halt(lanes[k]);
+			}
+			return;
+		}
+
+		code[p >>> 6] |= 1L << p;
+		code[(p + 1) >>> 6] |= 1L << (p + 1);
+		int op = opcode(lanes[from], p);
+
+		if (verify) {
+			for (int k = from + 1; k < to; k++) {
+				if (opcode(lanes[k], p) != op) {
+					// The code differs between machines, run them one at a time.
+					for (int j = from; j < to; j++) {
+						execute(opcode(lanes[j], p), p, j, j + 1);
+					}
+					regroup = true;
+					return;
+				}
+			}
+		}
+
+		groupsRun++;
+		lanesRun += to - from;
+		execute(op, p, from, to);
+	}
+
+	private int opcode(int m, int p) {
+		int base = m * MEMORY_SIZE + p;
+		return (memory[base] & 0xFF) << 8 | (memory[base + 1] & 0xFF);
+	}
+
+	/**
+	 * Executes an opcode on a group of machines, see {@link Memory} for what
+	 * each opcode does.
+	 * 
+	 * @param op - The opcode.
+	 * @param p - Program counter of the group.
+	 * @param from - Index in lanes of the first machine.
+	 * @param to - Index in lanes after the last machine.
+	 */
+	private void execute(int op, int p, int from, int to) {
+		if (!Instructions.isValid(op)) {
+			for (int k = from; k < to; k++) {
+				halt(lanes[k]);
+			}
+			return;
+		}
+
+		int x = (op >>> 8) & 0xF;
+		int y = (op >>> 4) & 0xF;
+		int nn = op & 0xFF;
+		int nnn = op & 0xFFF;
+		int rx = x * n;
+		int ry = y * n;
+		int rf = 0xF * n;
+		int next = p + 2;
+
+		switch (op >>> 12) {
+		case 0x0:
+			if (op == 0x00E0) {
+				for (int k = from; k < to; k++) {
+					int m = lanes[k];
+					for (int r = 0; r < FrameBuffer.HEIGHT; r++) {
+						rows[m * FrameBuffer.HEIGHT + r] = 0;
+					}
+					pc[m] = next;
+				}
+			} else {
+				for (int k = from; k < to; k++) {
+					int m = lanes[k];
+					int s = sp[m];
+					if (s < 0) {
+						halt(m);
+						continue;
+					}
+					pc[m] = stack[s * n + m] + 2;
+					sp[m] = s - 1;
+				}
+				split(from, to);
+			}
+			break;
+		case 0x1:
+			for (int k = from; k < to; k++) {
+				pc[lanes[k]] = nnn;
+			}
+			break;
+		case 0x2:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				int s = sp[m] + 1;
+				if (s > 15) {
+					halt(m);
+					continue;
+				}
+				sp[m] = s;
+				stack[s * n + m] = p;
+				pc[m] = nnn;
+			}
+			break;
+		case 0x3:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				pc[m] = v[rx + m] == nn ? p + 4 : next;
+			}
+			split(from, to);
+			break;
+		case 0x4:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				pc[m] = v[rx + m] != nn ? p + 4 : next;
+			}
+			split(from, to);
+			break;
+		case 0x5:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				pc[m] = v[rx + m] == v[ry + m] ? p + 4 : next;
+			}
+			split(from, to);
+			break;
+		case 0x6:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				v[rx + m] = nn;
+				pc[m] = next;
+			}
+			break;
+		case 0x7:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				v[rx + m] = (v[rx + m] + nn) & 0xFF;
+				pc[m] = next;
+			}
+			break;
+		case 0x8:
+			arithmetic(op & 0xF, rx, ry, rf, next, from, to);
+			break;
+		case 0x9:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				pc[m] = v[rx + m] != v[ry + m] ? p + 4 : next;
+			}
+			split(from, to);
+			break;
+		case 0xA:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				index[m] = nnn;
+				pc[m] = next;
+			}
+			break;
+		case 0xB:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				pc[m] = nnn + v[m];
+			}
+			split(from, to);
+			break;
+		case 0xC:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				long z = (random[m] += 0x9E3779B97F4A7C15L);
+				z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+				z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+				v[rx + m] = (int) ((z ^ (z >>> 31)) >>> 56) & nn;
+				pc[m] = next;
+			}
+			break;
+		case 0xD:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				if (draw(m, rx, ry, rf, op & 0xF)) {
+					pc[m] = next;
+				}
+			}
+			break;
+		case 0xE:
+			for (int k = from; k < to; k++) {
+				int m = lanes[k];
+				int key = v[rx + m];
+				if (key > 0xF) {
+					halt(m);
+					continue;
+				}
+				boolean pressed = (keys[m] & (1 << key)) != 0;
+				pc[m] = pressed == (nn == 0x9E) ? p + 4 : next;
+			}
+			split(from, to);
+			break;
+		default:
+			misc(nn, x, rx, rf, next, from, to);
+			break;
+		}
+	}
+
+	/**
+	 * Executes an 8XYN opcode on a group of machines.
+	 */
+	private void arithmetic(int kind, int rx, int ry, int rf, int next, int from, int to) {
+		for (int k = from; k < to; k++) {
+			int m = lanes[k];
+			switch (kind) {
+			case 0x0:
+				v[rx + m] = v[ry + m];
+				break;
+			case 0x1:
+				v[rx + m] = v[rx + m] | v[ry + m];
+				break;
+			case 0x2:
+				v[rx + m] = v[rx + m] & v[ry + m];
+				break;
+			case 0x3:
+				v[rx + m] = v[rx + m] ^ v[ry + m];
+				break;
+			case 0x4: {
+				int sum = v[rx + m] + v[ry + m];
+				v[rf + m] = sum > 0xFF ? 1 : 0;
+				v[rx + m] = sum & 0xFF;
+				break;
+			}
+			case 0x5:
+				v[rf + m] = v[ry + m] > v[rx + m] ? 0 : 1;
+				v[rx + m] = (v[rx + m] - v[ry + m]) & 0xFF;
+				break;
+			case 0x6:
+				v[rf + m] = v[rx + m] & 0x1;
+				v[rx + m] = v[rx + m] >>> 1;
+				break;
+			case 0x7:
+				v[rf + m] = v[ry + m] > v[rx + m] ? 1 : 0;
+				v[rx + m] = (v[ry + m] - v[rx + m]) & 0xFF;
+				break;
+			default:
+				v[rf + m] = v[rx + m] >>> 7;
+				v[rx + m] = (v[rx + m] << 1) & 0xFF;
+				break;
+			}
+			pc[m] = next;
+		}
+	}
+
+	/**
+	 * Executes an FXNN opcode on a group of machines.
+	 */
+	private void misc(int nn, int x, int rx, int rf, int next, int from, int to) {
+		for (int k = from; k < to; k++) {
+			int m = lanes[k];
+			switch (nn) {
+			case 0x07:
+				v[rx + m] = delay[m] & 0xFF;
+				break;
+			case 0x0A:
+				if (keys[m] == 0) {
+					continue;
+				}
+				v[rx + m] = Integer.numberOfTrailingZeros(keys[m]);
+				break;
+			case 0x15:
+				delay[m] = v[rx + m];
+				break;
+			case 0x18:
+				sound[m] = v[rx + m];
+				break;
+			case 0x1E:
+				v[rf + m] = index[m] + v[rx + m] > 0xFFF ? 1 : 0;
+				index[m] = (index[m] + v[rx + m]) & 0xFFF;
+				break;
+			case 0x29:
+				index[m] = v[rx + m] * 5;
+				break;
+			case 0x33: {
+				int i = index[m];
+				if (!store(m, i, v[rx + m] / 100) || !store(m, i + 1, (v[rx + m] % 100) / 10)
+						|| !store(m, i + 2, (v[rx + m] % 100) % 10)) {
+					continue;
+				}
+				break;
+			}
+			case 0x55: {
+				int i = index[m];
+				boolean ok = true;
+				for (int j = 0; j <= x && ok; j++) {
+					ok = store(m, i + j, v[j * n + m]);
+				}
+				if (!ok) {
+					continue;
+				}
+				break;
+			}
+			default: {
+				int base = m * MEMORY_SIZE + index[m];
+				if (index[m] + x >= MEMORY_SIZE) {
+					// Load what fits, then stop where the machine would.
+					for (int j = 0; index[m] + j < MEMORY_SIZE; j++) {
+						v[j * n + m] = memory[base + j] & 0xFF;
+					}
+					halt(m);
+					continue;
+				}
+				for (int j = 0; j <= x; j++) {
+					v[j * n + m] = memory[base + j] & 0xFF;
+				}
+				break;
+			}
+			}
+			pc[m] = next;
+		}
+		if (nn == 0x0A) {
+			split(from, to);
+		}
+	}
+
+	/**
+	 * Draws a sprite on one machine.
+	 * 
+	 * @return False if the sprite reached outside memory and the machine halted.
+	 */
+	private boolean draw(int m, int rx, int ry, int rf, int height) {
+		int x = v[rx + m];
+		int y = v[ry + m];
+		int i = index[m];
+		int base = m * MEMORY_SIZE;
+		v[rf + m] = 0;
+		for (int r = 0; r < height; r++) {
+			if (i + r >= MEMORY_SIZE) {
+				halt(m);
+				return false;
+			}
+			if (x >= FrameBuffer.WIDTH || y + r >= FrameBuffer.HEIGHT) {
+				continue;
+			}
+
+			int row = m * FrameBuffer.HEIGHT + y + r;
+			long bits = ((long) (memory[base + i + r] & 0xFF) << 56) >>> x;
+			if ((rows[row] & bits) != 0) {
+				v[rf + m] = 1;
+			}
+			rows[row] ^= bits;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a byte into the memory of one machine.
+	 * 
+	 * @return False if the address is outside memory and the machine halted.
+	 */
+	private boolean store(int m, int address, int value) {
+		if (address >= MEMORY_SIZE) {
+			halt(m);
+			return false;
+		}
+
+		int a = m * MEMORY_SIZE + address;
+		if ((memory[a] & 0xFF) != value) {
+			memory[a] = (byte) value;
+			if ((code[address >>> 6] & (1L << address)) != 0) {
+				verify = true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the group for regrouping if its machines went different ways.
+	 */
+	private void split(int from, int to) {
+		int p = pc[lanes[from]];
+		for (int k = from + 1; k < to; k++) {
+			if (pc[lanes[k]] != p) {
+				regroup = true;
+				return;
+			}
+		}
+	}
+
+	private void halt(int m) {
+		halted[m] = true;
+		regroup = true;
+	}
+
+	/**
+	 * Sorts the running machines into groups by program counter, keeping them
+	 * in the order they were in.
+	 */
+	private void regroup() {
+		regroup = false;
+		stamp++;
+
+		int total = groupStart[groups];
+		int g = 0;
+		for (int k = 0; k < total; k++) {
+			int m = lanes[k];
+			if (halted[m]) {
+				continue;
+			}
+			int p = pc[m];
+			if (seen[p] != stamp) {
+				seen[p] = stamp;
+				slot[p] = g;
+				count[g++] = 0;
+			}
+			count[slot[p]]++;
+		}
+
+		groupStart[0] = 0;
+		for (int i = 0; i < g; i++) {
+			groupStart[i + 1] = groupStart[i] + count[i];
+			count[i] = groupStart[i];
+		}
+		for (int k = 0; k < total; k++) {
+			int m = lanes[k];
+			if (!halted[m]) {
+				nextLanes[count[slot[pc[m]]]++] = m;
+			}
+		}
+
+		int[] t = lanes;
+		lanes = nextLanes;
+		nextLanes = t;
+		groups = g;
+	}
+
+	/**
+	 * Seeds the random number generator of a machine, see {@link Memory#setSeed(long)}.
+	 * 
+	 * @param m - The machine.
+	 * @param seed - The seed.
+	 */
+	public void setSeed(int m, long seed) {
+		random[m] = seed;
+	}
+
+	/**
+	 * Sets the keys a machine sees held down.
+	 * 
+	 * @param m - The machine.
+	 * @param state - The keypad state to copy.
+	 */
+	public void setKeys(int m, KeyState state) {
+		int bits = 0;
+		for (int key = 0; key <= 0xF; key++) {
+			if (state.isPressed(key)) {
+				bits |= 1 << key;
+			}
+		}
+		keys[m] = bits;
+	}
+
+	/**
+	 * Getter for the number of machines.
+	 * 
+	 * @return The number of machines, halted ones included.
+	 */
+	public int getMachines() {
+		return this.n;
+	}
+
+	/**
+	 * Gets the number of machines still running.
+	 * 
+	 * @return Machines that haven't halted.
+	 */
+	public int getRunning() {
+		return groupStart[groups];
+	}
+
+	/**
+	 * Checks if a machine has halted.
+	 * 
+	 * @param m - The machine.
+	 * @return True once the machine stopped on an invalid opcode or address.
+	 */
+	public boolean isHalted(int m) {
+		return halted[m];
+	}
+
+	/**
+	 * Gets the program counter of a machine.
+	 * 
+	 * @param m - The machine.
+	 * @return The program counter, of the failing instruction if it halted.
+	 */
+	public int getProgramCounter(int m) {
+		return pc[m];
+	}
+
+	/**
+	 * Gets the number of whole frames a machine ran.
+	 * 
+	 * @param m - The machine.
+	 * @return Frames run before it halted.
+	 */
+	public long getFrames(int m) {
+		return frames[m];
+	}
+
+	/**
+	 * Gets the number of instructions a machine ran in whole frames.
+	 * 
+	 * @param m - The machine.
+	 * @return Instructions run, as counted by {@link Scheduler#getInstructions()}.
+	 */
+	public long getInstructions(int m) {
+		return instructions[m];
+	}
+
+	/**
+	 * Gets a row of the screen of a machine.
+	 * 
+	 * @param m - The machine.
+	 * @param y - Y coordinate.
+	 * @return The row, leftmost pixel in the most significant bit.
+	 */
+	public long getRow(int m, int y) {
+		return rows[m * FrameBuffer.HEIGHT + y];
+	}
+
+	/**
+	 * Hashes the screen of a machine.
+	 * 
+	 * @param m - The machine.
+	 * @return The same hash as {@link FrameBuffer#hash()}.
+	 */
+	public long frameHash(int m) {
+		long h = 0xCBF29CE484222325L;
+		for (int y = 0; y < FrameBuffer.HEIGHT; y++) {
+			h = (h ^ rows[m * FrameBuffer.HEIGHT + y]) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Hashes the memory of a machine.
+	 * 
+	 * @param m - The machine.
+	 * @return The same hash as {@link Memory#hash()}.
+	 */
+	public long memoryHash(int m) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = m * MEMORY_SIZE; i < (m + 1) * MEMORY_SIZE; i++) {
+			h = (h ^ (memory[i] & 0xFF)) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Gets the number of groups the running machines are split into.
+	 * 
+	 * @return Groups, 1 while every machine is on the same path.
+	 */
+	public int getGroups() {
+		return this.groups;
+	}
+
+	/**
+	 * Gets how many machines shared each instruction on average.
+	 * 
+	 * @return Machines per decoded instruction.
+	 */
+	public double getAverageGroupSize() {
+		return groupsRun == 0 ? 0 : lanesRun / (double) groupsRun;
+	}
+}
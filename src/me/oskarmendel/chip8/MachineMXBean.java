@@ -0,0 +1,134 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * Management interface of a running machine, registered by the
+ * {@link Emulator} as <code>me.oskarmendel.chip8:type=Machine,id=n</code>
+ * so the emulator can be watched from JConsole or any other JMX client.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MachineMXBean.java
+ */
+public interface MachineMXBean {
+
+	/**
+	 * @return Name of the ROM the machine runs.
+	 */
+	String getRom();
+
+	/**
+	 * @return Instructions per second over the last second.
+	 */
+	long getInstructionsPerSecond();
+
+	/**
+	 * @return Instructions run so far.
+	 */
+	long getInstructions();
+
+	/**
+	 * @return Frames run so far.
+	 */
+	long getFrames();
+
+	/**
+	 * @return Frames skipped because the host fell too far behind.
+	 */
+	long getDroppedFrames();
+
+	/**
+	 * @return Frames run more than a frame after they were due.
+	 */
+	long getLateFrames();
+
+	/**
+	 * @return Frames that changed the screen and were handed to the display.
+	 */
+	long getFramesPublished();
+
+	/**
+	 * @return Published frames replaced by a newer one before the display
+	 *         showed them.
+	 */
+	long getFramesCoalesced();
+
+	/**
+	 * @return Median host time of a frame in microseconds.
+	 */
+	double getFrameTimeP50Micros();
+
+	/**
+	 * @return 90th percentile host time of a frame in microseconds.
+	 */
+	double getFrameTimeP90Micros();
+
+	/**
+	 * @return 99th percentile host time of a frame in microseconds.
+	 */
+	double getFrameTimeP99Micros();
+
+	/**
+	 * @return Longest host time of a frame in microseconds.
+	 */
+	double getFrameTimeMaxMicros();
+
+	/**
+	 * @return Key presses measured for input latency.
+	 */
+	long getKeyPresses();
+
+	/**
+	 * @return Median time from a key press to the first frame after it that
+	 *         changed the screen, in milliseconds.
+	 */
+	double getInputLatencyP50Millis();
+
+	/**
+	 * @return 99th percentile time from a key press to the first frame after
+	 *         it that changed the screen, in milliseconds.
+	 */
+	double getInputLatencyP99Millis();
+
+	/**
+	 * @return Current value of the delay timer.
+	 */
+	int getDelayTimer();
+
+	/**
+	 * @return Current value of the sound timer.
+	 */
+	int getSoundTimer();
+
+	/**
+	 * @return Current program counter.
+	 */
+	int getProgramCounter();
+
+	/**
+	 * Starts the frame time and input latency percentiles over.
+	 */
+	void resetFrameTimes();
+}
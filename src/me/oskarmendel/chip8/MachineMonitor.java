@@ -0,0 +1,261 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live statistics of a machine for its {@link MachineMXBean}. The emulation
+ * thread hands in the machine state after every frame and JMX clients read it
+ * from their own threads, the state is copied into volatile fields so
+ * neither side waits or allocates.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MachineMonitor.java
+ */
+public class MachineMonitor implements MachineMXBean {
+
+	private static final String DOMAIN = "me.oskarmendel.chip8";
+	private static final long IPS_WINDOW = 1_000_000_000L; // Nanoseconds the instructions per second are measured over.
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	private volatile String rom;
+	private final LatencyHistogram frameTimes = new LatencyHistogram();
+	private final LatencyHistogram inputLatency = new LatencyHistogram();
+	private ObjectName name;
+
+	private volatile long instructionsPerSecond;
+	private volatile long instructions;
+	private volatile long frames;
+	private volatile long droppedFrames;
+	private volatile long lateFrames;
+	private volatile long framesPublished;
+	private volatile long framesCoalesced;
+	private volatile int delayTimer;
+	private volatile int soundTimer;
+	private volatile int programCounter;
+
+	private long windowStart = -1; // Host time the current measuring window started.
+	private long windowInstructions; // Instructions run when it started.
+
+	/**
+	 * Creates a monitor.
+	 * 
+	 * @param rom - Name of the ROM the machine runs.
+	 */
+	public MachineMonitor(String rom) {
+		this.rom = rom;
+	}
+
+	/**
+	 * Takes in the state of the machine after a frame, called on the
+	 * emulation thread.
+	 * 
+	 * @param scheduler - Scheduler driving the machine.
+	 * @param memory - The machine.
+	 * @param output - The buffer the frames are handed to the display through.
+	 */
+	public void update(Scheduler scheduler, Memory memory, TripleBuffer<?> output) {
+		long now = System.nanoTime();
+		long executed = scheduler.getInstructions();
+		if (windowStart < 0) {
+			windowStart = now;
+			windowInstructions = executed;
+		} else if (now - windowStart >= IPS_WINDOW) {
+			instructionsPerSecond = (executed - windowInstructions) * 1_000_000_000L / (now - windowStart);
+			windowStart = now;
+			windowInstructions = executed;
+		}
+
+		instructions = executed;
+		frames = scheduler.getFrames();
+		droppedFrames = scheduler.getDroppedFrames();
+		lateFrames = scheduler.getLateFrames();
+		framesPublished = output.getPublished();
+		framesCoalesced = output.getOverwritten();
+		delayTimer = memory.getDelayTimer();
+		soundTimer = memory.getSoundTimer();
+		programCounter = memory.getProgramCounter();
+	}
+
+	/**
+	 * Starts over for a new program on the same machine, called on the
+	 * emulation thread.
+	 * 
+	 * @param rom - Name of the new ROM.
+	 */
+	public void restart(String rom) {
+		this.rom = rom;
+		windowStart = -1;
+		instructionsPerSecond = 0;
+		frameTimes.reset();
+		inputLatency.reset();
+	}
+
+	/**
+	 * Registers the monitor with the platform MBean server under a new id.
+	 * 
+	 * @throws JMException If it could not be registered.
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		name = new ObjectName(DOMAIN + ":type=Machine,id=" + ids.incrementAndGet());
+		server.registerMBean(this, name);
+	}
+
+	/**
+	 * Removes the monitor from the platform MBean server again.
+	 */
+	public void unregister() {
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		name = null;
+	}
+
+	/**
+	 * Gets the histogram the frame times go into.
+	 * 
+	 * @return The histogram, in nanoseconds.
+	 */
+	public LatencyHistogram getFrameTimes() {
+		return this.frameTimes;
+	}
+
+	/**
+	 * Gets the histogram the input latencies go into.
+	 * 
+	 * @return The histogram, in nanoseconds.
+	 */
+	public LatencyHistogram getInputLatency() {
+		return this.inputLatency;
+	}
+
+	@Override
+	public String getRom() {
+		return this.rom;
+	}
+
+	@Override
+	public long getInstructionsPerSecond() {
+		return this.instructionsPerSecond;
+	}
+
+	@Override
+	public long getInstructions() {
+		return this.instructions;
+	}
+
+	@Override
+	public long getFrames() {
+		return this.frames;
+	}
+
+	@Override
+	public long getDroppedFrames() {
+		return this.droppedFrames;
+	}
+
+	@Override
+	public long getLateFrames() {
+		return this.lateFrames;
+	}
+
+	@Override
+	public long getFramesPublished() {
+		return this.framesPublished;
+	}
+
+	@Override
+	public long getFramesCoalesced() {
+		return this.framesCoalesced;
+	}
+
+	@Override
+	public double getFrameTimeP50Micros() {
+		return frameTimes.getPercentile(50) / 1e3;
+	}
+
+	@Override
+	public double getFrameTimeP90Micros() {
+		return frameTimes.getPercentile(90) / 1e3;
+	}
+
+	@Override
+	public double getFrameTimeP99Micros() {
+		return frameTimes.getPercentile(99) / 1e3;
+	}
+
+	@Override
+	public double getFrameTimeMaxMicros() {
+		return frameTimes.getMax() / 1e3;
+	}
+
+	@Override
+	public long getKeyPresses() {
+		return inputLatency.getCount();
+	}
+
+	@Override
+	public double getInputLatencyP50Millis() {
+		return inputLatency.getPercentile(50) / 1e6;
+	}
+
+	@Override
+	public double getInputLatencyP99Millis() {
+		return inputLatency.getPercentile(99) / 1e6;
+	}
+
+	@Override
+	public int getDelayTimer() {
+		return this.delayTimer;
+	}
+
+	@Override
+	public int getSoundTimer() {
+		return this.soundTimer;
+	}
+
+	@Override
+	public int getProgramCounter() {
+		return this.programCounter;
+	}
+
+	@Override
+	public void resetFrameTimes() {
+		frameTimes.reset();
+		inputLatency.reset();
+	}
+}
@@ -23,9 +23,18 @@
  */
 package me.oskarmendel.chip8;
 
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
+ * The Chip 8 machine itself: memory, registers, timers and the interpreter.
+ * It draws into a {@link Display} and reads a {@link Keypad} so it can run
+ * with or without a UI toolkit.
+ * 
+ * A machine runs in one {@link Mode}. The SUPER-CHIP and XO-CHIP instructions
+ * trap in the modes that don't have them, so plain CHIP-8 programs run exactly
+ * as they always did.
  * 
  * @author Oskar Mendel
  * @version 0.00.00
@@ -33,12 +42,62 @@ import java.util.Random;
  */
 public class Memory {
 
+	public static final int[] FONT = {
+			0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
+            0x20, 0x60, 0x20, 0x20, 0x70, // 1
+            0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
+            0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
+            0x90, 0x90, 0xF0, 0x10, 0x10, // 4
+            0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
+            0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
+            0xF0, 0x10, 0x20, 0x40, 0x50, // 7
+            0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
+            0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
+            0xF0, 0x90, 0xF0, 0x90, 0x90, // A
+            0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
+            0xF0, 0x80, 0x80, 0x80, 0xF0, // C
+            0xE0, 0x90, 0x90, 0x90, 0xE0, // D
+            0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
+            0xF0, 0x80, 0xF0, 0x80, 0x80  // F
+	};
+	
+	public static final int BIG_FONT_ADDRESS = 0x50;
+	public static final int[] BIG_FONT = {
+			0xFF, 0xFF, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, // 0
+			0x18, 0x78, 0x78, 0x18, 0x18, 0x18, 0x18, 0x18, 0xFF, 0xFF, // 1
+			0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, // 2
+			0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, // 3
+			0xC3, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0x03, 0x03, 0x03, 0x03, // 4
+			0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, // 5
+			0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, // 6
+			0xFF, 0xFF, 0x03, 0x03, 0x06, 0x0C, 0x18, 0x18, 0x18, 0x18, // 7
+			0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, // 8
+			0xFF, 0xFF, 0xC3, 0xC3, 0xFF, 0xFF, 0x03, 0x03, 0xFF, 0xFF, // 9
+			0x7E, 0xFF, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3, // A
+			0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, // B
+			0x3C, 0xFF, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0xFF, 0x3C, // C
+			0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC, // D
+			0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, // E
+			0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xC0, 0xC0  // F
+	};
+	
+	public static final int EXTENDED_STATE_SIZE = 40; // Bytes written by writeExtendedState.
+	
+	private static final int LOOP_TURNS = 32; // Turns of a loop before looking for it to be idle.
+	private static final int LOOP_CHECK = -1; // Idle cycle meaning compare the loop state.
+	private static final int LOOP_MIN_SKIP = 256; // Least budget left worth comparing the loop state for.
+
 	private int opcode; // Used to store the current opcode.
-	private int[] memory = new int[4096]; // Entire memory for the Chip 8.
+	private Mode mode;
+	private int[] memory; // Entire memory for the Chip 8, 4 KB or 64 KB for XO-CHIP.
+	private int addressMask; // Size of the memory minus one.
 	private int[] V = new int[16]; // The 15 CPU registers for the Chip 8.
 	private int I; // Index register.
 	private int pc; // Program counter which can contain a value from 0x000 to
-					// 0xFFF.
+					// 0xFFF, or 0xFFFF in XO-CHIP.
+	private int[] flags = new int[16]; // SUPER-CHIP flag registers saved by FX75.
+	private int[] audioPattern = new int[16]; // XO-CHIP audio pattern loaded by F002.
+	private int pitch = 64; // XO-CHIP pitch register set by FX3A.
 
 	private int[] stack = new int[16]; // Remembers location between jumps.
 	private int sp; // In order to remember which level of the stack was used we
@@ -49,21 +108,47 @@ public class Memory {
 	private int soundTimer; // Make a sound whenever the sound timer reaches
 		// zero.
 
-	private boolean drawFlag = false;
-	private static final Random RANDOM = new Random();
+	private int idleCycle; // Length of the loop the program is idling in, 0 while it is doing work.
+	private long idleSkipped; // Instructions skipped while idling.
+	private int loopHead = -1; // Target of the last backward jump.
+	private int loopTurns; // Backward jumps to the loop head in a row.
+	private int loopRemaining = -1; // Budget left when the loop state was taken, -1 for none.
+	private long[] loopState = new long[4]; // Registers at the loop head, see loopTurn().
+	private int sideEffects; // Counts memory writes, draws and screen clears.
+	private long seed; // Seed the random number generator started from.
+	private long random; // State of the SplitMix64 generator behind CXNN.
+	
+	private Display screen;
+	private Keypad keyboard;
+	
+	private BlockCompiler compiler; // Optional block compiler, null when interpreting.
+	
+	private Instruction[] decoded; // Decoded instruction per address, null when the cache is off.
+	private Profiler profiler; // Optional profiler, null when not profiling.
+	private long[] codeMap; // Addresses read by an entry in the decode cache.
+	private byte[] scratch; // Memory as bytes for bulk copies of save states.
 	
-	private Screen screen;
-	private Keyboard keyboard;
+	/**
+	 * Initializes the memory for plain CHIP-8.
+	 * 
+	 * @param s - Display to draw into.
+	 * @param k - Keypad to read keys from.
+	 */
+	public Memory(Display s, Keypad k) {
+		this(s, k, Mode.CHIP8);
+	}
 	
 	/**
 	 * Initializes the memory.
 	 * 
-	 * @param s - Screen to communicate with.
-	 * @param k - Keyboard to read keys from.
+	 * @param s - Display to draw into.
+	 * @param k - Keypad to read keys from.
+	 * @param mode - The mode to run in.
 	 */
-	public Memory(Screen s, Keyboard k) {
+	public Memory(Display s, Keypad k, Mode mode) {
 		this.screen = s;
 		this.keyboard = k;
+		setMode(mode);
 		
 		pc = 0x200; // Program counter always starts at 0x200.
 		opcode = 0; // Reset current opcode.
@@ -82,13 +167,96 @@ public class Memory {
 		}
 		
 		//Load font into memory
-		for (int i = 0; i < 80; i++) {
-			memory[i] = Keyboard.FONT[i];
-		}
+		loadFonts();
 		
-		this.drawFlag = true;
 		this.delayTimer = 0;
 		this.soundTimer = 0;
+		
+		setSeed(ThreadLocalRandom.current().nextLong());
+	}
+
+	/**
+	 * Puts the machine back the way it was created, with an empty memory, a
+	 * clear screen and a new seed, ready for another program to be loaded.
+	 * The decode cache, block compiler and profiler stay on if they were.
+	 */
+	public void reset() {
+		reset(mode);
+	}
+
+	/**
+	 * Puts the machine back the way it was created in target mode, see
+	 * {@link #reset()}.
+	 * 
+	 * @param mode - The mode to run the next program in.
+	 */
+	public void reset(Mode mode) {
+		setMode(mode);
+		loadFonts();
+		Arrays.fill(V, 0);
+		Arrays.fill(flags, 0);
+		Arrays.fill(audioPattern, 0);
+		pitch = 64;
+		Arrays.fill(stack, 0);
+		opcode = 0;
+		I = 0;
+		pc = 0x200;
+		sp = 0;
+		delayTimer = 0;
+		soundTimer = 0;
+		
+		idleCycle = 0;
+		idleSkipped = 0;
+		loopHead = -1;
+		loopTurns = 0;
+		loopRemaining = -1;
+		sideEffects = 0;
+		
+		forgetCode();
+		
+		setSeed(ThreadLocalRandom.current().nextLong());
+	}
+	
+	/**
+	 * Sizes the memory and everything indexed by address for a mode, clears
+	 * it and sets up the display for the mode.
+	 * 
+	 * @param mode - The mode.
+	 */
+	private void setMode(Mode mode) {
+		this.mode = mode;
+		if (memory == null || memory.length != mode.getMemorySize()) {
+			memory = new int[mode.getMemorySize()];
+			scratch = new byte[memory.length];
+			codeMap = new long[memory.length / 64];
+			if (decoded != null) {
+				decoded = new Instruction[memory.length];
+			}
+		} else {
+			Arrays.fill(memory, 0);
+		}
+		addressMask = memory.length - 1;
+		screen.setMode(mode);
+	}
+	
+	/**
+	 * Loads the fonts FX29 and FX30 point at, the big one only in the modes
+	 * that have FX30.
+	 */
+	private void loadFonts() {
+		System.arraycopy(FONT, 0, memory, 0, FONT.length);
+		if (mode.isExtended()) {
+			System.arraycopy(BIG_FONT, 0, memory, BIG_FONT_ADDRESS, BIG_FONT.length);
+		}
+	}
+	
+	/**
+	 * Getter for the mode.
+	 * 
+	 * @return The mode the machine runs in.
+	 */
+	public Mode getMode() {
+		return this.mode;
 	}
 
 	/**
@@ -101,359 +269,1105 @@ public class Memory {
 		for (int i = 0; i < b.length; i++) {
 			memory[i + 512] = (b[i] & 0xFF);
 		}
+		
+		// Blocks compiled from the program before would run in its place.
+		forgetCode();
 	}
-
+	
 	/**
-	 * Fetches a single opcode.
+	 * Throws away everything decoded or compiled from the memory, for when
+	 * all of it changes at once: the decode cache with the addresses it
+	 * read and the compiled blocks with their hotness counters.
 	 */
-	public void fetchOpcode() {
-		opcode = ((memory[pc] << 8) | (memory[pc + 1]));
+	private void forgetCode() {
+		if (decoded != null) {
+			Arrays.fill(decoded, null);
+			Arrays.fill(codeMap, 0);
+		}
+		if (compiler != null) {
+			compiler = new BlockCompiler(mode);
+		}
 	}
 
 	/**
-	 * Decodes an opcode and performs target action.
+	 * Decodes the code found by an analysis of the loaded program ahead of
+	 * time, into the decode cache and the block compiler if they are on, so
+	 * the first frames don't pay for it.
+	 * 
+	 * @param analysis - Analysis of the program in memory.
 	 */
-	public void decodeOpcode() {
-		int x = 0;
+	public void prewarm(RomAnalyzer analysis) {
+		if (decoded != null) {
+			for (int address = 0; address + 1 < memory.length; address++) {
+				if (analysis.isInstruction(address) && decoded[address] == null) {
+					decoded[address] = Instructions.get((memory[address] << 8) | memory[address + 1]);
+					codeMap[address >>> 6] |= 1L << address;
+					codeMap[(address + 1) >>> 6] |= 1L << (address + 1);
+				}
+			}
+		}
 		
-		switch (opcode) {
-		case 0x00E0:
-			// Clear display
-			screen.clear();
-			drawFlag = true;
-			pc += 2;
-			return;
-		case 0x00EE:
-			// Returns from a subroutine
-			pc = stack[sp--];
-			drawFlag = true;
-			pc += 2;
-			return;
+		if (compiler != null) {
+			compiler.prewarm(this, analysis);
 		}
+	}
 
-		switch (opcode & 0xF000) {
-		case 0x1000:
-			// 1NNN - Jump to address NNN
-			pc = opcode & 0x0FFF;
-			
-			return;
-		case 0x2000:
-			// 2NNN - Call subroutine at nnn.
-			stack[++sp] = pc;
-			
-			pc = opcode & 0x0FFF;
-			return;
-		case 0x3000:
-			// 3XNN - Skip next instruction if Vx = kk.
-			if (V[(opcode & 0x0F00) >>> 8] == (opcode & 0x00FF)) {
-				pc += 4;
-			} else {
-				pc += 2;
-			}
-			
-			return;
-		case 0x4000:
-			// 4XNN - Skip next instruction if Vx != kk.
-			if (V[(opcode & 0x0F00) >>> 8] != (opcode & 0x00FF)) {
-				pc += 4;
-			} else {
-				pc += 2;
+	/**
+	 * Executes a single instruction.
+	 */
+	public void step() {
+		if (profiler != null) {
+			fetchOpcode();
+			profiler.instruction(pc, opcode, I);
+			decodeOpcode();
+		} else if (decoded != null) {
+			cached().execute(this);
+		} else {
+			fetchOpcode();
+			decodeOpcode();
+		}
+	}
+	
+	/**
+	 * Executes target number of instructions.
+	 * 
+	 * @param n - Number of instructions to execute.
+	 * @return The number of instructions executed.
+	 */
+	public int step(int n) {
+		idleCycle = 0;
+		loopRemaining = -1;
+		if (profiler != null) {
+			return profiled(n);
+		}
+		if (compiler != null) {
+			return compiler.run(this, n);
+		}
+		
+		if (decoded != null) {
+			for (int i = 0; i < n; i++) {
+				Instruction instruction = decoded[pc];
+				if (instruction == null) {
+					instruction = cached();
+				}
+				instruction.execute(this);
+				if (idleCycle != 0) {
+					i += skipIdle(n - i - 1);
+				}
 			}
-			return;
-		case 0x5000:
-			// 5XY0 - Skip next instruction if Vx = Vy.
-			if (V[(opcode & 0x0F00) >>> 8] == V[(opcode & 0x00F0) >>> 4]) {
-				pc += 4;
-			} else {
-				pc += 2;
+		} else {
+			for (int i = 0; i < n; i++) {
+				fetchOpcode();
+				decodeOpcode();
+				if (idleCycle != 0) {
+					i += skipIdle(n - i - 1);
+				}
 			}
-			return;
-		case 0x6000:
-			// 6XNN - Set Vx = kk.
-			V[(opcode & 0x0F00) >>> 8] = (opcode & 0x00FF);
-			
-			pc += 2;
-			return;
-		case 0x7000:
-			// 7XNN - Adds NN to VX.
-			x = (opcode & 0x0F00) >>> 8;
-			//V[x] = ((V[x] + (opcode & 0x00FF)) & 0xFF);
-			int NN = (opcode & 0x00FF);
-			 int result = V[x] + NN;
-	        // resolve overflow
-	        if (result >= 256) {
-	            V[x] = result - 256;
-	        } else {
-	            V[x] = result;
-	        }	
-			
-			pc += 2;
-			return;
 		}
-
-		switch (opcode & 0xF00F) {
-		case 0x8000:
-			// 8XY0 - Set Vx = Vy.
-			V[(opcode & 0x0F00) >>> 8] = V[(opcode & 0x00F0) >>> 4];
-			pc += 2;
-			return;
-		case 0x8001:
-			// 8XY1 - Set Vx = (Vx OR Vy).
-			x = (opcode & 0x0F00) >>> 8;
-			V[x] = (V[x] | V[(opcode & 0x00F0) >>> 4]);
-			pc += 2;
-			return;
-		case 0x8002:
-			// 8XY2 - Set Vx = (Vx AND Vy).
-			x = (opcode & 0x0F00) >>> 8;
-			V[x] = (V[x] & V[(opcode & 0x00F0) >>> 4]);
-			pc += 2;
-			return;
-		case 0x8003:
-			// 8XY3 - Set Vx = Vx XOR Vy.
-			x = (opcode & 0x0F00) >>> 8;
-			V[x] = (V[x] ^ V[(opcode & 0x00F0) >>> 4]);
-			
-			pc += 2;
-			return;
-		case 0x8004:
-			// 8XY4 - Set Vx = Vx + Vy, set VF = carry.
-			x = (opcode & 0x0F00) >>> 8;
-			int sum = V[x] + V[(opcode & 0x00F0) >>> 4];
-			
-			V[0xF] = sum > 0xFF ? 1 : 0;
-			V[x] = (sum & 0xFF);
-			
-			pc += 2;
-			return;
-		case 0x8005:
-			// 8XY5 - Set Vx = Vx - Vy, set VF = NOT borrow.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			if(V[(opcode & 0x00F0) >>> 4] > V[x]) {
-				V[0xF] = 0; //There is a borrow.
-			} else {
-				V[0xF] = 1;
+		
+		return n;
+	}
+	
+	/**
+	 * Executes target number of instructions through the plain interpreter,
+	 * telling the profiler about each one before it runs. This is a loop of
+	 * its own so the ones in {@link #step(int)} stay as they are when nobody
+	 * is profiling.
+	 * 
+	 * @param n - Number of instructions to execute.
+	 * @return The number of instructions executed.
+	 */
+	private int profiled(int n) {
+		for (int i = 0; i < n; i++) {
+			fetchOpcode();
+			profiler.instruction(pc, opcode, I);
+			decodeOpcode();
+			if (idleCycle != 0) {
+				int skipped = skipIdle(n - i - 1);
+				profiler.idle(skipped);
+				i += skipped;
 			}
-			
-			V[x] = (V[x] - V[(opcode & 0x00F0) >>> 4]) & 0xFF;
-			
-			pc += 2;
-			return;
-		case 0x8006:
-			// 8XY6 - Set Vx = Vx SHR 1.
-			// Shift Vx right by 1. Sets VF to the least significant bit of Vx before shift.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			V[0xF] = (V[x] & 0x1) == 1 ? 1 : 0;
-			
-			V[x] = (V[x] >>> 1);
-			
-			pc += 2;
-			return;
-		case 0x8007:
-			// 8XY7 - Set Vx = Vy - Vx, set VF = NOT borrow.
-			// VF is set to 0 when there is a borrow and 1 otherwise.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			if (V[(opcode & 0x00F0) >>> 4] > V[x]) {
-				V[0xF] = 1;
-			} else {
-				V[0xF] = 0;
+		}
+		
+		return n;
+	}
+	
+	/**
+	 * Checks if the last instruction left the program spinning in a loop
+	 * that can't end before the next timer tick or key event.
+	 * 
+	 * @return True if {@link #skipIdle(int)} may skip ahead.
+	 */
+	boolean isIdle() {
+		return idleCycle != 0;
+	}
+	
+	/**
+	 * Skips the whole turns of the idle loop that fit in the remaining budget.
+	 * Nothing but the program counter changes while spinning and every turn
+	 * ends where it started, so skipping them is the same as running them. The
+	 * partial turn that is left is run as usual.
+	 * 
+	 * @param remaining - Instructions left to run before the timers tick.
+	 * @return The number of instructions skipped.
+	 */
+	int skipIdle(int remaining) {
+		int cycle = idleCycle;
+		idleCycle = 0;
+		if (cycle == LOOP_CHECK) {
+			// Comparing costs more than a few turns, only bother when there is a lot to skip.
+			if (remaining < LOOP_MIN_SKIP) {
+				loopTurns = 0;
+				return 0;
 			}
-			
-			V[x] = ((V[(opcode & 0x00F0) >>> 4] - V[x]) & 0xFF);
-			
-			pc += 2;
-			return;
-		case 0x800E:
-			// 8XYE - Set Vx = Vx SHL 1.
-			// Shift Vx left by 1. Sets VF to the value of the most significant bit of Vx before the shift.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			V[0xF] = (V[x] >>> 7) == 0x1 ? 1 : 0;
-			
-			V[x] = ((V[x] << 1) & 0xFF);
-			
-			pc += 2;
-			return;
-		case 0x9000:
-			// 9XY0 - Skip next instruction if Vx != Vy.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			if (V[x] != V[(opcode & 0x00F0) >>> 4]) {
-				pc += 4;
-			} else {
-				pc += 2;
+			cycle = loopTurn(remaining);
+			if (cycle == 0) {
+				return 0;
 			}
-			
-			return;
 		}
 		
-		switch (opcode & 0xF000) {
-		case 0xA000:
-			// ANNN - Set I = nnn.
-			I = (opcode & 0x0FFF);
-			
-			pc += 2;
-			return;
-		case 0xB000:
-			// BNNN - Jump to location nnn + V0.
-			pc = (opcode & 0x0FFF) + V[0];
-			
-			return;
-		case 0xC000:
-			// CXNN - Set Vx = random byte AND NN.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			V[x] = ((RANDOM.nextInt(256)) & (opcode & 0x00FF));
-			
-			pc += 2;
-			return;
-		case 0xD000:
-			// DXYN - Display n-byte sprite starting at memory location I at (Vx, Vy), set VF = collision.
-			x = V[(opcode & 0x0F00) >> 8];
-	        int y = V[(opcode & 0x00F0) >> 4];
-	        int height = opcode & 0x000F;
-	        V[0xF] = 0;
-	        for (int yLine = 0; yLine < height; yLine++) {
-	            int pixel = memory[I + yLine];
-
-	            for (int xLine = 0; xLine < 8; xLine++) {
-	                // check each bit (pixel) in the 8 bit row
-	                if ((pixel & (0x80 >> xLine)) != 0) {
-
-	                    // wrap pixels if they're drawn off screen
-	                    int xCoord = x+xLine;
-	                    int yCoord = y+yLine; 
-	                    
-	                    if (xCoord < 64 && yCoord < 32) {
-	                        // if pixel already exists, set carry (collision)
-	                        if (screen.getPixel(xCoord, yCoord) == 1) {
-	                            V[0xF] = 1;
-	                        }
-	                        // draw via xor
-	                        screen.setPixel(xCoord,yCoord);
-	                    }
-	                }
-	            }
-	        }  
-	        drawFlag = true;
-			pc += 2;
-			return;
+		int skipped = remaining - remaining % cycle;
+		idleSkipped += skipped;
+		return skipped;
+	}
+	
+	/**
+	 * Compares the machine at the head of a busy loop with how it was at the
+	 * last turn. If nothing changed and nothing was written or drawn in
+	 * between, every following turn does exactly the same until the timers
+	 * tick or a key changes.
+	 * 
+	 * @param remaining - Instructions left to run before the timers tick.
+	 * @return Instructions per turn, or 0 if the loop is doing work.
+	 */
+	private int loopTurn(int remaining) {
+		long registers = 0;
+		long moreRegisters = 0;
+		for (int i = 0; i < 8; i++) {
+			registers = registers << 8 | V[i];
+			moreRegisters = moreRegisters << 8 | V[i + 8];
 		}
+		long rest = (long) pc << 48 | (long) I << 32 | sp << 24 | delayTimer << 16 | soundTimer << 8;
+		long effects = (long) sideEffects << 32 ^ random;
 		
-		switch (opcode & 0xF0FF) {
-		case 0xE09E:
-			// EX9E - Skip next instruction if key with the value of Vx is pressed.
-			if(keyboard.isPressed(V[(opcode & 0x0F00) >>> 8])) {
-				pc += 4;
-			} else {
-				pc += 2;
-			}
-			
-			return;
-		case 0xE0A1:
-			// EXA1 - Skip next instruction if key with the value of Vx is not pressed.
-			if(!keyboard.isPressed(V[(opcode & 0x0F00) >>> 8])) {
-				pc += 4;
-			} else {
-				pc += 2;
+		if (loopRemaining >= 0) {
+			if (registers == loopState[0] && moreRegisters == loopState[1] && rest == loopState[2]
+					&& effects == loopState[3]) {
+				return loopRemaining - remaining;
 			}
 			
-			return;
-		case 0xF007:
-			// FX07 - Set Vx = delay timer value.
-			x = (opcode & 0x0F00) >>> 8;
-			V[x] = (delayTimer & 0xFF);
-			
-			pc += 2;
-			return;
-		case 0xF00A:
-			// FX0A - Wait for a key press, store the value of the key in Vx.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			for (int j = 0; j <= 0xF; j++) {
-				if (keyboard.isPressed(j)) {
-					V[x] = j;
-					pc += 2;
-					return;
-				}
+			// Doing work, look again after a while.
+			loopTurns = 0;
+			loopRemaining = -1;
+			return 0;
+		}
+		
+		loopState[0] = registers;
+		loopState[1] = moreRegisters;
+		loopState[2] = rest;
+		loopState[3] = effects;
+		loopRemaining = remaining;
+		return 0;
+	}
+	
+	/**
+	 * Gets the instruction at the program counter from the decode cache,
+	 * decoding it first if it isn't cached yet.
+	 * 
+	 * @return The instruction at the program counter.
+	 */
+	private Instruction cached() {
+		Instruction instruction = decoded[pc];
+		
+		if (instruction == null) {
+			fetchOpcode();
+			instruction = Instructions.get(opcode);
+			decoded[pc] = instruction;
+			codeMap[pc >>> 6] |= 1L << pc;
+			codeMap[(pc + 1) >>> 6] |= 1L << (pc + 1);
+		}
+		
+		return instruction;
+	}
+	
+	/**
+	 * Counts both timers down by one, timers that already reached zero stay at zero.
+	 */
+	public void tickTimers() {
+		if (delayTimer > 0) {
+			delayTimer--;
+		}
+		
+		if (soundTimer > 0) {
+			soundTimer--;
+		}
+	}
+	
+	/**
+	 * Fetches a single opcode.
+	 */
+	public void fetchOpcode() {
+		opcode = ((memory[pc] << 8) | (memory[pc + 1]));
+	}
+
+	/**
+	 * Decodes an opcode and performs target action.
+	 */
+	public void decodeOpcode() {
+		Instructions.TABLE[opcode].execute(this);
+	}
+	
+	/**
+	 * Trap for opcodes that don't exist, stops the machine instead of leaving
+	 * the program counter stuck on the bad instruction.
+	 * 
+	 * @param op - The invalid opcode.
+	 */
+	void trap(int op) {
+		throw new IllegalStateException(String.format("Invalid opcode %04X at %03X", op, pc));
+	}
+	
+	// 00E0 - Clear display
+	void clearScreen() {
+		screen.clear();
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// 00EE - Returns from a subroutine
+	void returnFromSubroutine() {
+		pc = stack[sp--];
+		pc += 2;
+	}
+	
+	// 1NNN - Jump to address NNN
+	void jump(int nnn) {
+		if (nnn <= pc) {
+			if (nnn == pc) {
+				// Jump to itself, a program that is done.
+				idleCycle = 1;
+			} else if (nnn == pc - 4 && delayTimer != 0 && isDelayWait(nnn)) {
+				idleCycle = 3;
+			} else if (nnn != loopHead) {
+				loopHead = nnn;
+				loopTurns = 0;
+			} else if (++loopTurns >= LOOP_TURNS) {
+				// Some other busy loop, polling keys for example.
+				idleCycle = LOOP_CHECK;
 			}
-			
-			//If no key was pressed return, try again.
-			return;
-		case 0xF015:
-			// FX15 - Set delay timer = Vx.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			this.delayTimer = V[x];
-			
-			pc += 2;
-			return;
-		case 0xF018:
-			// FX18 - Set sound timer = Vx.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			this.soundTimer = V[x];
-			
+		}
+		
+		pc = nnn;
+	}
+	
+	/**
+	 * Checks for a loop that waits for the delay timer to run out,
+	 * <code>FX07, 3X00, 1NNN</code> with the jump going back to the FX07.
+	 * The timer only changes between frames so the loop can't end before then.
+	 * 
+	 * @param address - Address of the FX07.
+	 * @return True if the loop is there and will keep spinning.
+	 */
+	private boolean isDelayWait(int address) {
+		int x = memory[address] & 0xF;
+		return memory[address] == (0xF0 | x) && memory[address + 1] == 0x07 && memory[address + 2] == (0x30 | x)
+				&& memory[address + 3] == 0x00 && V[x] == delayTimer;
+	}
+	
+	// 2NNN - Call subroutine at nnn.
+	void call(int nnn) {
+		stack[++sp] = pc;
+		
+		pc = nnn;
+	}
+	
+	// 3XNN - Skip next instruction if Vx = kk.
+	void skipIfEqual(int x, int nn) {
+		if (V[x] == nn) {
+			pc += skipLength();
+		} else {
 			pc += 2;
-			return;
-		case 0xF01E:
-			// FX1E - Set I = I + Vx.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			//Setting VF to 1 when range overflow.
-			if(I + V[x] > 0xFFF) {
-				V[0xF] = 1;
-			} else {
-				V[0xF] = 0;
-			}
-			
-			I = ((I + V[x]) & 0xFFF);
-			
+		}
+	}
+	
+	// 4XNN - Skip next instruction if Vx != kk.
+	void skipIfNotEqual(int x, int nn) {
+		if (V[x] != nn) {
+			pc += skipLength();
+		} else {
 			pc += 2;
-			return;
-		case 0xF029:
-			// FX29 - Set I = location of sprite for digit Vx.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			I = V[x] * 5;
-			drawFlag = true;
+		}
+	}
+	
+	// 5XY0 - Skip next instruction if Vx = Vy.
+	void skipIfRegistersEqual(int x, int y) {
+		if (V[x] == V[y]) {
+			pc += skipLength();
+		} else {
 			pc += 2;
-			return;
-		case 0xF033:
-			// FX33 - Store binary coded decimal representation of Vx 
-			// in memory locations I, I+1, and I+2.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			memory[I] = (V[x] / 100);
-			memory[I + 1] = ((V[x] % 100) / 10);
-			memory[I + 2] = ((V[x] % 100) % 10);
-			
+		}
+	}
+	
+	/**
+	 * Gets how far a skip that is taken moves the program counter, over the
+	 * next instruction which is four bytes long if it is XO-CHIP's F000 NNNN.
+	 * 
+	 * @return Bytes to add to the program counter.
+	 */
+	private int skipLength() {
+		if (mode == Mode.XOCHIP && memory[(pc + 2) & addressMask] == 0xF0 && memory[(pc + 3) & addressMask] == 0x00) {
+			return 6;
+		}
+		return 4;
+	}
+	
+	// 6XNN - Set Vx = kk.
+	void load(int x, int nn) {
+		V[x] = nn;
+		
+		pc += 2;
+	}
+	
+	// 7XNN - Adds NN to VX, overflow wraps around without touching VF.
+	void add(int x, int nn) {
+		V[x] = (V[x] + nn) & 0xFF;
+		
+		pc += 2;
+	}
+	
+	// 8XY0 - Set Vx = Vy.
+	void copy(int x, int y) {
+		V[x] = V[y];
+		pc += 2;
+	}
+	
+	// 8XY1 - Set Vx = (Vx OR Vy).
+	void or(int x, int y) {
+		V[x] = (V[x] | V[y]);
+		pc += 2;
+	}
+	
+	// 8XY2 - Set Vx = (Vx AND Vy).
+	void and(int x, int y) {
+		V[x] = (V[x] & V[y]);
+		pc += 2;
+	}
+	
+	// 8XY3 - Set Vx = Vx XOR Vy.
+	void xor(int x, int y) {
+		V[x] = (V[x] ^ V[y]);
+		
+		pc += 2;
+	}
+	
+	// 8XY4 - Set Vx = Vx + Vy, set VF = carry.
+	void addRegisters(int x, int y) {
+		int sum = V[x] + V[y];
+		
+		V[0xF] = sum > 0xFF ? 1 : 0;
+		V[x] = (sum & 0xFF);
+		
+		pc += 2;
+	}
+	
+	// 8XY5 - Set Vx = Vx - Vy, set VF = NOT borrow.
+	void subtract(int x, int y) {
+		if(V[y] > V[x]) {
+			V[0xF] = 0; //There is a borrow.
+		} else {
+			V[0xF] = 1;
+		}
+		
+		V[x] = (V[x] - V[y]) & 0xFF;
+		
+		pc += 2;
+	}
+	
+	// 8XY6 - Set Vx = Vx SHR 1.
+	// Shift Vx right by 1. Sets VF to the least significant bit of Vx before shift.
+	void shiftRight(int x) {
+		V[0xF] = (V[x] & 0x1) == 1 ? 1 : 0;
+		
+		V[x] = (V[x] >>> 1);
+		
+		pc += 2;
+	}
+	
+	// 8XY7 - Set Vx = Vy - Vx, set VF = NOT borrow.
+	// VF is set to 0 when there is a borrow and 1 otherwise.
+	void subtractReverse(int x, int y) {
+		if (V[y] > V[x]) {
+			V[0xF] = 1;
+		} else {
+			V[0xF] = 0;
+		}
+		
+		V[x] = ((V[y] - V[x]) & 0xFF);
+		
+		pc += 2;
+	}
+	
+	// 8XYE - Set Vx = Vx SHL 1.
+	// Shift Vx left by 1. Sets VF to the value of the most significant bit of Vx before the shift.
+	void shiftLeft(int x) {
+		V[0xF] = (V[x] >>> 7) == 0x1 ? 1 : 0;
+		
+		V[x] = ((V[x] << 1) & 0xFF);
+		
+		pc += 2;
+	}
+	
+	// 9XY0 - Skip next instruction if Vx != Vy.
+	void skipIfRegistersNotEqual(int x, int y) {
+		if (V[x] != V[y]) {
+			pc += skipLength();
+		} else {
 			pc += 2;
+		}
+	}
+	
+	// ANNN - Set I = nnn.
+	void loadIndex(int nnn) {
+		I = nnn;
+		
+		pc += 2;
+	}
+	
+	// BNNN - Jump to location nnn + V0, SUPER-CHIP jumps to XNN + VX instead.
+	void jumpOffset(int nnn) {
+		if (mode == Mode.SCHIP) {
+			pc = nnn + V[nnn >>> 8];
+		} else {
+			pc = nnn + V[0];
+		}
+	}
+	
+	// CXNN - Set Vx = random byte AND NN.
+	void random(int x, int nn) {
+		long z = (random += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		V[x] = (int) ((z ^ (z >>> 31)) >>> 56) & nn;
+		
+		pc += 2;
+	}
+	
+	// DXYN - Display n-byte sprite starting at memory location I at (Vx, Vy), set VF = collision.
+	void draw(int vx, int vy, int height) {
+		if (mode.isExtended()) {
+			drawExtended(vx, vy, height);
 			return;
-		case 0xF055:
-			// FX55 - Store registers V0 through Vx in memory starting at location I.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			for (int j = 0; j <= x; j++) {
-				memory[I + j] = V[j];
+		}
+		
+		int x = V[vx];
+		int y = V[vy];
+		V[0xF] = 0;
+		sideEffects++;
+		for (int yLine = 0; yLine < height; yLine++) {
+			// Each sprite byte is a whole row, pixels drawn off screen are clipped.
+			if (screen.drawRow(x, y + yLine, memory[I + yLine])) {
+				V[0xF] = 1;
 			}
-			
-			pc += 2;
-			return;
-		case 0xF065:
-			// FX65 - Read registers V0 through Vx from memory starting at location I.
-			x = (opcode & 0x0F00) >>> 8;
-			
-			for (int j = 0; j <= x; j++) {
-				V[j] = memory[I + j] & 0xFF;
+		}
+		pc += 2;
+	}
+	
+	// DXYN in SUPER-CHIP and XO-CHIP, DXY0 draws 16x16. The sprite starts
+	// wrapped onto the screen, the rest is clipped in SUPER-CHIP and wraps
+	// in XO-CHIP. With both XO-CHIP planes selected the sprite for the second
+	// plane follows the one for the first.
+	private void drawExtended(int vx, int vy, int n) {
+		int width = n == 0 ? 16 : 8;
+		int height = n == 0 ? 16 : n;
+		int x = V[vx] & (screen.getWidth() - 1);
+		int y = V[vy] & (screen.getHeight() - 1);
+		boolean wrap = mode == Mode.XOCHIP;
+		int selected = screen.getSelectedPlanes();
+		int address = I;
+		
+		V[0xF] = 0;
+		sideEffects++;
+		for (int plane = 0; plane < FrameBuffer.MAX_PLANES; plane++) {
+			if ((selected & (1 << plane)) == 0) {
+				continue;
 			}
-			
+			for (int yLine = 0; yLine < height; yLine++) {
+				int bits = memory[address++ & addressMask];
+				if (width == 16) {
+					bits = bits << 8 | memory[address++ & addressMask];
+				}
+				int row = y + yLine;
+				if (row >= screen.getHeight()) {
+					if (!wrap) {
+						address += (height - yLine - 1) * (width / 8);
+						break;
+					}
+					row -= screen.getHeight();
+				}
+				if (screen.drawSprite(plane, x, row, bits, width, wrap)) {
+					V[0xF] = 1;
+				}
+			}
+		}
+		pc += 2;
+	}
+	
+	// EX9E - Skip next instruction if key with the value of Vx is pressed.
+	void skipIfPressed(int x) {
+		if(keyboard.isPressed(V[x])) {
+			pc += skipLength();
+		} else {
+			pc += 2;
+		}
+	}
+	
+	// EXA1 - Skip next instruction if key with the value of Vx is not pressed.
+	void skipIfNotPressed(int x) {
+		if(!keyboard.isPressed(V[x])) {
+			pc += skipLength();
+		} else {
 			pc += 2;
+		}
+	}
+	
+	// FX07 - Set Vx = delay timer value.
+	void loadDelayTimer(int x) {
+		V[x] = (delayTimer & 0xFF);
+		
+		pc += 2;
+	}
+	
+	// FX0A - Wait for a key press, store the value of the key in Vx.
+	void waitForKey(int x) {
+		for (int j = 0; j <= 0xF; j++) {
+			if (keyboard.isPressed(j)) {
+				V[x] = j;
+				pc += 2;
+				return;
+			}
+		}
+		
+		//If no key was pressed return, try again. Keys only change between
+		// calls to step, the scheduler splits frames at key events, so the
+		// rest of this call is spent waiting.
+		idleCycle = 1;
+	}
+	
+	// FX15 - Set delay timer = Vx.
+	void storeDelayTimer(int x) {
+		this.delayTimer = V[x];
+		
+		pc += 2;
+	}
+	
+	// FX18 - Set sound timer = Vx.
+	void storeSoundTimer(int x) {
+		this.soundTimer = V[x];
+		
+		pc += 2;
+	}
+	
+	// FX1E - Set I = I + Vx.
+	void addIndex(int x) {
+		//Setting VF to 1 when range overflow.
+		if(I + V[x] > addressMask) {
+			V[0xF] = 1;
+		} else {
+			V[0xF] = 0;
+		}
+		
+		I = ((I + V[x]) & addressMask);
+		
+		pc += 2;
+	}
+	
+	// FX29 - Set I = location of sprite for digit Vx.
+	void loadFontIndex(int x) {
+		I = V[x] * 5;
+		pc += 2;
+	}
+	
+	// FX33 - Store binary coded decimal representation of Vx 
+	// in memory locations I, I+1, and I+2.
+	void storeBcd(int x) {
+		store(I, (V[x] / 100));
+		store(I + 1, ((V[x] % 100) / 10));
+		store(I + 2, ((V[x] % 100) % 10));
+		
+		pc += 2;
+	}
+	
+	// FX55 - Store registers V0 through Vx in memory starting at location I.
+	void storeRegisters(int x) {
+		for (int j = 0; j <= x; j++) {
+			store(I + j, V[j]);
+		}
+		
+		pc += 2;
+	}
+	
+	// FX65 - Read registers V0 through Vx from memory starting at location I.
+	void loadRegisters(int x) {
+		for (int j = 0; j <= x; j++) {
+			V[j] = memory[I + j] & 0xFF;
+		}
+		
+		pc += 2;
+	}
+	
+	// 00CN - Scroll the display down N pixels. SUPER-CHIP.
+	void scrollDown(int n) {
+		requireMode(Mode.SCHIP, 0x00C0 | n);
+		screen.scrollDown(n);
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// 00DN - Scroll the display up N pixels. XO-CHIP.
+	void scrollUp(int n) {
+		requireMode(Mode.XOCHIP, 0x00D0 | n);
+		screen.scrollUp(n);
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// 00FB - Scroll the display right 4 pixels. SUPER-CHIP.
+	void scrollRight() {
+		requireMode(Mode.SCHIP, 0x00FB);
+		screen.scrollRight();
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// 00FC - Scroll the display left 4 pixels. SUPER-CHIP.
+	void scrollLeft() {
+		requireMode(Mode.SCHIP, 0x00FC);
+		screen.scrollLeft();
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// 00FD - Exit the interpreter. SUPER-CHIP.
+	void exit() {
+		requireMode(Mode.SCHIP, 0x00FD);
+		
+		// Stays on the instruction like a jump to itself, a program that is done.
+		idleCycle = 1;
+	}
+	
+	// 00FE - Switch to 64x32. SUPER-CHIP.
+	void lowResolution() {
+		requireMode(Mode.SCHIP, 0x00FE);
+		screen.setHighResolution(false);
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// 00FF - Switch to 128x64. SUPER-CHIP.
+	void highResolution() {
+		requireMode(Mode.SCHIP, 0x00FF);
+		screen.setHighResolution(true);
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// 5XY2 - Store registers Vx through Vy in memory starting at I, in either
+	// order, I is left alone. XO-CHIP, a 5XY0 skip in the other modes.
+	void storeRange(int x, int y) {
+		if (mode != Mode.XOCHIP) {
+			skipIfRegistersEqual(x, y);
 			return;
 		}
+		
+		int step = x <= y ? 1 : -1;
+		for (int j = 0; j <= Math.abs(y - x); j++) {
+			store((I + j) & addressMask, V[x + j * step]);
+		}
+		pc += 2;
+	}
+	
+	// 5XY3 - Read registers Vx through Vy from memory starting at I, in
+	// either order. XO-CHIP, a 5XY0 skip in the other modes.
+	void loadRange(int x, int y) {
+		if (mode != Mode.XOCHIP) {
+			skipIfRegistersEqual(x, y);
+			return;
+		}
+		
+		int step = x <= y ? 1 : -1;
+		for (int j = 0; j <= Math.abs(y - x); j++) {
+			V[x + j * step] = memory[(I + j) & addressMask];
+		}
+		pc += 2;
+	}
+	
+	// F000 NNNN - Set I = NNNN, from the two bytes after the instruction. XO-CHIP.
+	void loadLongIndex() {
+		requireMode(Mode.XOCHIP, 0xF000);
+		I = memory[(pc + 2) & addressMask] << 8 | memory[(pc + 3) & addressMask];
+		pc += 4;
+	}
+	
+	// FN01 - Select the planes to draw, clear and scroll. XO-CHIP.
+	void selectPlanes(int n) {
+		requireMode(Mode.XOCHIP, 0xF001 | n << 8);
+		screen.selectPlanes(n);
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// F002 - Load the 16 byte audio pattern at I. XO-CHIP.
+	void loadAudioPattern() {
+		requireMode(Mode.XOCHIP, 0xF002);
+		for (int j = 0; j < audioPattern.length; j++) {
+			audioPattern[j] = memory[(I + j) & addressMask];
+		}
+		pc += 2;
+	}
+	
+	// FX30 - Set I = location of the big sprite for digit Vx. SUPER-CHIP.
+	void loadBigFontIndex(int x) {
+		requireMode(Mode.SCHIP, 0xF030 | x << 8);
+		I = BIG_FONT_ADDRESS + (V[x] & 0xF) * 10;
+		pc += 2;
+	}
+	
+	// FX3A - Set the pitch of the audio pattern = Vx. XO-CHIP.
+	void loadPitch(int x) {
+		requireMode(Mode.XOCHIP, 0xF03A | x << 8);
+		pitch = V[x];
+		pc += 2;
+	}
+	
+	// FX75 - Store V0 through Vx in the flag registers. SUPER-CHIP has 8 of
+	// them, XO-CHIP 16.
+	void storeFlags(int x) {
+		if (x >= mode.getFlags()) {
+			trap(0xF075 | x << 8);
+		}
+		System.arraycopy(V, 0, flags, 0, x + 1);
+		sideEffects++;
+		pc += 2;
+	}
+	
+	// FX85 - Read V0 through Vx from the flag registers.
+	void loadFlags(int x) {
+		if (x >= mode.getFlags()) {
+			trap(0xF085 | x << 8);
+		}
+		System.arraycopy(flags, 0, V, 0, x + 1);
+		pc += 2;
+	}
+	
+	/**
+	 * Traps unless the machine runs in target mode or one that extends it.
+	 * 
+	 * @param minimum - The first mode that has the instruction.
+	 * @param op - The opcode.
+	 */
+	private void requireMode(Mode minimum, int op) {
+		if (mode.compareTo(minimum) < 0) {
+			trap(op);
+		}
+	}
+	
+	/**
+	 * Writes a byte into memory on behalf of the running program, anything
+	 * decoded from that address is thrown away if the byte changes.
+	 * 
+	 * @param address - Address to write to.
+	 * @param value - The byte to write.
+	 */
+	private void store(int address, int value) {
+		if (memory[address] == value) {
+			return;
+		}
+		
+		memory[address] = value;
+		sideEffects++;
+		invalidate(address);
+	}
+	
+	/**
+	 * Throws away what was decoded or compiled from a byte that changed.
+	 * 
+	 * @param address - Address of the byte.
+	 */
+	private void invalidate(int address) {
+		// Drop the cached instructions starting at and overlapping the address.
+		if (decoded != null && (codeMap[address >>> 6] & (1L << address)) != 0) {
+			decoded[address] = null;
+			if (address > 0) {
+				decoded[address - 1] = null;
+			}
+		}
+		
+		if (compiler != null) {
+			compiler.written(address);
+		}
+	}
+	
+	/**
+	 * Reads a byte from memory.
+	 * 
+	 * @param address - Address to read.
+	 * @return The byte at target address.
+	 */
+	int read(int address) {
+		return memory[address];
+	}
+	
+	/**
+	 * Turns the block compiler on or off. With the compiler on, hot basic blocks
+	 * are turned into JVM bytecode and cold code keeps running in the interpreter.
+	 * 
+	 * @param enabled - True to compile hot blocks.
+	 */
+	public void setBlockCompiler(boolean enabled) {
+		if (enabled && compiler == null) {
+			compiler = new BlockCompiler(mode);
+		} else if (!enabled) {
+			compiler = null;
+		}
+	}
+	
+	/**
+	 * Turns the decode cache on or off. With the cache on every address keeps
+	 * the instruction decoded from it until the program writes to it.
+	 * 
+	 * @param enabled - True to cache decoded instructions.
+	 */
+	public void setDecodeCache(boolean enabled) {
+		if (enabled && decoded == null) {
+			decoded = new Instruction[memory.length];
+			Arrays.fill(codeMap, 0);
+		} else if (!enabled) {
+			decoded = null;
+		}
+	}
+	
+	/**
+	 * Checks if the decode cache is on.
+	 * 
+	 * @return True if decoded instructions are cached.
+	 */
+	public boolean isDecodeCache() {
+		return decoded != null;
+	}
+	
+	/**
+	 * Starts or stops profiling. While profiling every instruction runs
+	 * through the plain interpreter, the decode cache and block compiler are
+	 * left alone until it stops.
+	 * 
+	 * @param profiler - The profiler to record into, or null to stop profiling.
+	 */
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+	}
+	
+	/**
+	 * Getter for the profiler.
+	 * 
+	 * @return The profiler or null when not profiling.
+	 */
+	public Profiler getProfiler() {
+		return this.profiler;
+	}
+	
+	/**
+	 * Getter for the block compiler.
+	 * 
+	 * @return The block compiler or null when interpreting.
+	 */
+	public BlockCompiler getBlockCompiler() {
+		return this.compiler;
+	}
+	
+	/**
+	 * Seeds the generator behind CXNN, the same seed always gives the same
+	 * random numbers. Every machine starts out with a seed of its own.
+	 * 
+	 * @param seed - The seed.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		this.random = seed;
+	}
+	
+	/**
+	 * Gets the seed the generator behind CXNN started from.
+	 * 
+	 * @return The seed.
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+	
+	long getRandomState() {
+		return this.random;
+	}
+	
+	void setRandomState(long random) {
+		this.random = random;
+	}
+	
+	/**
+	 * Writes the machine state: registers, stack, timers and memory, see {@link SaveState}.
+	 * The memory is 4 KB, or 64 KB in XO-CHIP.
+	 * 
+	 * @param buffer - Buffer to write to, with room for the registers, stack, timers and memory.
+	 */
+	public void writeState(ByteBuffer buffer) {
+		buffer.putShort((short) pc);
+		buffer.putShort((short) I);
+		buffer.put((byte) sp);
+		buffer.put((byte) delayTimer);
+		buffer.put((byte) soundTimer);
+		buffer.put((byte) 0);
+		for (int i = 0; i < 16; i++) {
+			buffer.put((byte) V[i]);
+		}
+		for (int i = 0; i < 16; i++) {
+			buffer.putShort((short) stack[i]);
+		}
+		for (int i = 0; i < memory.length; i++) {
+			scratch[i] = (byte) memory[i];
+		}
+		buffer.put(scratch, 0, memory.length);
+	}
+	
+	/**
+	 * Restores the machine state written by {@link #writeState(ByteBuffer)}.
+	 * 
+	 * @param buffer - Buffer to read from.
+	 */
+	public void readState(ByteBuffer buffer) {
+		pc = buffer.getShort() & 0xFFFF;
+		I = buffer.getShort() & 0xFFFF;
+		sp = buffer.get() & 0xFF;
+		delayTimer = buffer.get() & 0xFF;
+		soundTimer = buffer.get() & 0xFF;
+		buffer.get();
+		for (int i = 0; i < 16; i++) {
+			V[i] = buffer.get() & 0xFF;
+		}
+		for (int i = 0; i < 16; i++) {
+			stack[i] = buffer.getShort() & 0xFFFF;
+		}
+		buffer.get(scratch, 0, memory.length);
+		for (int i = 0; i < memory.length; i++) {
+			int value = scratch[i] & 0xFF;
+			if (memory[i] != value) {
+				// Only what changed is decoded again, a restore keeps the rest of the code warm.
+				memory[i] = value;
+				invalidate(i);
+			}
+		}
+	}
+	
+	/**
+	 * Writes what the SUPER-CHIP and XO-CHIP instructions keep besides the
+	 * registers: 16 flag registers, the 16 byte audio pattern and the pitch,
+	 * {@link #EXTENDED_STATE_SIZE} bytes in all.
+	 * 
+	 * @param buffer - Buffer to write to.
+	 */
+	public void writeExtendedState(ByteBuffer buffer) {
+		for (int i = 0; i < 16; i++) {
+			buffer.put((byte) flags[i]);
+		}
+		for (int i = 0; i < 16; i++) {
+			buffer.put((byte) audioPattern[i]);
+		}
+		buffer.put((byte) pitch);
+		for (int i = 33; i < EXTENDED_STATE_SIZE; i++) {
+			buffer.put((byte) 0);
+		}
+	}
+	
+	/**
+	 * Restores what {@link #writeExtendedState(ByteBuffer)} wrote.
+	 * 
+	 * @param buffer - Buffer to read from.
+	 */
+	public void readExtendedState(ByteBuffer buffer) {
+		for (int i = 0; i < 16; i++) {
+			flags[i] = buffer.get() & 0xFF;
+		}
+		for (int i = 0; i < 16; i++) {
+			audioPattern[i] = buffer.get() & 0xFF;
+		}
+		pitch = buffer.get() & 0xFF;
+		buffer.position(buffer.position() + EXTENDED_STATE_SIZE - 33);
+	}
+	
+	/**
+	 * Hashes the whole memory.
+	 * 
+	 * @return A 64 bit FNV-1a hash of every byte in memory.
+	 */
+	public long hash() {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < memory.length; i++) {
+			h = (h ^ memory[i]) * 0x100000001B3L;
+		}
+		return h;
+	}
+	
+	/**
+	 * Gets the number of instructions skipped instead of run while the program
+	 * was waiting on the delay timer or a key, they are still counted as run.
+	 * 
+	 * @return Instructions skipped so far.
+	 */
+	public long getIdleSkipped() {
+		return this.idleSkipped;
+	}
+	
+	/**
+	 * Getter for the program counter.
+	 * 
+	 * @return The program counter.
+	 */
+	public int getProgramCounter() {
+		return this.pc;
+	}
+	
+	/**
+	 * Setter for the program counter, for compiled blocks.
+	 * 
+	 * @param pc - The new program counter.
+	 */
+	void setProgramCounter(int pc) {
+		this.pc = pc;
+	}
+	
+	/**
+	 * Getter for the V registers themselves, for compiled blocks.
+	 * 
+	 * @return The registers.
+	 */
+	int[] getRegisters() {
+		return this.V;
+	}
+	
+	/**
+	 * Getter for the index register.
+	 * 
+	 * @return The index register.
+	 */
+	int getIndex() {
+		return this.I;
+	}
+	
+	/**
+	 * Setter for the index register, for compiled blocks.
+	 * 
+	 * @param i - The new index register.
+	 */
+	void setIndex(int i) {
+		this.I = i;
 	}
 	
 	/**
@@ -493,20 +1407,21 @@ public class Memory {
 	}
 	
 	/**
-	 * Getter for the draw flag.
+	 * Getter for the XO-CHIP audio pattern, 128 one bit samples.
 	 * 
-	 * @return The draw flag.
+	 * @return The 16 bytes loaded by F002, not to be modified.
 	 */
-	public boolean isDrawFlag() {
-		return this.drawFlag;
+	public int[] getAudioPattern() {
+		return this.audioPattern;
 	}
 	
 	/**
-	 * Setter for the draw flag.
+	 * Getter for the XO-CHIP pitch, the pattern plays at
+	 * 4000 * 2 ^ ((pitch - 64) / 48) samples per second.
 	 * 
-	 * @param b - draw flag value.
+	 * @return The pitch register.
 	 */
-	public void setDrawFlag(boolean b) {
-		this.drawFlag = b;
+	public int getPitch() {
+		return this.pitch;
 	}
 }
@@ -0,0 +1,150 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.util.Locale;
+
+/**
+ * The CHIP-8 dialects a machine can run.
+ * 
+ * <ul>
+ * <li>CHIP-8: 64x32 pixels, 4 KB of memory, the original instruction set.</li>
+ * <li>SUPER-CHIP: adds a 128x64 high resolution, 16x16 sprites, scrolling,
+ * a large font and 8 flag registers, and <code>BXNN</code> jumps relative to
+ * VX instead of V0.</li>
+ * <li>XO-CHIP: SUPER-CHIP plus 64 KB of memory, a second bit plane, scrolling
+ * up, <code>5XY2</code>/<code>5XY3</code> register ranges, the four byte
+ * <code>F000 NNNN</code> and 16 flag registers. Sprites wrap around the
+ * edges of the screen instead of being clipped.</li>
+ * </ul>
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Mode.java
+ */
+public enum Mode {
+
+	CHIP8("CHIP-8", 0x1000, 1, 0),
+	SCHIP("SUPER-CHIP", 0x1000, 1, 8),
+	XOCHIP("XO-CHIP", 0x10000, 2, 16);
+
+	private final String title;
+	private final int memorySize;
+	private final int planes;
+	private final int flags;
+
+	private Mode(String title, int memorySize, int planes, int flags) {
+		this.title = title;
+		this.memorySize = memorySize;
+		this.planes = planes;
+		this.flags = flags;
+	}
+
+	/**
+	 * Picks the mode for a ROM by the extension of its file name,
+	 * <code>.sc8</code> for SUPER-CHIP and <code>.xo8</code> for XO-CHIP,
+	 * anything else is plain CHIP-8.
+	 * 
+	 * @param name - File name of the ROM.
+	 * @return The mode.
+	 */
+	public static Mode forFile(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		if (lower.endsWith(".sc8")) {
+			return SCHIP;
+		}
+		if (lower.endsWith(".xo8")) {
+			return XOCHIP;
+		}
+		return CHIP8;
+	}
+
+	/**
+	 * Parses a mode from its name, either as in the enum or without the
+	 * dash, in any case: <code>chip8</code>, <code>schip</code>,
+	 * <code>superchip</code>, <code>xochip</code>.
+	 * 
+	 * @param name - Name of the mode.
+	 * @return The mode.
+	 * @throws IllegalArgumentException If there is no such mode.
+	 */
+	public static Mode parse(String name) {
+		String n = name.trim().toUpperCase(Locale.ROOT).replace("-", "");
+		if (n.equals("SUPERCHIP")) {
+			return SCHIP;
+		}
+		return valueOf(n);
+	}
+
+	/**
+	 * Checks if the mode has the SUPER-CHIP instructions and high resolution.
+	 * 
+	 * @return True for SUPER-CHIP and XO-CHIP.
+	 */
+	public boolean isExtended() {
+		return this != CHIP8;
+	}
+
+	/**
+	 * Getter for the size of the memory.
+	 * 
+	 * @return Bytes of memory, a power of two.
+	 */
+	public int getMemorySize() {
+		return this.memorySize;
+	}
+
+	/**
+	 * Getter for the number of bit planes of the display.
+	 * 
+	 * @return 1, or 2 for XO-CHIP.
+	 */
+	public int getPlanes() {
+		return this.planes;
+	}
+
+	/**
+	 * Getter for the number of flag registers <code>FX75</code> and
+	 * <code>FX85</code> save and load.
+	 * 
+	 * @return Number of flag registers, 0 for plain CHIP-8.
+	 */
+	public int getFlags() {
+		return this.flags;
+	}
+
+	/**
+	 * Gets the largest program that fits in memory.
+	 * 
+	 * @return Program size in bytes.
+	 */
+	public int getMaxProgramSize() {
+		return memorySize - 0x200;
+	}
+
+	@Override
+	public String toString() {
+		return this.title;
+	}
+}
@@ -0,0 +1,384 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Guest level profiler. Counts how often every instruction class and every
+ * address runs, which bytes the program reads and writes through I, which
+ * sprites it draws and how long it goes between draws, and prints it all as a
+ * flat report with a listing of the hottest code.
+ * 
+ * A machine only talks to the profiler while one is set with
+ * {@link Memory#setProfiler(Profiler)}, so profiling costs nothing when it is
+ * off.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Profiler.java
+ */
+public class Profiler {
+
+	private static final int MEMORY_SIZE = Mode.XOCHIP.getMemorySize(); // Large enough for every mode.
+	private static final String HEAT = " .:-=+*#%@"; // Heat map characters from cold to hot.
+	private static final int HEAT_WIDTH = 64; // Addresses per heat map row.
+
+	private final long[] classCounts = new long[Disassembler.CLASSES];
+	private final long[] addressCounts = new long[MEMORY_SIZE];
+	private final int[] opcodes = new int[MEMORY_SIZE]; // Last opcode run at every address.
+	private final long[] reads = new long[MEMORY_SIZE];
+	private final long[] writes = new long[MEMORY_SIZE];
+	private final long[] sprites = new long[MEMORY_SIZE]; // Draws per sprite address.
+
+	private long instructions;
+	private long idle; // Instructions skipped while the program was idling.
+	private long draws;
+	private long rows; // Sprite rows drawn.
+
+	private long lastDraw = -1; // Instructions run at the last draw, -1 before the first.
+	private long lastDrawNanos;
+	private long gaps;
+	private long gapInstructions;
+	private long maxGapInstructions;
+	private long gapNanos;
+	private long maxGapNanos;
+
+	/**
+	 * Records an instruction about to run.
+	 * 
+	 * @param pc - Address of the instruction.
+	 * @param opcode - The opcode.
+	 * @param index - The index register before the instruction runs.
+	 */
+	void instruction(int pc, int opcode, int index) {
+		int c = Disassembler.classOf(opcode);
+		classCounts[c]++;
+		addressCounts[pc]++;
+		opcodes[pc] = opcode;
+
+		int x = (opcode & 0x0F00) >>> 8;
+		switch (Disassembler.PATTERNS[c]) {
+		case "DXYN":
+			draw(index, opcode & 0x000F);
+			break;
+		case "FX33":
+			count(writes, index, 3);
+			break;
+		case "FX55":
+			count(writes, index, x + 1);
+			break;
+		case "FX65":
+			count(reads, index, x + 1);
+			break;
+		}
+		instructions++;
+	}
+
+	/**
+	 * Records instructions skipped while the program was idling.
+	 * 
+	 * @param n - Number of instructions skipped.
+	 */
+	void idle(int n) {
+		idle += n;
+	}
+
+	private void draw(int index, int height) {
+		draws++;
+		rows += height;
+		count(reads, index, height);
+		if (index < MEMORY_SIZE) {
+			sprites[index]++;
+		}
+
+		long now = System.nanoTime();
+		if (lastDraw >= 0) {
+			long instructionGap = instructions + idle - lastDraw;
+			long nanoGap = now - lastDrawNanos;
+			gaps++;
+			gapInstructions += instructionGap;
+			maxGapInstructions = Math.max(maxGapInstructions, instructionGap);
+			gapNanos += nanoGap;
+			maxGapNanos = Math.max(maxGapNanos, nanoGap);
+		}
+		lastDraw = instructions + idle;
+		lastDrawNanos = now;
+	}
+
+	private static void count(long[] counts, int from, int length) {
+		for (int a = from; a < from + length && a < MEMORY_SIZE; a++) {
+			counts[a]++;
+		}
+	}
+
+	/**
+	 * Clears everything recorded so far.
+	 */
+	public void reset() {
+		Arrays.fill(classCounts, 0);
+		Arrays.fill(addressCounts, 0);
+		Arrays.fill(opcodes, 0);
+		Arrays.fill(reads, 0);
+		Arrays.fill(writes, 0);
+		Arrays.fill(sprites, 0);
+		instructions = 0;
+		idle = 0;
+		draws = 0;
+		rows = 0;
+		lastDraw = -1;
+		gaps = 0;
+		gapInstructions = 0;
+		maxGapInstructions = 0;
+		gapNanos = 0;
+		maxGapNanos = 0;
+	}
+
+	/**
+	 * Prints the report: instruction classes, hot addresses, draws, a heat map
+	 * of memory accesses and a listing of the hottest code.
+	 * 
+	 * @param out - Where to print to.
+	 * @param top - Number of addresses, sprites and code ranges to list.
+	 */
+	public void report(PrintStream out, int top) {
+		long total = Math.max(1, instructions);
+		out.printf("%,d instructions run, %,d skipped idling%n", instructions, idle);
+
+		out.println();
+		out.println("Instruction classes");
+		Integer[] classes = new Integer[Disassembler.CLASSES];
+		for (int c = 0; c < classes.length; c++) {
+			classes[c] = c;
+		}
+		Arrays.sort(classes, Comparator.comparingLong((Integer c) -> classCounts[c]).reversed());
+		for (int c : classes) {
+			if (classCounts[c] > 0) {
+				out.printf("  %s %,16d %6.2f%%%n", Disassembler.PATTERNS[c], classCounts[c],
+						100.0 * classCounts[c] / total);
+			}
+		}
+
+		String[] symbols = symbols();
+		out.println();
+		out.println("Hot addresses");
+		for (int a : hottest(addressCounts, top)) {
+			out.printf("  %03X %04X  %-22s %,16d %6.2f%%%n", a, opcodes[a], Disassembler.disassemble(opcodes[a], symbols),
+					addressCounts[a], 100.0 * addressCounts[a] / total);
+		}
+
+		out.println();
+		out.printf("Draws: %,d sprites, %,d rows%n", draws, rows);
+		if (gaps > 0) {
+			out.printf("  between draws %,.1f instructions on average, %,d at most, %.3f ms on average, %.3f ms at most%n",
+					gapInstructions / (double) gaps, maxGapInstructions, gapNanos / 1e6 / gaps, maxGapNanos / 1e6);
+		}
+		for (int a : hottest(sprites, top)) {
+			out.printf("  sprite %03X %,16d%n", a, sprites[a]);
+		}
+
+		out.println();
+		out.println("Memory reads and writes through I, " + HEAT_WIDTH + " bytes per row");
+		heatMap(out);
+
+		out.println();
+		out.println("Hottest code");
+		listing(out, top, symbols, total);
+	}
+
+	/**
+	 * Names the addresses the program refers to: subroutines it called, places
+	 * it jumped to, sprites it drew and other data it pointed I at.
+	 */
+	private String[] symbols() {
+		String[] symbols = new String[MEMORY_SIZE];
+		for (int a = 0; a < MEMORY_SIZE; a++) {
+			if (addressCounts[a] == 0) {
+				continue;
+			}
+			int target = Disassembler.target(opcodes[a]);
+			if (target < 0 || symbols[target] != null && symbols[target].startsWith("sub_")) {
+				continue;
+			}
+			switch (opcodes[a] & 0xF000) {
+			case 0x2000:
+				symbols[target] = String.format("sub_%03X", target);
+				break;
+			case 0xA000:
+				if (symbols[target] == null) {
+					symbols[target] = String.format(sprites[target] > 0 ? "sprite_%03X" : "data_%03X", target);
+				}
+				break;
+			default:
+				symbols[target] = String.format("loc_%03X", target);
+				break;
+			}
+		}
+		return symbols;
+	}
+
+	private void heatMap(PrintStream out) {
+		long max = 1;
+		for (int a = 0; a < MEMORY_SIZE; a++) {
+			max = Math.max(max, reads[a] + writes[a]);
+		}
+		double scale = (HEAT.length() - 1) / Math.log1p(max);
+
+		boolean skipped = false;
+		for (int row = 0; row < MEMORY_SIZE; row += HEAT_WIDTH) {
+			StringBuilder line = new StringBuilder();
+			boolean empty = true;
+			for (int a = row; a < row + HEAT_WIDTH; a++) {
+				long n = reads[a] + writes[a];
+				// Any access at all shows up, the rest goes by order of magnitude.
+				int heat = n == 0 ? 0 : Math.max(1, (int) Math.round(Math.log1p(n) * scale));
+				line.append(HEAT.charAt(heat));
+				empty &= n == 0;
+			}
+			if (empty) {
+				if (!skipped) {
+					out.println("  ...");
+				}
+				skipped = true;
+				continue;
+			}
+			out.printf("  %03X |%s| %s%n", row, line, writesIn(row) ? "w" : "");
+			skipped = false;
+		}
+	}
+
+	private boolean writesIn(int row) {
+		for (int a = row; a < row + HEAT_WIDTH; a++) {
+			if (writes[a] > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lists the hottest runs of consecutive instructions, every run starting
+	 * where the program jumped in and ending where it stopped falling through.
+	 */
+	private void listing(PrintStream out, int top, String[] symbols, long total) {
+		List<int[]> ranges = new ArrayList<>(); // First address, end address.
+		List<Long> heat = new ArrayList<>();
+		boolean[] covered = new boolean[MEMORY_SIZE];
+		for (int a = 0; a < MEMORY_SIZE; a++) {
+			if (addressCounts[a] == 0 || covered[a]) {
+				continue;
+			}
+			long sum = 0;
+			int end = a;
+			while (end < MEMORY_SIZE && addressCounts[end] > 0 && (end == a || symbols[end] == null)) {
+				covered[end] = true;
+				sum += addressCounts[end];
+				end += 2;
+			}
+			ranges.add(new int[] { a, end });
+			heat.add(sum);
+		}
+
+		Integer[] order = new Integer[ranges.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong((Integer i) -> heat.get(i)).reversed());
+
+		for (int i = 0; i < Math.min(top, order.length); i++) {
+			int[] range = ranges.get(order[i]);
+			String name = symbols[range[0]] != null ? symbols[range[0]] : String.format("%03X", range[0]);
+			out.printf("%n  %s: %,d instructions, %.2f%%%n", name, heat.get(order[i]), 100.0 * heat.get(order[i]) / total);
+			for (int a = range[0]; a < range[1]; a += 2) {
+				out.printf("    %03X %04X  %-22s %,16d%n", a, opcodes[a], Disassembler.disassemble(opcodes[a], symbols),
+						addressCounts[a]);
+			}
+		}
+	}
+
+	/**
+	 * Finds the entries with the highest counts.
+	 * 
+	 * @return Up to target number of indices with non zero counts, highest first.
+	 */
+	private static int[] hottest(long[] counts, int top) {
+		Integer[] order = new Integer[counts.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong((Integer i) -> counts[i]).reversed());
+
+		int n = 0;
+		while (n < Math.min(top, order.length) && counts[order[n]] > 0) {
+			n++;
+		}
+		int[] hottest = new int[n];
+		for (int i = 0; i < n; i++) {
+			hottest[i] = order[i];
+		}
+		return hottest;
+	}
+
+	/**
+	 * Getter for the number of instructions run while profiling.
+	 * 
+	 * @return Instructions run, not counting the ones skipped while idling.
+	 */
+	public long getInstructions() {
+		return this.instructions;
+	}
+
+	/**
+	 * Getter for how often an instruction class ran.
+	 * 
+	 * @param c - Index into {@link Disassembler#PATTERNS}.
+	 * @return Number of instructions of the class run.
+	 */
+	public long getClassCount(int c) {
+		return this.classCounts[c];
+	}
+
+	/**
+	 * Getter for how often the instruction at an address ran.
+	 * 
+	 * @param address - The address.
+	 * @return Number of instructions run from the address.
+	 */
+	public long getAddressCount(int address) {
+		return this.addressCounts[address];
+	}
+
+	/**
+	 * Getter for the number of sprites drawn.
+	 * 
+	 * @return Number of DXYN instructions run.
+	 */
+	public long getDraws() {
+		return this.draws;
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays an {@link InputLog} headless at full speed and checks the frame
+ * buffer against every hash in the log, so a recorded bug report runs again
+ * in milliseconds.
+ * 
+ * Usage: Replay [-c] [-d] rom log
+ * 
+ * -c runs the ROM through the {@link BlockCompiler}, -d turns on the decode
+ * cache. The machine runs in the mode the log was recorded in, logs without
+ * one in the mode of the ROM, see {@link RomLibrary#modeOf(File)}. Exits with
+ * status 1 at the first frame that doesn't match.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Replay.java
+ */
+public class Replay {
+
+	private boolean compile = false;
+	private boolean decodeCache = false;
+
+	/**
+	 * Replays a log.
+	 * 
+	 * @param rom - The ROM the log was recorded with.
+	 * @param log - The input log.
+	 * @return True if every hash matched.
+	 * @throws IOException If the ROM or the log could not be read.
+	 */
+	public boolean run(File rom, File log) throws IOException {
+		byte[] program = Files.readAllBytes(rom.toPath());
+		InputScript script = InputScript.read(log);
+		Mode mode = script.getMode() != null ? script.getMode() : RomLibrary.modeOf(rom);
+
+		FrameBuffer frameBuffer = new FrameBuffer();
+		KeyState keys = new KeyState();
+		Memory memory = new Memory(frameBuffer, keys, mode);
+		memory.loadProgram(program);
+		memory.setBlockCompiler(compile);
+		memory.setDecodeCache(decodeCache);
+		memory.prewarm(RomAnalyzer.analyze(program, mode));
+		memory.setSeed(script.getSeed());
+
+		Scheduler scheduler = new Scheduler(memory);
+		if (script.getInstructionsPerFrame() > 0) {
+			scheduler.setInstructionsPerFrame(script.getInstructionsPerFrame());
+		}
+		// Keys change at the instruction they were logged at, which already takes the hold time into account.
+		KeyTimeline timeline = new KeyTimeline(keys, 0);
+		scheduler.setInput(timeline);
+
+		int checkpoints = script.getCheckpoints();
+		long frames = checkpoints > 0 ? script.getCheckpointFrame(checkpoints - 1) : 0;
+
+		long start = System.nanoTime();
+		int cursor = 0;
+		int check = 0;
+		for (long frame = 0; frame < frames || cursor < script.size(); frame++) {
+			cursor = script.apply(frame, timeline, cursor);
+			scheduler.runFrame();
+
+			for (; check < checkpoints && script.getCheckpointFrame(check) <= scheduler.getFrames(); check++) {
+				long expected = script.getCheckpointHash(check);
+				if (script.getCheckpointFrame(check) == scheduler.getFrames() && frameBuffer.hash() != expected) {
+					System.out.printf("%s: diverged at frame %d, expected hash %016x but got %016x%n", log.getName(),
+							scheduler.getFrames(), expected, frameBuffer.hash());
+					return false;
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("%s: %,d frames, %,d instructions in %.1f ms, %d hashes match, final hash %016x%n",
+				log.getName(), scheduler.getFrames(), scheduler.getInstructions(), elapsed / 1e6, checkpoints,
+				frameBuffer.hash());
+		return true;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Replay replay = new Replay();
+		List<String> files = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-c":
+				replay.compile = true;
+				break;
+			case "-d":
+				replay.decodeCache = true;
+				break;
+			default:
+				files.add(args[i]);
+				break;
+			}
+		}
+
+		if (files.size() != 2) {
+			System.err.println("Usage: Replay [-c] [-d] rom log");
+			System.exit(2);
+		}
+
+		if (!replay.run(new File(files.get(0)), new File(files.get(1)))) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * History of machine states, one per frame, to step back through.
+ * 
+ * Every state is taken as a {@link SaveState} snapshot. Every
+ * keyframe interval frames the whole snapshot is kept, in between only the
+ * {@link DeltaCodec} delta to the frame before it, which for most games is a
+ * few dozen bytes. Everything lives in one array allocated up front and used
+ * as a ring, when it is full the oldest keyframe is dropped together with the
+ * deltas that depend on it. Recording and stepping back allocate nothing.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name RewindBuffer.java
+ */
+public class RewindBuffer {
+
+	public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+	public static final int DEFAULT_MAX_FRAMES = 10 * 60 * Scheduler.FRAME_RATE;
+	public static final int DEFAULT_KEYFRAME_INTERVAL = Scheduler.FRAME_RATE;
+
+	private final byte[] data;
+	private final int keyframeInterval;
+	private int writeOffset; // Where the next entry goes in data.
+	private long bytesUsed;
+
+	// Ring of entries, the oldest at first.
+	private final int[] offsets;
+	private final int[] lengths;
+	private final boolean[] keyframes;
+	private int first;
+	private int count;
+	private int deltas; // Deltas recorded since the newest keyframe.
+
+	// State of the newest entry and scratch space for the next one.
+	private byte[] last = new byte[SaveState.MAX_SIZE];
+	private byte[] snapshot = new byte[SaveState.MAX_SIZE];
+	private ByteBuffer lastBuffer = ByteBuffer.wrap(last);
+	private ByteBuffer snapshotBuffer = ByteBuffer.wrap(snapshot);
+	private int lastSize; // Size of the newest snapshot, which depends on the mode.
+	private final byte[] delta = new byte[DeltaCodec.maxEncodedLength(SaveState.MAX_SIZE)];
+
+	/**
+	 * Creates a rewind buffer with room for ten minutes, as far as 16 MB allows.
+	 */
+	public RewindBuffer() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_FRAMES, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Creates a rewind buffer.
+	 * 
+	 * @param capacity - Bytes to keep snapshots and deltas in.
+	 * @param maxFrames - Most frames to remember.
+	 * @param keyframeInterval - Frames from one full snapshot to the next.
+	 * @throws IllegalArgumentException If capacity can't hold two full snapshots.
+	 */
+	public RewindBuffer(int capacity, int maxFrames, int keyframeInterval) {
+		if (capacity < 2 * SaveState.MAX_SIZE + delta.length) {
+			throw new IllegalArgumentException("Rewind capacity too small: " + capacity);
+		}
+		if (maxFrames < 2 || keyframeInterval < 1) {
+			throw new IllegalArgumentException("Invalid rewind length");
+		}
+
+		this.data = new byte[capacity];
+		this.offsets = new int[maxFrames];
+		this.lengths = new int[maxFrames];
+		this.keyframes = new boolean[maxFrames];
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * Records the state of the machine as the newest frame.
+	 * 
+	 * @param memory - The machine.
+	 * @param frameBuffer - The frame buffer it draws into.
+	 */
+	public void record(Memory memory, FrameBuffer frameBuffer) {
+		int size = SaveState.write(memory, frameBuffer, snapshotBuffer);
+
+		// A machine switched to another mode has nothing to take a delta against.
+		boolean keyframe = count == 0 || deltas >= keyframeInterval - 1 || size != lastSize;
+		if (!keyframe) {
+			int n = DeltaCodec.encode(last, snapshot, size, delta, 0);
+			int offset = reserve(n);
+			if (count > 0) {
+				System.arraycopy(delta, 0, data, offset, n);
+				add(offset, n, false);
+				deltas++;
+			} else {
+				// Making room dropped the keyframe this delta is based on.
+				keyframe = true;
+			}
+		}
+		if (keyframe) {
+			int offset = reserve(size);
+			System.arraycopy(snapshot, 0, data, offset, size);
+			add(offset, size, true);
+			deltas = 0;
+		}
+		lastSize = size;
+
+		byte[] b = last;
+		last = snapshot;
+		snapshot = b;
+		ByteBuffer bb = lastBuffer;
+		lastBuffer = snapshotBuffer;
+		snapshotBuffer = bb;
+	}
+
+	/**
+	 * Drops the newest frame and restores the machine to the one before it.
+	 * 
+	 * @param memory - The machine to restore.
+	 * @param frameBuffer - The frame buffer to restore.
+	 * @return False if there is no earlier frame, nothing is changed then.
+	 */
+	public boolean rewind(Memory memory, FrameBuffer frameBuffer) {
+		if (count < 2) {
+			return false;
+		}
+
+		int newest = index(count - 1);
+		count--;
+		bytesUsed -= lengths[newest];
+		writeOffset = offsets[newest];
+
+		if (keyframes[newest]) {
+			// Nothing leads back from a keyframe, replay the group before it instead.
+			int k = count - 1;
+			while (!keyframes[index(k)]) {
+				k--;
+			}
+			int key = index(k);
+			System.arraycopy(data, offsets[key], last, 0, lengths[key]);
+			for (int i = k + 1; i < count; i++) {
+				int e = index(i);
+				DeltaCodec.apply(data, offsets[e], lengths[e], last);
+			}
+			deltas = count - 1 - k;
+		} else {
+			DeltaCodec.apply(data, offsets[newest], lengths[newest], last);
+			deltas--;
+		}
+
+		SaveState.read(memory, frameBuffer, lastBuffer);
+		return true;
+	}
+
+	/**
+	 * Forgets every recorded frame.
+	 */
+	public void clear() {
+		first = 0;
+		count = 0;
+		deltas = 0;
+		writeOffset = 0;
+		bytesUsed = 0;
+	}
+
+	/**
+	 * Finds room for an entry, dropping the oldest frames that are in the way.
+	 * 
+	 * @param length - Size of the entry.
+	 * @return Offset in data to write the entry at.
+	 */
+	private int reserve(int length) {
+		if (count == 0) {
+			writeOffset = 0;
+		}
+
+		if (writeOffset + length > data.length) {
+			// Wrap around, whatever is still stored past this point is older than
+			// anything at the start.
+			int end = writeOffset;
+			writeOffset = 0;
+			while (count > 0 && offsets[first] >= end) {
+				dropOldest();
+			}
+		}
+
+		while (count > 0 && (count == offsets.length || overlaps(first, writeOffset, length))) {
+			dropOldest();
+		}
+		if (count == 0) {
+			writeOffset = 0;
+		}
+
+		int offset = writeOffset;
+		writeOffset += length;
+		return offset;
+	}
+
+	private boolean overlaps(int entry, int offset, int length) {
+		int o = offsets[entry];
+		return o >= offset ? o < offset + length : o + lengths[entry] > offset;
+	}
+
+	/**
+	 * Drops the oldest keyframe along with the deltas depending on it.
+	 */
+	private void dropOldest() {
+		do {
+			bytesUsed -= lengths[first];
+			first = (first + 1) % offsets.length;
+			count--;
+		} while (count > 0 && !keyframes[first]);
+	}
+
+	private void add(int offset, int length, boolean keyframe) {
+		int e = index(count);
+		offsets[e] = offset;
+		lengths[e] = length;
+		keyframes[e] = keyframe;
+		count++;
+		bytesUsed += length;
+	}
+
+	private int index(int i) {
+		return (first + i) % offsets.length;
+	}
+
+	/**
+	 * Gets the number of frames that can be stepped back through.
+	 * 
+	 * @return Recorded frames, counting the newest one.
+	 */
+	public int getFrames() {
+		return this.count;
+	}
+
+	/**
+	 * Gets the number of bytes the recorded frames take up.
+	 * 
+	 * @return Bytes in use, out of {@link #getCapacity()}.
+	 */
+	public long getBytesUsed() {
+		return this.bytesUsed;
+	}
+
+	/**
+	 * Gets the number of bytes set aside for recorded frames.
+	 * 
+	 * @return Capacity in bytes.
+	 */
+	public int getCapacity() {
+		return this.data.length;
+	}
+
+	/**
+	 * Gets how much memory a minute of history takes up, averaged over the
+	 * frames recorded so far.
+	 * 
+	 * @return Bytes per minute of emulated time.
+	 */
+	public long getBytesPerMinute() {
+		return count == 0 ? 0 : bytesUsed * 60 * Scheduler.FRAME_RATE / count;
+	}
+}
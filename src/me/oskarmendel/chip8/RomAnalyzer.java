@@ -0,0 +1,783 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Static analysis of a program before it runs. The code is found by recursive
+ * descent from 0x200, following jumps, calls and skips, and cut into basic
+ * blocks that form a control flow graph. Bytes that ANNN points I at for
+ * DXYN are sprites, bytes read or written through FX33, FX55 and FX65 are
+ * data, I being followed from block to block, subroutines are the targets of calls and loops are found as back
+ * edges of the graph.
+ * 
+ * The analysis follows the instructions of the {@link Mode} the program runs
+ * in, 00FD ends the program and in XO-CHIP F000 NNNN is four bytes long and
+ * skipped over as a whole.
+ * 
+ * Engines use the result to decode code before the first frame, see
+ * {@link Memory#prewarm(RomAnalyzer)}. Code only reached through BNNN or
+ * written at run time isn't found, the engines handle that as they always do.
+ * 
+ * Usage: RomAnalyzer [-dot] [rom or directory ...]
+ * 
+ * Prints the listing and the control flow graph of every ROM, as text or with
+ * -dot as a Graphviz graph.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name RomAnalyzer.java
+ */
+public class RomAnalyzer {
+
+	public static final int START = 0x200;
+
+	// What the analysis found at an address, more than one may apply.
+	private static final int INSTRUCTION = 1; // First byte of an instruction.
+	private static final int OPERAND = 2; // Second byte of an instruction.
+	private static final int SPRITE = 4; // Drawn by DXYN.
+	private static final int DATA = 8; // Read or written through I.
+	private static final int INVALID = 16; // Reached as code but not a valid opcode.
+
+	private final Mode mode;
+	private final int size; // Memory size of the mode.
+	private final int[] memory;
+	private final int end; // First address past the program.
+	private final byte[] kinds;
+	private final boolean[] leaders;
+	private final boolean[] subroutines;
+	private final boolean[] jumpTargets;
+	private final boolean[] pointers; // Addresses I is set to before being used.
+	private final Block[] blockAt;
+	private final List<Block> blocks = new ArrayList<>();
+	private final List<int[]> loops = new ArrayList<>(); // Header and the address of the jump back.
+	private boolean indirect; // The program has BNNN jumps the analysis can't follow.
+
+	/**
+	 * A basic block, straight line code entered only at the top and left only
+	 * at the bottom.
+	 */
+	public static final class Block {
+		private final int start;
+		private final int end;
+		private final int[] successors;
+		private boolean loopHeader;
+
+		private Block(int start, int end, int[] successors) {
+			this.start = start;
+			this.end = end;
+			this.successors = successors;
+		}
+
+		/**
+		 * @return Address of the first instruction.
+		 */
+		public int getStart() {
+			return this.start;
+		}
+
+		/**
+		 * @return Address right after the last instruction.
+		 */
+		public int getEnd() {
+			return this.end;
+		}
+
+		/**
+		 * @return Addresses of the blocks control may continue at, a call continues
+		 *         after itself, returns and BNNN have none.
+		 */
+		public int[] getSuccessors() {
+			return this.successors.clone();
+		}
+
+		/**
+		 * @return True if a loop jumps back to this block.
+		 */
+		public boolean isLoopHeader() {
+			return this.loopHeader;
+		}
+	}
+
+	private RomAnalyzer(byte[] program, Mode mode) {
+		this.mode = mode;
+		size = mode.getMemorySize();
+		memory = new int[size];
+		kinds = new byte[size];
+		leaders = new boolean[size];
+		subroutines = new boolean[size];
+		jumpTargets = new boolean[size];
+		pointers = new boolean[size];
+		blockAt = new Block[size];
+		end = Math.min(size, START + program.length);
+		for (int i = 0; START + i < end; i++) {
+			memory[START + i] = program[i] & 0xFF;
+		}
+
+		findCode();
+		findBlocks();
+		findData();
+		findLoops();
+	}
+
+	/**
+	 * Analyzes a CHIP-8 program.
+	 * 
+	 * @param program - The program as loaded at 0x200.
+	 * @return The analysis.
+	 */
+	public static RomAnalyzer analyze(byte[] program) {
+		return analyze(program, Mode.CHIP8);
+	}
+
+	/**
+	 * Analyzes a program.
+	 * 
+	 * @param program - The program as loaded at 0x200.
+	 * @param mode - The mode the program runs in.
+	 * @return The analysis.
+	 */
+	public static RomAnalyzer analyze(byte[] program, Mode mode) {
+		return new RomAnalyzer(program, mode);
+	}
+
+	/**
+	 * Getter for the mode the program was analyzed for.
+	 * 
+	 * @return The mode.
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	private int opcode(int address) {
+		return memory[address] << 8 | memory[address + 1];
+	}
+
+	private boolean inProgram(int address) {
+		return address >= START && address + 1 < end;
+	}
+
+	/**
+	 * Gets the length of the instruction at target address, F000 NNNN is the
+	 * only one longer than two bytes.
+	 */
+	private int length(int address) {
+		return mode == Mode.XOCHIP && inProgram(address) && opcode(address) == 0xF000 ? 4 : 2;
+	}
+
+	/**
+	 * Gets the address of the last instruction of a block.
+	 */
+	private int last(Block block) {
+		int address = block.start;
+		while (address + length(address) < block.end) {
+			address += length(address);
+		}
+		return address;
+	}
+
+	/**
+	 * Checks if an instruction skips the next one, 5XY2 and 5XY3 are only
+	 * something else in XO-CHIP.
+	 */
+	private boolean isSkip(int opcode) {
+		switch (Disassembler.pattern(opcode)) {
+		case "3XNN":
+		case "4XNN":
+		case "5XY0":
+		case "9XY0":
+		case "EX9E":
+		case "EXA1":
+			return true;
+		case "5XY2":
+		case "5XY3":
+			return mode != Mode.XOCHIP;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Follows every path from 0x200 marking the instructions on it and the
+	 * addresses where blocks start.
+	 */
+	private void findCode() {
+		Deque<Integer> work = new ArrayDeque<>();
+		work.push(START);
+		leaders[START] = true;
+
+		while (!work.isEmpty()) {
+			int address = work.pop();
+			while (inProgram(address) && (kinds[address] & (INSTRUCTION | INVALID)) == 0) {
+				int opcode = opcode(address);
+				if (!Instructions.isValid(opcode, mode)) {
+					kinds[address] |= INVALID;
+					break;
+				}
+				int length = length(address);
+				for (int a = address + 1; a < address + length && a < end; a++) {
+					kinds[a] |= OPERAND;
+				}
+				kinds[address] |= INSTRUCTION;
+
+				int next = address + length;
+				int target = Disassembler.target(opcode);
+				if (isSkip(opcode)) {
+					branch(work, next);
+					branch(work, next + length(next));
+					break;
+				}
+				switch (Disassembler.pattern(opcode)) {
+				case "1NNN":
+					jumpTargets[target] = true;
+					branch(work, target);
+					next = -1;
+					break;
+				case "2NNN":
+					subroutines[target] = true;
+					branch(work, target);
+					branch(work, next);
+					next = -1;
+					break;
+				case "00EE":
+				case "00FD":
+					next = -1;
+					break;
+				case "BNNN":
+					indirect = true;
+					next = -1;
+					break;
+				}
+				if (next < 0) {
+					break;
+				}
+				address = next;
+			}
+		}
+	}
+
+	private void branch(Deque<Integer> work, int target) {
+		if (target < size) {
+			leaders[target] = true;
+			work.push(target);
+		}
+	}
+
+	/**
+	 * Cuts the instructions into blocks, every block runs from a leader up to
+	 * the next control transfer or leader.
+	 */
+	private void findBlocks() {
+		for (int start = START; start < end; start++) {
+			if (!leaders[start] || (kinds[start] & INSTRUCTION) == 0) {
+				continue;
+			}
+
+			int address = start;
+			int[] successors = null;
+			while (successors == null) {
+				int opcode = opcode(address);
+				int next = address + length(address);
+				if (isSkip(opcode)) {
+					successors = new int[] { next, next + length(next) };
+					address = next;
+					break;
+				}
+				switch (Disassembler.pattern(opcode)) {
+				case "1NNN":
+					successors = new int[] { Disassembler.target(opcode) };
+					break;
+				case "2NNN":
+					successors = new int[] { next };
+					break;
+				case "00EE":
+				case "00FD":
+				case "BNNN":
+					successors = new int[0];
+					break;
+				default:
+					boolean code = inProgram(next) && isInstruction(next);
+					if (!code || leaders[next]) {
+						// Falls through into the next block, or runs off the code into data.
+						successors = code ? new int[] { next } : new int[0];
+					}
+					break;
+				}
+				address = next;
+			}
+
+			Block block = new Block(start, address, successors);
+			blocks.add(block);
+			blockAt[start] = block;
+		}
+	}
+
+	/**
+	 * Follows I through the graph to find the bytes it is used on. Every block
+	 * gets the set of values I may have when it is entered, from ANNN in the
+	 * blocks leading to it, until nothing changes any more. A called
+	 * subroutine may change I, so it isn't known after a call.
+	 */
+	private void findData() {
+		int words = size / 64;
+		long[][] entry = new long[size][]; // Possible values of I per block start, null until reached.
+		boolean[] unknown = new boolean[size]; // Set when I may also be something else.
+		Deque<Integer> work = new ArrayDeque<>();
+		for (Block block : blocks) {
+			if (block.start == START || subroutines[block.start]) {
+				entry[block.start] = new long[words];
+				unknown[block.start] = true;
+				work.push(block.start);
+			}
+		}
+
+		long[] index = new long[words];
+		while (!work.isEmpty()) {
+			Block block = blockAt[work.pop()];
+			System.arraycopy(entry[block.start], 0, index, 0, words);
+			boolean known = !unknown[block.start];
+			for (int address = block.start; address < block.end; address += length(address)) {
+				known = use(address, index, known);
+			}
+
+			int last = opcode(last(block));
+			if ((last & 0xF000) == 0x2000) {
+				flow(entry, unknown, work, last & 0x0FFF, index, known);
+				known = false;
+				Arrays.fill(index, 0);
+			}
+			for (int next : block.successors) {
+				flow(entry, unknown, work, next, index, known);
+			}
+		}
+	}
+
+	/**
+	 * Merges the values of I at the end of a block into those at the start of
+	 * a block it leads to, queueing that block again if they grew.
+	 */
+	private void flow(long[][] entry, boolean[] unknown, Deque<Integer> work, int target, long[] index,
+			boolean known) {
+		if (target >= size || blockAt[target] == null) {
+			return;
+		}
+		boolean changed = false;
+		if (entry[target] == null) {
+			entry[target] = new long[index.length];
+			changed = true;
+		}
+		for (int i = 0; i < index.length; i++) {
+			changed |= (entry[target][i] | index[i]) != entry[target][i];
+			entry[target][i] |= index[i];
+		}
+		if (!known && !unknown[target]) {
+			unknown[target] = true;
+			changed = true;
+		}
+		if (changed) {
+			work.push(target);
+		}
+	}
+
+	/**
+	 * Marks what an instruction uses I for and updates the values I may have.
+	 * 
+	 * @return False if I may have values that aren't in the set afterwards.
+	 */
+	private boolean use(int address, long[] index, boolean known) {
+		int opcode = opcode(address);
+		int x = (opcode & 0x0F00) >>> 8;
+		int y = (opcode & 0x00F0) >>> 4;
+		switch (Disassembler.pattern(opcode)) {
+		case "ANNN":
+			Arrays.fill(index, 0);
+			index[(opcode & 0x0FFF) >>> 6] = 1L << (opcode & 0x0FFF);
+			return true;
+		case "F000":
+			if (mode != Mode.XOCHIP || !inProgram(address + 2)) {
+				return known;
+			}
+			int nnnn = opcode(address + 2);
+			Arrays.fill(index, 0);
+			index[nnnn >>> 6] = 1L << nnnn;
+			return true;
+		case "DXYN":
+			// DXY0 draws a 16x16 sprite outside CHIP-8.
+			mark(index, (opcode & 0x000F) == 0 && mode.isExtended() ? 32 : opcode & 0x000F, SPRITE);
+			return known;
+		case "5XY2":
+		case "5XY3":
+			if (mode == Mode.XOCHIP) {
+				mark(index, Math.abs(x - y) + 1, DATA);
+			}
+			return known;
+		case "F002":
+			mark(index, 16, DATA);
+			return known;
+		case "FX33":
+			mark(index, 3, DATA);
+			return known;
+		case "FX55":
+		case "FX65":
+			mark(index, x + 1, DATA);
+			return known;
+		case "FX1E":
+			// Indexing into a table at I, at least its first byte is data.
+			mark(index, 1, DATA);
+			Arrays.fill(index, 0);
+			return false;
+		case "FX29":
+		case "FX30":
+			Arrays.fill(index, 0);
+			return false;
+		default:
+			return known;
+		}
+	}
+
+	private void mark(long[] index, int length, int kind) {
+		for (int i = 0; i < index.length; i++) {
+			for (long bits = index[i]; bits != 0; bits &= bits - 1) {
+				int start = i * 64 + Long.numberOfTrailingZeros(bits);
+				if (length > 0) {
+					pointers[start] = true;
+				}
+				for (int a = start; a < start + length && a < size; a++) {
+					kinds[a] |= kind;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the targets of back edges as loop headers, walking the graph depth
+	 * first from 0x200 and every subroutine.
+	 */
+	private void findLoops() {
+		byte[] state = new byte[size]; // 0 unseen, 1 on the path, 2 done.
+		List<Integer> roots = new ArrayList<>();
+		roots.add(START);
+		for (int a = 0; a < size; a++) {
+			if (subroutines[a]) {
+				roots.add(a);
+			}
+		}
+
+		for (int root : roots) {
+			if (blockAt[root] == null || state[root] != 0) {
+				continue;
+			}
+			// Iterative depth first search, every frame is a block and the next successor to visit.
+			Deque<int[]> path = new ArrayDeque<>();
+			path.push(new int[] { root, 0 });
+			state[root] = 1;
+			while (!path.isEmpty()) {
+				int[] frame = path.peek();
+				Block block = blockAt[frame[0]];
+				if (frame[1] == block.successors.length) {
+					state[block.start] = 2;
+					path.pop();
+					continue;
+				}
+				int next = block.successors[frame[1]++];
+				if (next >= size || blockAt[next] == null) {
+					continue;
+				}
+				if (state[next] == 1) {
+					blockAt[next].loopHeader = true;
+					loops.add(new int[] { next, last(block) });
+				} else if (state[next] == 0) {
+					state[next] = 1;
+					path.push(new int[] { next, 0 });
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if an instruction starts at target address.
+	 * 
+	 * @param address - The address.
+	 * @return True if the analysis reached an instruction there.
+	 */
+	public boolean isInstruction(int address) {
+		return (kinds[address] & INSTRUCTION) != 0;
+	}
+
+	/**
+	 * Checks if target address is part of a sprite.
+	 * 
+	 * @param address - The address.
+	 * @return True if DXYN draws the byte.
+	 */
+	public boolean isSprite(int address) {
+		return (kinds[address] & SPRITE) != 0;
+	}
+
+	/**
+	 * Checks if target address holds data.
+	 * 
+	 * @param address - The address.
+	 * @return True if the byte is drawn or used through I.
+	 */
+	public boolean isData(int address) {
+		return (kinds[address] & (SPRITE | DATA)) != 0;
+	}
+
+	/**
+	 * Checks if a subroutine starts at target address.
+	 * 
+	 * @param address - The address.
+	 * @return True if the program calls the address.
+	 */
+	public boolean isSubroutine(int address) {
+		return subroutines[address];
+	}
+
+	/**
+	 * Gets the basic blocks in order of address.
+	 * 
+	 * @return The blocks.
+	 */
+	public List<Block> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/**
+	 * Gets the block starting at target address.
+	 * 
+	 * @param address - The address.
+	 * @return The block or null if none starts there.
+	 */
+	public Block getBlock(int address) {
+		return blockAt[address];
+	}
+
+	/**
+	 * Getter for the number of loops.
+	 * 
+	 * @return Number of back edges in the graph.
+	 */
+	public int getLoops() {
+		return loops.size();
+	}
+
+	/**
+	 * Checks if the program jumps through BNNN, in which case some of its
+	 * code may not have been found.
+	 * 
+	 * @return True if there are BNNN jumps.
+	 */
+	public boolean hasIndirectJumps() {
+		return this.indirect;
+	}
+
+	/**
+	 * Names the addresses the analysis found a use for.
+	 * 
+	 * @return Symbol per address, null where there is none.
+	 */
+	public String[] symbols() {
+		String[] symbols = new String[size];
+		for (int a = 0; a < size; a++) {
+			if (subroutines[a]) {
+				symbols[a] = String.format("sub_%03X", a);
+			} else if (jumpTargets[a] || blockAt[a] != null && blockAt[a].loopHeader) {
+				symbols[a] = String.format("loc_%03X", a);
+			} else if ((kinds[a] & SPRITE) != 0 && (pointers[a] || a == 0 || (kinds[a - 1] & SPRITE) == 0)) {
+				symbols[a] = String.format("sprite_%03X", a);
+			} else if ((kinds[a] & DATA) != 0 && (pointers[a] || a == 0 || (kinds[a - 1] & DATA) == 0)) {
+				symbols[a] = String.format("data_%03X", a);
+			}
+		}
+		return symbols;
+	}
+
+	/**
+	 * Prints the program as assembly, code as instructions and everything else
+	 * as bytes, sprites drawn out next to them.
+	 * 
+	 * @param out - Where to print to.
+	 */
+	public void printListing(PrintStream out) {
+		String[] symbols = symbols();
+		int address = START;
+		while (address < end) {
+			if (symbols[address] != null) {
+				out.println(symbols[address] + ":");
+			}
+
+			if (isInstruction(address) && address + 1 < end) {
+				int opcode = opcode(address);
+				int length = length(address);
+				String line = String.format("    %03X  %04X    %s", address, opcode,
+						Disassembler.disassemble(opcode, symbols));
+				if (length == 4) {
+					int nnnn = opcode(address + 2);
+					line = String.format("    %03X  %04X    LD I, %s", address, opcode,
+							symbols[nnnn] != null ? symbols[nnnn] : String.format("0x%04X", nnnn));
+				}
+				if (blockAt[address] != null && blockAt[address].loopHeader) {
+					line = String.format("%-40s; loop", line);
+				}
+				out.println(line);
+				address += length;
+				continue;
+			}
+
+			int b = memory[address];
+			String line = String.format("    %03X  %02X      DB 0x%02X", address, b, b);
+			if (isSprite(address)) {
+				line = String.format("%-40s; %s", line,
+						Integer.toBinaryString(0x100 | b).substring(1).replace('0', '.').replace('1', '#'));
+			} else if (isData(address)) {
+				line = String.format("%-40s; data", line);
+			} else if ((kinds[address] & INVALID) != 0) {
+				line = String.format("%-40s; invalid instruction", line);
+			}
+			out.println(line);
+			address++;
+		}
+	}
+
+	/**
+	 * Prints the control flow graph, a line per block with the blocks it may
+	 * continue at.
+	 * 
+	 * @param out - Where to print to.
+	 */
+	public void printGraph(PrintStream out) {
+		String[] symbols = symbols();
+		for (Block block : blocks) {
+			StringBuilder line = new StringBuilder();
+			line.append(String.format("%03X-%03X %-12s ->", block.start, last(block),
+					symbols[block.start] != null ? symbols[block.start] : ""));
+			for (int s : block.successors) {
+				line.append(String.format(" %03X", s));
+			}
+			if (block.loopHeader) {
+				line.append("  [loop header]");
+			}
+			if (block.successors.length == 0 && block.end >= 2 && opcode(last(block)) == 0x00EE) {
+				line.append("  [return]");
+			}
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Prints the control flow graph for Graphviz, calls are drawn dashed.
+	 * 
+	 * @param out - Where to print to.
+	 * @param name - Name of the graph.
+	 */
+	public void printDot(PrintStream out, String name) {
+		out.printf("digraph \"%s\" {%n", name);
+		out.println("    node [shape=box, fontname=monospace];");
+		for (Block block : blocks) {
+			StringBuilder label = new StringBuilder();
+			for (int a = block.start; a < block.end; a += length(a)) {
+				label.append(String.format("%03X  %s\\l", a, Disassembler.disassemble(opcode(a))));
+			}
+			out.printf("    b%03X [label=\"%s\"%s];%n", block.start, label, block.loopHeader ? ", style=bold" : "");
+			for (int s : block.successors) {
+				out.printf("    b%03X -> b%03X;%n", block.start, s);
+			}
+			int last = opcode(last(block));
+			if ((last & 0xF000) == 0x2000) {
+				out.printf("    b%03X -> b%03X [style=dashed];%n", block.start, last & 0x0FFF);
+			}
+		}
+		out.println("}");
+	}
+
+	/**
+	 * Prints a line of totals.
+	 * 
+	 * @param out - Where to print to.
+	 * @param name - Name of the program.
+	 */
+	public void printSummary(PrintStream out, String name) {
+		int code = 0;
+		int sprites = 0;
+		int data = 0;
+		int subroutineCount = 0;
+		for (int a = START; a < end; a++) {
+			if ((kinds[a] & (INSTRUCTION | OPERAND)) != 0) {
+				code++;
+			}
+			if (isSprite(a)) {
+				sprites++;
+			} else if (isData(a)) {
+				data++;
+			}
+			if (subroutines[a]) {
+				subroutineCount++;
+			}
+		}
+		out.printf("%-10s %5d bytes: %5d code, %4d sprite, %4d data, %4d blocks, %3d subroutines, %3d loops%s%n", name,
+				end - START, code, sprites, data, blocks.size(), subroutineCount, loops.size(),
+				indirect ? ", indirect jumps" : "");
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean dot = false;
+		List<String> paths = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals("-dot")) {
+				dot = true;
+			} else {
+				paths.add(arg);
+			}
+		}
+		if (paths.isEmpty()) {
+			paths.add("roms");
+		}
+
+		for (File rom : Headless.collectRoms(paths)) {
+			RomAnalyzer analysis = analyze(Files.readAllBytes(rom.toPath()), RomLibrary.modeOf(rom));
+			if (dot) {
+				analysis.printDot(System.out, rom.getName());
+				continue;
+			}
+			analysis.printSummary(System.out, rom.getName());
+			System.out.println();
+			analysis.printListing(System.out);
+			System.out.println();
+			analysis.printGraph(System.out);
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,401 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Library of the ROMs in a directory, indexed by content hash and size so the
+ * same program under two names is one entry in the cache. Programs that were
+ * loaded stay in memory together with their {@link RomAnalyzer} analysis, up
+ * to a fixed number of them with the least recently used one going first, so
+ * going back to a ROM doesn't touch the disk.
+ * 
+ * Every ROM runs in the {@link Mode} its file extension asks for, unless it
+ * was set to another one, which is kept in {@link #MODES_FILE} in the
+ * directory as lines of <code>name=mode</code>.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name RomLibrary.java
+ */
+public class RomLibrary {
+
+	public static final int DEFAULT_CAPACITY = 16;
+	public static final String MODES_FILE = "modes.properties";
+	private static final long MAX_SIZE = Mode.XOCHIP.getMaxProgramSize(); // Largest program that fits in any memory.
+
+	private final File directory;
+	private final int capacity;
+	private final Properties modes = new Properties(); // ROM file name to mode, where it isn't the default.
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final Map<String, Entry> index = new HashMap<>(); // Content key to the first entry with it.
+	private final LinkedHashMap<String, Image> cache;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * A ROM file in the library.
+	 */
+	public static final class Entry {
+		private final File file;
+		private final long size;
+		private final long hash;
+		private Mode mode;
+
+		private Entry(File file, long size, long hash, Mode mode) {
+			this.file = file;
+			this.size = size;
+			this.hash = hash;
+			this.mode = mode;
+		}
+
+		public File getFile() {
+			return this.file;
+		}
+
+		public String getName() {
+			return this.file.getName();
+		}
+
+		public long getSize() {
+			return this.size;
+		}
+
+		public long getHash() {
+			return this.hash;
+		}
+
+		/**
+		 * @return The mode the ROM runs in.
+		 */
+		public Mode getMode() {
+			return this.mode;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-16s %5d bytes  %016x  %s", getName(), size, hash, mode);
+		}
+	}
+
+	/**
+	 * A loaded program ready to be copied into a machine.
+	 */
+	public static final class Image {
+		private final Entry entry;
+		private final byte[] program;
+		private final Mode mode;
+		private final RomAnalyzer analysis;
+
+		private Image(Entry entry, byte[] program, Mode mode) {
+			this.entry = entry;
+			this.program = program;
+			this.mode = mode;
+			this.analysis = RomAnalyzer.analyze(program, mode);
+		}
+
+		public Entry getEntry() {
+			return this.entry;
+		}
+
+		/**
+		 * @return The program, shared with every user of the image so not to be changed.
+		 */
+		public byte[] getProgram() {
+			return this.program;
+		}
+
+		/**
+		 * @return The mode to run the program in, the analysis was made for it.
+		 */
+		public Mode getMode() {
+			return this.mode;
+		}
+
+		public RomAnalyzer getAnalysis() {
+			return this.analysis;
+		}
+	}
+
+	/**
+	 * Creates a library, call {@link #scan()} to index the directory.
+	 * 
+	 * @param directory - Directory the ROMs are in.
+	 * @param capacity - Most programs kept loaded.
+	 */
+	public RomLibrary(File directory, int capacity) {
+		this.directory = directory;
+		this.capacity = capacity;
+		this.cache = new LinkedHashMap<String, Image>(capacity * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+				return size() > RomLibrary.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Hashes a program, FNV-1a over its bytes.
+	 * 
+	 * @param program - The program.
+	 * @return The 64 bit hash.
+	 */
+	public static long hash(byte[] program) {
+		long h = 0xCBF29CE484222325L;
+		for (byte b : program) {
+			h = (h ^ (b & 0xFF)) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	private static String key(long hash, long size) {
+		return Long.toHexString(hash) + ":" + size;
+	}
+
+	// The analysis depends on the mode, so the same program in two modes is cached twice.
+	private static String key(long hash, long size, Mode mode) {
+		return key(hash, size) + ":" + mode.name();
+	}
+
+	/**
+	 * Finds the mode a ROM file runs in, as set in {@link #MODES_FILE} next to
+	 * it or from its extension, see {@link Mode#forFile(String)}. This is for
+	 * tools that run single files, a library keeps the modes of its directory
+	 * loaded.
+	 * 
+	 * @param rom - The ROM file.
+	 * @return The mode.
+	 * @throws IOException If there is a modes file that could not be read.
+	 */
+	public static Mode modeOf(File rom) throws IOException {
+		File directory = rom.getAbsoluteFile().getParentFile();
+		String mode = directory != null ? readModes(directory).getProperty(rom.getName()) : null;
+		return mode != null ? Mode.parse(mode) : Mode.forFile(rom.getName());
+	}
+
+	private static Properties readModes(File directory) throws IOException {
+		Properties modes = new Properties();
+		File file = new File(directory, MODES_FILE);
+		if (file.isFile()) {
+			try (Reader in = new FileReader(file)) {
+				modes.load(in);
+			}
+		}
+		return modes;
+	}
+
+	/**
+	 * Finds the mode a ROM file runs in.
+	 * 
+	 * @param file - The ROM file.
+	 * @return The mode set for it if it is in the directory, otherwise the one
+	 *         its extension asks for.
+	 */
+	private Mode modeFor(File file) {
+		boolean inDirectory = directory.getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile());
+		String mode = inDirectory ? modes.getProperty(file.getName()) : null;
+		return mode != null ? Mode.parse(mode) : Mode.forFile(file.getName());
+	}
+
+	/**
+	 * Sets the mode a ROM runs in from now on and writes it to
+	 * {@link #MODES_FILE}. Going back to the mode its extension asks for
+	 * removes the line.
+	 * 
+	 * @param entry - The ROM.
+	 * @param mode - The mode to run it in.
+	 * @throws IOException If the modes file could not be written.
+	 */
+	public synchronized void setMode(Entry entry, Mode mode) throws IOException {
+		if (mode == Mode.forFile(entry.getName())) {
+			modes.remove(entry.getName());
+		} else {
+			modes.setProperty(entry.getName(), mode.name().toLowerCase());
+		}
+		entry.mode = mode;
+
+		try (Writer out = new FileWriter(new File(directory, MODES_FILE))) {
+			modes.store(out, "Modes of the ROMs that don't run in the one their extension asks for");
+		}
+	}
+
+	/**
+	 * Indexes every file in the directory again, reading each one to hash it.
+	 * Loaded programs stay in the cache, they are found by their content.
+	 * 
+	 * @return The entries sorted by name.
+	 * @throws IOException If the directory could not be read.
+	 */
+	public synchronized List<Entry> scan() throws IOException {
+		File[] files = directory.listFiles(File::isFile);
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+
+		entries.clear();
+		index.clear();
+		modes.clear();
+		modes.putAll(readModes(directory));
+		for (File file : Headless.collectRoms(Collections.singletonList(directory.getPath()))) {
+			if (file.length() == 0 || file.length() > MAX_SIZE) {
+				continue;
+			}
+			add(file, Files.readAllBytes(file.toPath()));
+		}
+		return getEntries();
+	}
+
+	private Entry add(File file, byte[] program) {
+		Entry entry = new Entry(file, program.length, hash(program), modeFor(file));
+		// A file that changed since it was indexed is indexed again.
+		entries.removeIf(e -> e.file.equals(file));
+		entries.add(entry);
+		index.putIfAbsent(key(entry.hash, entry.size), entry);
+		return entry;
+	}
+
+	/**
+	 * Gets the indexed ROMs.
+	 * 
+	 * @return The entries in the order they were indexed.
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(entries);
+	}
+
+	/**
+	 * Looks up a ROM by its content.
+	 * 
+	 * @param hash - Hash of the program as from {@link #hash(byte[])}.
+	 * @param size - Size of the program in bytes.
+	 * @return The first entry with that content or null if there is none.
+	 */
+	public synchronized Entry find(long hash, long size) {
+		return index.get(key(hash, size));
+	}
+
+	/**
+	 * Loads an indexed ROM, from the cache if it is there and from disk
+	 * otherwise.
+	 * 
+	 * @param entry - The ROM.
+	 * @return The loaded program.
+	 * @throws IOException If the file could not be read.
+	 */
+	public synchronized Image load(Entry entry) throws IOException {
+		Image image = cache.get(key(entry.hash, entry.size, entry.mode));
+		if (image != null) {
+			hits++;
+			return image;
+		}
+		return load(entry.file);
+	}
+
+	/**
+	 * Loads a ROM file, in the library or not. The file is always read, but
+	 * if its content is already loaded in the same mode that image is used.
+	 * 
+	 * @param file - The ROM file.
+	 * @return The loaded program.
+	 * @throws IOException If the file could not be read or is too large for its mode.
+	 */
+	public synchronized Image load(File file) throws IOException {
+		byte[] program = Files.readAllBytes(file.toPath());
+		Mode mode = modeFor(file);
+		if (program.length > mode.getMaxProgramSize()) {
+			throw new IOException(file + " is " + program.length + " bytes, at most " + mode.getMaxProgramSize()
+					+ " fit in " + mode + " memory");
+		}
+
+		long hash = hash(program);
+		Image image = cache.get(key(hash, program.length, mode));
+		if (image != null) {
+			hits++;
+			return image;
+		}
+
+		Entry entry = index.get(key(hash, program.length));
+		if (entry == null) {
+			entry = add(file, program);
+		}
+		misses++;
+		image = new Image(entry, program, mode);
+		cache.put(key(hash, program.length, mode), image);
+		return image;
+	}
+
+	/**
+	 * Getter for the directory.
+	 * 
+	 * @return The directory the ROMs are indexed from.
+	 */
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Getter for the number of programs currently loaded.
+	 * 
+	 * @return Programs in the cache.
+	 */
+	public synchronized int getCached() {
+		return cache.size();
+	}
+
+	/**
+	 * Getter for the number of loads served from the cache.
+	 * 
+	 * @return Cache hits so far.
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Getter for the number of loads that had to read and analyze a program.
+	 * 
+	 * @return Cache misses so far.
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Numbered save state slots, each a file mapped into memory. Saving is a copy
+ * of the machine into the mapped buffer and loading a copy back, the operating
+ * system writes the pages to disk in its own time. Every slot has room for a
+ * snapshot of the largest machine, an XO-CHIP one.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name SaveSlots.java
+ */
+public class SaveSlots implements Closeable {
+
+	private final File directory;
+	private final MappedByteBuffer[] slots;
+	private final RandomAccessFile[] files;
+
+	/**
+	 * Opens the slots in target directory, the slot files are created when
+	 * first used.
+	 * 
+	 * @param directory - Directory holding the slot files.
+	 * @param count - Number of slots.
+	 */
+	public SaveSlots(File directory, int count) {
+		this.directory = directory;
+		this.slots = new MappedByteBuffer[count];
+		this.files = new RandomAccessFile[count];
+	}
+
+	/**
+	 * Gets the mapped buffer of a slot, mapping the file on first use.
+	 */
+	private MappedByteBuffer slot(int n) throws IOException {
+		if (slots[n] == null) {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create " + directory);
+			}
+
+			RandomAccessFile file = new RandomAccessFile(new File(directory, "slot" + n + ".c8s"), "rw");
+			slots[n] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SaveState.MAX_SIZE);
+			files[n] = file;
+		}
+		return slots[n];
+	}
+
+	/**
+	 * Saves the machine into a slot.
+	 * 
+	 * @param n - The slot.
+	 * @param memory - The machine.
+	 * @param frameBuffer - The frame buffer it draws into.
+	 * @throws IOException If the slot file could not be mapped.
+	 */
+	public void save(int n, Memory memory, FrameBuffer frameBuffer) throws IOException {
+		SaveState.write(memory, frameBuffer, slot(n));
+	}
+
+	/**
+	 * Restores the machine from a slot.
+	 * 
+	 * @param n - The slot.
+	 * @param memory - The machine.
+	 * @param frameBuffer - The frame buffer it draws into.
+	 * @return False if the slot is empty.
+	 * @throws IOException If the slot file could not be mapped.
+	 */
+	public boolean load(int n, Memory memory, FrameBuffer frameBuffer) throws IOException {
+		return SaveState.read(memory, frameBuffer, slot(n));
+	}
+
+	/**
+	 * Getter for the number of slots.
+	 * 
+	 * @return The number of slots.
+	 */
+	public int size() {
+		return slots.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] != null) {
+				slots[i].force();
+				files[i].close();
+				slots[i] = null;
+				files[i] = null;
+			}
+		}
+	}
+}
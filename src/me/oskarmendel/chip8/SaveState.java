@@ -0,0 +1,156 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary snapshot of a whole machine. All values are big endian.
+ * 
+ * <pre>
+ * offset size
+ *      0    4  magic "C8SS"
+ *      4    2  format version
+ *      6    1  mode, the ordinal of the {@link Mode}, since version 3
+ *      7    1  reserved
+ *      8    2  pc
+ *     10    2  I
+ *     12    1  sp
+ *     13    1  delay timer
+ *     14    1  sound timer
+ *     15    1  reserved
+ *     16   16  V0 - VF
+ *     32   32  stack, 16 entries of 2 bytes
+ *     64    M  memory, 4096 bytes or 65536 in XO-CHIP
+ *   64+M    8  state of the random number generator, since version 2
+ *   72+M   40  16 flag registers, 16 byte audio pattern, pitch, since version 3
+ *  112+M    8  1 if at 128x64, selected planes, since version 3
+ *  120+M    F  frame buffer, every plane at the largest resolution of the mode
+ * </pre>
+ * 
+ * The frame buffer holds rows of 8 bytes per 64 pixels, leftmost pixel in the
+ * top bit, one plane after the other: 32 rows of one long for CHIP-8, 64 rows
+ * of two for SUPER-CHIP and two planes of that for XO-CHIP. At 64x32 the rows
+ * come first and the rest is zero, so a snapshot has the same size for as
+ * long as the mode stays the same, see {@link #size(Mode)}.
+ * 
+ * Version 1 and 2 snapshots are plain CHIP-8 with the frame buffer right
+ * after the generator state and are still read. Version 1 snapshots have no
+ * generator state, the generator then carries on from where it is.
+ * 
+ * The magic is written last, so a snapshot that was cut off halfway is never
+ * mistaken for a complete one.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name SaveState.java
+ */
+public final class SaveState {
+
+	public static final int MAGIC = 0x43385353; // "C8SS"
+	public static final int VERSION = 3;
+
+	public static final int HEADER_SIZE = 8;
+	public static final int MAX_SIZE = size(Mode.XOCHIP);
+
+	private SaveState() {
+	}
+
+	/**
+	 * Gets the size of a snapshot of a machine in target mode.
+	 * 
+	 * @param mode - The mode.
+	 * @return Size in bytes.
+	 */
+	public static int size(Mode mode) {
+		return HEADER_SIZE + 56 + mode.getMemorySize() + 8 + Memory.EXTENDED_STATE_SIZE + FrameBuffer.stateSize(mode);
+	}
+
+	/**
+	 * Writes a snapshot at the start of target buffer.
+	 * 
+	 * @param memory - The machine.
+	 * @param frameBuffer - The frame buffer it draws into.
+	 * @param buffer - Buffer with room for {@link #size(Mode)} bytes from index 0.
+	 * @return The size of the snapshot.
+	 */
+	public static int write(Memory memory, FrameBuffer frameBuffer, ByteBuffer buffer) {
+		buffer.putInt(0, 0);
+		buffer.position(4);
+		buffer.putShort((short) VERSION);
+		buffer.put((byte) memory.getMode().ordinal());
+		buffer.put((byte) 0);
+		memory.writeState(buffer);
+		buffer.putLong(memory.getRandomState());
+		memory.writeExtendedState(buffer);
+		frameBuffer.writeState(buffer);
+		buffer.putInt(0, MAGIC);
+		return buffer.position();
+	}
+
+	/**
+	 * Restores a snapshot from the start of target buffer.
+	 * 
+	 * @param memory - The machine to restore.
+	 * @param frameBuffer - The frame buffer to restore.
+	 * @param buffer - Buffer holding the snapshot from index 0.
+	 * @return False if the buffer holds no complete snapshot, nothing is changed then.
+	 * @throws IllegalArgumentException If the snapshot is from a format version this
+	 *             code doesn't know or of a machine in another mode.
+	 */
+	public static boolean read(Memory memory, FrameBuffer frameBuffer, ByteBuffer buffer) {
+		if (buffer.getInt(0) != MAGIC) {
+			return false;
+		}
+
+		int version = buffer.getShort(4) & 0xFFFF;
+		if (version < 1 || version > VERSION) {
+			throw new IllegalArgumentException("Unsupported save state version " + version);
+		}
+		Mode[] modes = Mode.values();
+		int ordinal = version >= 3 ? buffer.get(6) : Mode.CHIP8.ordinal();
+		if (ordinal < 0 || ordinal >= modes.length) {
+			throw new IllegalArgumentException("Unknown mode in save state: " + ordinal);
+		}
+		if (modes[ordinal] != memory.getMode()) {
+			throw new IllegalArgumentException(
+					"Save state is for " + modes[ordinal] + ", the machine runs " + memory.getMode());
+		}
+
+		buffer.position(HEADER_SIZE);
+		memory.readState(buffer);
+		if (version >= 2) {
+			memory.setRandomState(buffer.getLong());
+		}
+		if (version >= 3) {
+			memory.readExtendedState(buffer);
+			frameBuffer.readState(buffer);
+		} else {
+			for (int y = 0; y < FrameBuffer.HEIGHT; y++) {
+				frameBuffer.setRow(y, buffer.getLong());
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,287 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+/**
+ * Drives a machine in 60 Hz frames. Every frame runs a fixed number of
+ * instructions and then ticks the timers once, so the timers count in emulated
+ * time no matter how often the host calls in.
+ * 
+ * The host calls {@link #advance(long)} whenever it gets the chance and the
+ * scheduler runs every frame that came due since the last call. After a hiccup
+ * at most {@link #getMaxCatchUpFrames()} frames are run in one go, the rest are
+ * dropped instead of fast forwarding the game.
+ * 
+ * With a {@link KeyTimeline} a frame runs in pieces between the key events on
+ * it, so keys change at the instruction they are scheduled for.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Scheduler.java
+ */
+public class Scheduler {
+
+	public static final int FRAME_RATE = 60;
+	public static final long FRAME_NANOS = 1_000_000_000L / FRAME_RATE;
+	public static final int DEFAULT_INSTRUCTIONS_PER_SECOND = 600;
+
+	private Memory memory;
+
+	private int instructionsPerFrame = DEFAULT_INSTRUCTIONS_PER_SECOND / FRAME_RATE;
+	private int maxCatchUpFrames = 4;
+	private Runnable frameListener;
+	private LatencyHistogram frameTimes; // Host time per frame, null to not measure.
+	private KeyTimeline input; // Key events to apply within frames, null if keys only change between frames.
+
+	private long nextFrame; // Host time at which the next frame is due.
+	private boolean started;
+
+	private long frames; // Frames run so far.
+	private long droppedFrames; // Frames skipped because the host fell too far behind.
+	private long lateFrames; // Frames run more than a frame after they were due.
+	private long instructions; // Instructions run so far.
+
+	/**
+	 * Creates a scheduler for target machine.
+	 * 
+	 * @param memory - The machine to drive.
+	 */
+	public Scheduler(Memory memory) {
+		this.memory = memory;
+	}
+
+	/**
+	 * Runs every frame that is due at target host time.
+	 * 
+	 * @param now - Current host time in nanoseconds, as from {@link System#nanoTime()}.
+	 * @return The number of frames run.
+	 */
+	public int advance(long now) {
+		if (!started) {
+			nextFrame = now;
+			started = true;
+		}
+
+		int ran = 0;
+		while (now - nextFrame >= 0 && ran < maxCatchUpFrames) {
+			if (now - nextFrame >= FRAME_NANOS) {
+				lateFrames++;
+				FlightEvents.lateFrame(frames, now - nextFrame);
+			}
+			runFrame();
+			nextFrame += FRAME_NANOS;
+			ran++;
+		}
+
+		// Too far behind, drop what is left instead of running it all at once.
+		if (now - nextFrame >= 0) {
+			long behind = (now - nextFrame) / FRAME_NANOS + 1;
+			droppedFrames += behind;
+			FlightEvents.droppedFrames(behind);
+			nextFrame += behind * FRAME_NANOS;
+		}
+
+		return ran;
+	}
+
+	/**
+	 * Runs a single frame right away: one frame worth of instructions followed
+	 * by a timer tick.
+	 */
+	public void runFrame() {
+		FlightEvents.FrameEvent event = FlightEvents.frame();
+		long start = frameTimes != null ? System.nanoTime() : 0;
+		
+		int ran;
+		if (input == null) {
+			ran = memory.step(instructionsPerFrame);
+		} else {
+			ran = 0;
+			while (ran < instructionsPerFrame) {
+				ran += memory.step(input.apply(frames, ran, instructionsPerFrame - ran));
+			}
+		}
+		instructions += ran;
+		memory.tickTimers();
+		frames++;
+		
+		if (frameTimes != null) {
+			frameTimes.record(System.nanoTime() - start);
+		}
+		if (event != null) {
+			event.frame = frames;
+			event.instructions = ran;
+			event.commit();
+		}
+		if (frameListener != null) {
+			frameListener.run();
+		}
+	}
+
+	/**
+	 * Restarts the frame clock, the next call to {@link #advance(long)} runs one frame.
+	 */
+	public void reset() {
+		started = false;
+	}
+
+	/**
+	 * Starts counting over for a new program: frames, instructions and the
+	 * frame clock go back to zero.
+	 */
+	public void restart() {
+		started = false;
+		frames = 0;
+		droppedFrames = 0;
+		lateFrames = 0;
+		instructions = 0;
+	}
+
+	/**
+	 * Gets the host time at which the next frame is due.
+	 * 
+	 * @return Host time in nanoseconds.
+	 */
+	public long getNextFrameTime() {
+		return this.nextFrame;
+	}
+
+	/**
+	 * Sets how fast the machine runs.
+	 * 
+	 * @param ips - Instructions per second, rounded to whole instructions per frame.
+	 */
+	public void setInstructionsPerSecond(int ips) {
+		this.instructionsPerFrame = Math.max(1, Math.round(ips / (float) FRAME_RATE));
+	}
+
+	/**
+	 * Getter for the number of instructions per second.
+	 * 
+	 * @return Instructions per second.
+	 */
+	public int getInstructionsPerSecond() {
+		return this.instructionsPerFrame * FRAME_RATE;
+	}
+
+	/**
+	 * Setter for the number of instructions per frame.
+	 * 
+	 * @param n - Instructions per 60 Hz frame.
+	 */
+	public void setInstructionsPerFrame(int n) {
+		this.instructionsPerFrame = n;
+	}
+
+	/**
+	 * Getter for the number of instructions per frame.
+	 * 
+	 * @return Instructions per 60 Hz frame.
+	 */
+	public int getInstructionsPerFrame() {
+		return this.instructionsPerFrame;
+	}
+
+	/**
+	 * Setter for the catch up budget.
+	 * 
+	 * @param n - Most frames to run in a single call to {@link #advance(long)}.
+	 */
+	public void setMaxCatchUpFrames(int n) {
+		this.maxCatchUpFrames = n;
+	}
+
+	/**
+	 * Getter for the catch up budget.
+	 * 
+	 * @return Most frames run in a single call to {@link #advance(long)}.
+	 */
+	public int getMaxCatchUpFrames() {
+		return this.maxCatchUpFrames;
+	}
+
+	/**
+	 * Setter for the frame listener.
+	 * 
+	 * @param frameListener - Called after every frame, or null for none.
+	 */
+	public void setFrameListener(Runnable frameListener) {
+		this.frameListener = frameListener;
+	}
+
+	/**
+	 * Setter for the key events applied within frames.
+	 * 
+	 * @param input - The timeline, or null to leave the keys to whoever
+	 *            changes them between frames.
+	 */
+	public void setInput(KeyTimeline input) {
+		this.input = input;
+	}
+
+	/**
+	 * Setter for the histogram the host time of every frame is recorded in.
+	 * 
+	 * @param frameTimes - The histogram, or null to not measure frames.
+	 */
+	public void setFrameTimes(LatencyHistogram frameTimes) {
+		this.frameTimes = frameTimes;
+	}
+
+	/**
+	 * Getter for the number of frames run.
+	 * 
+	 * @return Frames run so far.
+	 */
+	public long getFrames() {
+		return this.frames;
+	}
+
+	/**
+	 * Getter for the number of frames dropped after the host fell behind.
+	 * 
+	 * @return Frames dropped so far.
+	 */
+	public long getDroppedFrames() {
+		return this.droppedFrames;
+	}
+
+	/**
+	 * Getter for the number of frames that ran more than a frame late.
+	 * 
+	 * @return Late frames so far.
+	 */
+	public long getLateFrames() {
+		return this.lateFrames;
+	}
+
+	/**
+	 * Getter for the number of instructions run.
+	 * 
+	 * @return Instructions run so far.
+	 */
+	public long getInstructions() {
+		return this.instructions;
+	}
+}
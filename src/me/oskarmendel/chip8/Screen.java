@@ -23,85 +23,129 @@
  */
 package me.oskarmendel.chip8;
 
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.paint.Color;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 
 /**
+ * JavaFX frontend for the display. Frames are uploaded into an image at the
+ * native resolution, 64x32 or 128x64, only rows that differ from the frame
+ * shown before are written, and the image is scaled up with nearest neighbour
+ * filtering when the scene is drawn. With two XO-CHIP planes every pixel has
+ * one of four colors.
  * 
  * @author Oskar Mendel
  * @version 0.00.00
  * @name Screen.java
  */
-public class Screen extends Canvas{
+public class Screen extends ImageView {
+
+	private static final int WHITE = 0xFFFFFFFF;
+	private static final int BLACK = 0xFF000000;
+	private static final int[] PALETTE = { BLACK, WHITE, 0xFFAAAAAA, 0xFF555555 }; // Color per pixel value.
 
-	private static final int WIDTH = 64;
-	private static final int HEIGHT = 32;
-	
 	private int scale = 12;
 	
-	private GraphicsContext gc;
+	private WritableImage image;
+	private PixelWriter writer;
+	private PixelFormat<IntBuffer> format = PixelFormat.getIntArgbInstance();
+	private int[] line = new int[FrameBuffer.HIGH_WIDTH];
+	private FrameBuffer shown = new FrameBuffer(); // Frame currently in the image.
 	
-	public int[][] graphic = new int[WIDTH][HEIGHT]; // Graphics in Chip 8 is a black
-	// and white screen of 2048
-	// pixels (62*32).
+	private long renders; // Number of calls to render.
+	private long renderNanos; // Total time spent in render.
+	private long rowsUploaded; // Total number of rows written into the image.
 	
+	/**
+	 * Creates the screen.
+	 */
 	public Screen() {
-		super(800, 400);
 		setFocusTraversable(true);
 		
-		gc = this.getGraphicsContext2D();
-		gc.setFill(Color.BLACK);
-		gc.fillRect(0, 0, 800, 400);
-		clear();
+		setSmooth(false);
+		setFitWidth(FrameBuffer.WIDTH * scale);
+		setFitHeight(FrameBuffer.HEIGHT * scale);
+		resize(FrameBuffer.WIDTH, FrameBuffer.HEIGHT);
 	}
 	
 	/**
-	 * Clears the display setting all the pixels to zero.
+	 * Replaces the image with a black one of another resolution, it is still
+	 * scaled to the same size on screen.
+	 * 
+	 * @param width - Width in pixels.
+	 * @param height - Height in pixels.
 	 */
-	public void clear() {
-		for(int y = 0; y < HEIGHT; y++) {
-			for(int x = 0; x < WIDTH; x++) {
-				graphic[x][y] = 0;
-			}
+	private void resize(int width, int height) {
+		image = new WritableImage(width, height);
+		writer = image.getPixelWriter();
+		setImage(image);
+		
+		Arrays.fill(line, BLACK);
+		for (int y = 0; y < height; y++) {
+			writer.setPixels(0, y, width, 1, format, line, 0, width);
 		}
 	}
 	
 	/**
-	 * Renders the display.
+	 * Renders a frame.
+	 * 
+	 * @param frame - The frame to show, a copy of the machine's {@link FrameBuffer}.
 	 */
-	public void render() {
-		for(int x = 0; x < graphic.length; x++) {
-			for(int y = 0; y < graphic[y].length; y++) {
-				if (graphic[x][y] == 1) {
-					gc.setFill(Color.WHITE);
-				} else {
-					gc.setFill(Color.BLACK);
-				}
-				
-				gc.fillRect(x*scale, (y*scale), scale, scale);
-			}
+	public void render(FrameBuffer frame) {
+		FlightEvents.RenderEvent event = FlightEvents.render();
+		long start = System.nanoTime();
+		
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		if (width != (int) image.getWidth()) {
+			resize(width, height);
+		}
+		
+		int uploaded = 0;
+		long dirty = frame.diff(shown);
+		if (height < 64) {
+			dirty &= (1L << height) - 1;
+		}
+		while (dirty != 0) {
+			int y = Long.numberOfTrailingZeros(dirty);
+			dirty &= dirty - 1;
+			
+			frame.expandRow(y, line, PALETTE);
+			writer.setPixels(0, y, width, 1, format, line, 0, width);
+			uploaded++;
+		}
+		if (uploaded > 0) {
+			frame.copyTo(shown);
+		}
+		
+		renders++;
+		rowsUploaded += uploaded;
+		renderNanos += System.nanoTime() - start;
+		if (event != null) {
+			event.rows = uploaded;
+			event.commit();
 		}
 	}
 	
 	/**
-	 * Gets the content of target pixel.
+	 * Getter for the average time spent in {@link #render(FrameBuffer)}.
 	 * 
-	 * @param x - X coordinate.
-	 * @param y - Y coordinate.
-	 * @return The pixel at target x and y coordinate, 1 for white 0 for black.
+	 * @return The average render time in nanoseconds.
 	 */
-	public int getPixel(int x, int y) {
-		return graphic[x][y];
+	public long getAverageRenderNanos() {
+		return renders == 0 ? 0 : renderNanos / renders;
 	}
 	
 	/**
-	 * Sets the pixel at target location.
+	 * Getter for the average number of rows uploaded per render.
 	 * 
-	 * @param x - X coordinate.
-	 * @param y - Y coordinate.
+	 * @return The average number of dirty rows.
 	 */
-	public void setPixel(int x, int y) {
-		graphic[x][y] ^= 1;
+	public double getAverageRowsPerRender() {
+		return renders == 0 ? 0 : (double) rowsUploaded / renders;
 	}
 }
@@ -0,0 +1,548 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streams the displays of running machines to any number of viewers over
+ * TCP, see {@link SpectatorViewer}. A single thread serves every connection
+ * through a {@link Selector} on non-blocking channels.
+ * 
+ * Every machine publishes into a {@link Stream} of its own, which only copies
+ * the frame into a {@link TripleBuffer}, so the emulation thread never waits
+ * for the network. The server picks up the latest frame of every stream 60
+ * times a second, machines running faster than that are sampled.
+ * 
+ * A viewer sends a line with the number of the stream it wants to watch, or
+ * "list" to get a line per stream with its number and name after which the
+ * connection is closed. The server then sends messages, each an int with the
+ * length of the rest, a type byte and a long with the number of the frame:
+ * 
+ * <ul>
+ * <li>KEYFRAME, the ordinal of the {@link Mode} as a byte and the display as
+ * written by {@link FrameBuffer#writeState(java.nio.ByteBuffer)}.</li>
+ * <li>DELTA, the {@link DeltaCodec} delta from the previous frame to this
+ * one.</li>
+ * </ul>
+ * 
+ * The viewer answers every message with a byte once it has taken it in and
+ * the server never has more than {@link #MAX_IN_FLIGHT} messages on their way
+ * to a viewer, so nothing piles up in buffers for a slow one. A viewer starts
+ * with a keyframe and gets a delta per frame while it keeps up, one that
+ * falls behind skips ahead to the latest frame with a keyframe. A viewer
+ * that neither takes data nor answers for {@link #STALL_MILLIS}, or what
+ * {@link #setStallMillis(long)} set, is dropped.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name SpectatorServer.java
+ */
+public class SpectatorServer implements Runnable {
+
+	public static final byte KEYFRAME = 0;
+	public static final byte DELTA = 1;
+	public static final int HEADER_SIZE = 13; // Length, type and frame number.
+	public static final int MAX_IN_FLIGHT = 2; // Messages sent to a viewer it hasn't answered yet.
+	public static final long STALL_MILLIS = 5000; // Default time a viewer may go without progress.
+	public static final int SOCKET_BUFFER = 32 * 1024; // A few keyframes.
+	private static final int MAX_REQUEST = 64; // Longest request line.
+
+	/**
+	 * The display of one machine.
+	 */
+	public static final class Stream {
+		private final int id;
+		private final String name;
+		private final TripleBuffer<FrameBuffer> frames = new TripleBuffer<>(new FrameBuffer(), new FrameBuffer(),
+				new FrameBuffer());
+
+		// Only touched on the server thread.
+		private long frame = -1; // Number of the latest frame, -1 before the first.
+		private Mode mode;
+		private byte[] state = new byte[0]; // The latest frame as written by FrameBuffer.writeState.
+		private byte[] previous = new byte[0];
+		private ByteBuffer delta; // Message taking the frame before to the latest one.
+		private ByteBuffer keyframe; // Message with the latest frame, made when someone needs it.
+
+		private Stream(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		/**
+		 * Hands a frame to the server, called on the thread running the
+		 * machine. Only the latest frame is sent.
+		 * 
+		 * @param frameBuffer - The frame.
+		 */
+		public void publish(FrameBuffer frameBuffer) {
+			frameBuffer.copyTo(frames.back());
+			frames.publish();
+		}
+
+		/**
+		 * @return Number of the stream, what viewers ask for.
+		 */
+		public int getId() {
+			return this.id;
+		}
+
+		/**
+		 * @return Name of the stream.
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * Takes the latest published frame and encodes the delta to it.
+		 * 
+		 * @return True if there was a new frame.
+		 */
+		private boolean update() {
+			FrameBuffer latest = frames.latest();
+			if (latest == null) {
+				return false;
+			}
+
+			byte[] swap = previous;
+			previous = state;
+			state = swap;
+			int size = FrameBuffer.stateSize(latest.getMode());
+			if (state.length != size) {
+				state = new byte[size];
+			}
+			latest.writeState(ByteBuffer.wrap(state));
+
+			boolean sameMode = latest.getMode() == mode;
+			mode = latest.getMode();
+			frame++;
+			keyframe = null;
+			delta = null;
+			if (sameMode) {
+				ByteBuffer message = message(DELTA, DeltaCodec.maxEncodedLength(size));
+				int length = DeltaCodec.encode(previous, state, size, message.array(), HEADER_SIZE);
+				message.position(HEADER_SIZE + length);
+				delta = finish(message);
+			}
+			return true;
+		}
+
+		/**
+		 * Gets the message a viewer needs to catch up to the latest frame.
+		 * 
+		 * @param shown - Number of the frame the viewer has.
+		 * @return The message, its own view of it, or null if it is up to date.
+		 */
+		private ByteBuffer next(long shown) {
+			if (shown == frame || frame < 0) {
+				return null;
+			}
+			if (shown == frame - 1 && delta != null) {
+				return delta.duplicate();
+			}
+			if (keyframe == null) {
+				ByteBuffer message = message(KEYFRAME, 1 + state.length);
+				message.put((byte) mode.ordinal());
+				message.put(state);
+				keyframe = finish(message);
+			}
+			return keyframe.duplicate();
+		}
+
+		private ByteBuffer message(byte type, int payload) {
+			ByteBuffer message = ByteBuffer.allocate(HEADER_SIZE + payload);
+			message.position(4);
+			message.put(type);
+			message.putLong(frame);
+			return message;
+		}
+
+		private static ByteBuffer finish(ByteBuffer message) {
+			message.putInt(0, message.position() - 4);
+			message.flip();
+			return message.asReadOnlyBuffer();
+		}
+	}
+
+	/**
+	 * A connected viewer.
+	 */
+	private static final class Viewer {
+		private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST);
+		private Stream stream; // Null until the viewer asked for one.
+		private ByteBuffer out; // What is left of the message being sent.
+		private boolean closeWhenSent;
+		private long shown = -1; // Number of the frame the viewer has once out is sent.
+		private int inFlight; // Messages sent that the viewer hasn't answered.
+		private long progress = System.currentTimeMillis(); // When the viewer last took data or answered.
+	}
+
+	private final InetSocketAddress address;
+	private final List<Stream> streams = new CopyOnWriteArrayList<>();
+	private final ByteBuffer discard = ByteBuffer.allocate(256); // For whatever viewers send after the request.
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Thread thread;
+	private volatile boolean running;
+	private volatile long stallMillis = STALL_MILLIS;
+	private volatile int viewers;
+	private volatile long dropped; // Viewers dropped for being too slow.
+	private volatile long skipped; // Frames viewers skipped.
+	private volatile long bytesSent;
+
+	/**
+	 * Creates a server listening on the loopback interface.
+	 * 
+	 * @param port - The port, 0 for any free one.
+	 */
+	public SpectatorServer(int port) {
+		this(new InetSocketAddress("127.0.0.1", port));
+	}
+
+	/**
+	 * Creates a server.
+	 * 
+	 * @param address - The address to listen on.
+	 */
+	public SpectatorServer(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * Adds a stream viewers can watch.
+	 * 
+	 * @param name - Name shown in the list of streams.
+	 * @return The stream to publish frames to.
+	 */
+	public Stream addStream(String name) {
+		synchronized (streams) {
+			Stream stream = new Stream(streams.size(), name);
+			streams.add(stream);
+			return stream;
+		}
+	}
+
+	/**
+	 * Opens the socket and starts the server thread.
+	 * 
+	 * @throws IOException If the socket could not be opened.
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			return;
+		}
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.bind(address);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		thread = new Thread(this, "chip8-spectator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Closes every connection and stops the server thread.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			selector.wakeup();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * Gets the port the server listens on, useful when it was started on port 0.
+	 * 
+	 * @return The port.
+	 * @throws IOException If the server isn't listening.
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	@Override
+	public void run() {
+		long next = System.nanoTime();
+		try {
+			while (running) {
+				long wait = (next - System.nanoTime()) / 1_000_000;
+				if (wait > 0) {
+					selector.select(wait);
+				} else {
+					selector.selectNow();
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					if (key.isReadable()) {
+						read(key);
+					}
+					if (key.isValid() && key.isWritable()) {
+						send(key);
+					}
+				}
+
+				long now = System.nanoTime();
+				if (now - next >= 0) {
+					next = now + Scheduler.FRAME_NANOS;
+					// Without viewers nothing is encoded, the first one gets a keyframe of the latest frame anyway.
+					for (Stream stream : viewers > 0 ? streams : Collections.<Stream>emptyList()) {
+						stream.update();
+					}
+					for (SelectionKey key : selector.keys()) {
+						if (key.isValid() && key.attachment() != null) {
+							send(key);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				server.close();
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.socket().setSendBufferSize(SOCKET_BUFFER);
+		channel.register(selector, SelectionKey.OP_READ, new Viewer());
+		viewers++;
+	}
+
+	/**
+	 * Reads the request of a viewer, anything after it is ignored.
+	 */
+	private void read(SelectionKey key) {
+		Viewer viewer = (Viewer) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		try {
+			ByteBuffer in = viewer.stream == null && !viewer.closeWhenSent ? viewer.request : discard;
+			discard.clear();
+			int read = channel.read(in);
+			if (read < 0) {
+				close(key);
+				return;
+			}
+			if (in != viewer.request) {
+				// Answers to messages, the viewer is ready for more.
+				if (read > 0 && viewer.stream != null) {
+					viewer.inFlight = Math.max(0, viewer.inFlight - read);
+					viewer.progress = System.currentTimeMillis();
+					send(key);
+				}
+				return;
+			}
+
+			String request = null;
+			for (int i = 0; i < in.position(); i++) {
+				if (in.get(i) == '\n') {
+					request = new String(in.array(), 0, i, StandardCharsets.US_ASCII).trim();
+					break;
+				}
+			}
+			if (request == null) {
+				if (!in.hasRemaining()) {
+					close(key);
+				}
+				return;
+			}
+
+			if (request.equals("list")) {
+				StringBuilder list = new StringBuilder();
+				for (Stream stream : streams) {
+					list.append(stream.id).append(' ').append(stream.name).append('\n');
+				}
+				viewer.out = ByteBuffer.wrap(list.toString().getBytes(StandardCharsets.UTF_8));
+				viewer.closeWhenSent = true;
+			} else {
+				int id = request.isEmpty() ? 0 : Integer.parseInt(request);
+				if (id < 0 || id >= streams.size()) {
+					close(key);
+					return;
+				}
+				viewer.stream = streams.get(id);
+			}
+			send(key);
+		} catch (IOException | NumberFormatException e) {
+			close(key);
+		}
+	}
+
+	/**
+	 * Sends a viewer what it has room for, starting on the latest frame once
+	 * the message before is out.
+	 */
+	private void send(SelectionKey key) {
+		Viewer viewer = (Viewer) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		long now = System.currentTimeMillis();
+		try {
+			while (true) {
+				if (viewer.out == null || !viewer.out.hasRemaining()) {
+					viewer.out = null;
+					if (viewer.closeWhenSent) {
+						close(key);
+						return;
+					}
+					if (viewer.stream == null || viewer.inFlight >= MAX_IN_FLIGHT) {
+						break;
+					}
+					ByteBuffer next = viewer.stream.next(viewer.shown);
+					if (next == null) {
+						break;
+					}
+					if (viewer.shown >= 0 && viewer.stream.frame - viewer.shown > 1) {
+						skipped += viewer.stream.frame - viewer.shown - 1;
+					}
+					viewer.out = next;
+					viewer.shown = viewer.stream.frame;
+					viewer.inFlight++;
+				}
+
+				int written = channel.write(viewer.out);
+				bytesSent += written;
+				if (written > 0) {
+					viewer.progress = now;
+				}
+				if (viewer.out.hasRemaining()) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			close(key);
+			return;
+		}
+
+		if ((viewer.out != null || viewer.inFlight >= MAX_IN_FLIGHT) && now - viewer.progress > stallMillis) {
+			dropped++;
+			close(key);
+			return;
+		}
+		// Only wait for room while there is something left to send.
+		boolean waiting = viewer.out != null;
+		key.interestOps(SelectionKey.OP_READ | (waiting ? SelectionKey.OP_WRITE : 0));
+	}
+
+	private void close(SelectionKey key) {
+		if (key.attachment() != null && key.isValid()) {
+			viewers--;
+		}
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Setter for how long a viewer may go without taking data or answering
+	 * before it is dropped.
+	 * 
+	 * @param stallMillis - The time in milliseconds.
+	 */
+	public void setStallMillis(long stallMillis) {
+		this.stallMillis = stallMillis;
+	}
+
+	/**
+	 * Getter for the number of connected viewers.
+	 * 
+	 * @return Viewers connected now.
+	 */
+	public int getViewers() {
+		return this.viewers;
+	}
+
+	/**
+	 * Getter for the number of viewers dropped for not taking any data.
+	 * 
+	 * @return Viewers dropped so far.
+	 */
+	public long getDropped() {
+		return this.dropped;
+	}
+
+	/**
+	 * Getter for the number of frames viewers skipped because they were busy.
+	 * 
+	 * @return Frames skipped so far, summed over all viewers.
+	 */
+	public long getSkipped() {
+		return this.skipped;
+	}
+
+	/**
+	 * Getter for the number of bytes sent.
+	 * 
+	 * @return Bytes sent to all viewers so far.
+	 */
+	public long getBytesSent() {
+		return this.bytesSent;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watches a stream of a {@link SpectatorServer}, putting every frame back
+ * together from the keyframe and the deltas after it.
+ * 
+ * Usage: SpectatorViewer [-l] [host:]port [stream]
+ * 
+ * Draws the stream in the terminal, two pixel rows per line, or with -l lists
+ * the streams the server has.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name SpectatorViewer.java
+ */
+public class SpectatorViewer {
+
+	private static final String HOME = "\033[H"; // Moves the terminal cursor to the top left corner.
+	private static final String CLEAR = "\033[2J";
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final OutputStream out;
+	private final FrameBuffer frameBuffer = new FrameBuffer();
+	private byte[] state = new byte[0]; // The frame as written by FrameBuffer.writeState.
+	private byte[] payload = new byte[0];
+	private Mode mode;
+	private long frame = -1;
+	private long keyframes;
+	private long deltas;
+	private long bytesRead;
+
+	/**
+	 * Connects to a server and asks for a stream.
+	 * 
+	 * @param host - Host of the server.
+	 * @param port - Port of the server.
+	 * @param stream - Number of the stream to watch.
+	 * @throws IOException If the connection failed.
+	 */
+	public SpectatorViewer(String host, int port, int stream) throws IOException {
+		socket = new Socket();
+		socket.setReceiveBufferSize(SpectatorServer.SOCKET_BUFFER);
+		socket.connect(new InetSocketAddress(host, port));
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = socket.getOutputStream();
+		out.write((stream + "\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	/**
+	 * Lists the streams of a server.
+	 * 
+	 * @param host - Host of the server.
+	 * @param port - Port of the server.
+	 * @return A line per stream, its number and name.
+	 * @throws IOException If the connection failed.
+	 */
+	public static List<String> list(String host, int port) throws IOException {
+		try (Socket socket = new Socket(host, port)) {
+			socket.getOutputStream().write("list\n".getBytes(StandardCharsets.US_ASCII));
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			List<String> lines = new ArrayList<>();
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				lines.add(line);
+			}
+			return lines;
+		}
+	}
+
+	/**
+	 * Waits for the next message, applies it and tells the server it can send
+	 * the next one.
+	 * 
+	 * @return The frame buffer showing the frame, the same instance every time.
+	 * @throws IOException If the connection failed or the server closed it.
+	 */
+	public FrameBuffer next() throws IOException {
+		int length = in.readInt();
+		byte type = in.readByte();
+		frame = in.readLong();
+		int size = length - (SpectatorServer.HEADER_SIZE - 4);
+		if (payload.length < size) {
+			payload = new byte[size];
+		}
+		in.readFully(payload, 0, size);
+		bytesRead += length + 4;
+
+		if (type == SpectatorServer.KEYFRAME) {
+			mode = Mode.values()[payload[0]];
+			if (state.length != size - 1) {
+				state = new byte[size - 1];
+			}
+			System.arraycopy(payload, 1, state, 0, state.length);
+			frameBuffer.setMode(mode);
+			keyframes++;
+		} else if (type == SpectatorServer.DELTA && mode != null) {
+			DeltaCodec.apply(payload, 0, size, state);
+			deltas++;
+		} else {
+			throw new IOException("Unexpected message " + type);
+		}
+		frameBuffer.readState(ByteBuffer.wrap(state));
+		out.write(1);
+		return frameBuffer;
+	}
+
+	/**
+	 * Closes the connection.
+	 * 
+	 * @throws IOException If closing failed.
+	 */
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/**
+	 * Getter for the number of the frame shown.
+	 * 
+	 * @return The frame number the server gave it.
+	 */
+	public long getFrame() {
+		return this.frame;
+	}
+
+	/**
+	 * @return Keyframes received so far.
+	 */
+	public long getKeyframes() {
+		return this.keyframes;
+	}
+
+	/**
+	 * @return Deltas received so far.
+	 */
+	public long getDeltas() {
+		return this.deltas;
+	}
+
+	/**
+	 * @return Bytes received so far.
+	 */
+	public long getBytesRead() {
+		return this.bytesRead;
+	}
+
+	/**
+	 * Draws a frame as text, every character covers two rows of pixels.
+	 * 
+	 * @param frame - The frame.
+	 * @param out - Where to draw to.
+	 */
+	public static void draw(FrameBuffer frame, PrintStream out) {
+		int[] upper = new int[FrameBuffer.HIGH_WIDTH];
+		int[] lower = new int[FrameBuffer.HIGH_WIDTH];
+		int[] set = { 0, 1, 1, 1 }; // Any plane makes a pixel show.
+		StringBuilder text = new StringBuilder();
+		for (int y = 0; y < frame.getHeight(); y += 2) {
+			frame.expandRow(y, upper, set);
+			frame.expandRow(y + 1, lower, set);
+			for (int x = 0; x < frame.getWidth(); x++) {
+				text.append(upper[x] != 0 ? (lower[x] != 0 ? '\u2588' : '\u2580') : (lower[x] != 0 ? '\u2584' : ' '));
+			}
+			text.append('\n');
+		}
+		out.print(text);
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean list = false;
+		List<String> rest = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals("-l")) {
+				list = true;
+			} else {
+				rest.add(arg);
+			}
+		}
+		if (rest.isEmpty()) {
+			System.err.println("Usage: SpectatorViewer [-l] [host:]port [stream]");
+			System.exit(1);
+		}
+
+		String address = rest.get(0);
+		int colon = address.lastIndexOf(':');
+		String host = colon >= 0 ? address.substring(0, colon) : "127.0.0.1";
+		int port = Integer.parseInt(address.substring(colon + 1));
+		if (list) {
+			for (String line : list(host, port)) {
+				System.out.println(line);
+			}
+			return;
+		}
+
+		int stream = rest.size() > 1 ? Integer.parseInt(rest.get(1)) : 0;
+		SpectatorViewer viewer = new SpectatorViewer(host, port, stream);
+		PrintStream out = new PrintStream(System.out, false, "UTF-8");
+		int width = 0;
+		while (true) {
+			FrameBuffer frame;
+			try {
+				frame = viewer.next();
+			} catch (EOFException e) {
+				out.println("The stream has ended.");
+				out.flush();
+				return;
+			}
+			out.print(frame.getWidth() != width ? CLEAR + HOME : HOME);
+			width = frame.getWidth();
+			draw(frame, out);
+			out.printf("frame %d, %d keyframes, %d deltas, %d KB%n", viewer.getFrame(), viewer.getKeyframes(),
+					viewer.getDeltas(), viewer.getBytesRead() / 1024);
+			out.flush();
+		}
+	}
+}
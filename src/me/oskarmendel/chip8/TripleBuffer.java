@@ -0,0 +1,117 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock free hand off of frames between one producer and one consumer thread.
+ * The producer fills its back buffer and publishes it, the consumer takes the
+ * latest published buffer. Neither side ever waits, frames the consumer didn't
+ * get to in time are overwritten.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name TripleBuffer.java
+ * @param <T> - Type of the buffers.
+ */
+public class TripleBuffer<T> {
+
+	private static final int INDEX = 3;
+	private static final int FRESH = 4; // Set while the middle buffer holds an unread frame.
+
+	private final Object[] buffers;
+	private int back = 0; // Owned by the producer.
+	private int front = 1; // Owned by the consumer.
+	private final AtomicInteger middle = new AtomicInteger(2);
+
+	private final AtomicInteger published = new AtomicInteger();
+	private final AtomicInteger overwritten = new AtomicInteger();
+
+	/**
+	 * Creates the buffer from three separate instances.
+	 * 
+	 * @param a - First buffer.
+	 * @param b - Second buffer.
+	 * @param c - Third buffer.
+	 */
+	public TripleBuffer(T a, T b, T c) {
+		buffers = new Object[] { a, b, c };
+	}
+
+	/**
+	 * Gets the buffer the producer writes the next frame into.
+	 * 
+	 * @return The back buffer.
+	 */
+	@SuppressWarnings("unchecked")
+	public T back() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Publishes the back buffer and hands the producer a new one.
+	 */
+	public void publish() {
+		int previous = middle.getAndSet(back | FRESH);
+		back = previous & INDEX;
+		published.incrementAndGet();
+		if ((previous & FRESH) != 0) {
+			overwritten.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Takes the latest published frame. The frame stays valid until the next call.
+	 * 
+	 * @return The latest frame or null if nothing was published since the last call.
+	 */
+	@SuppressWarnings("unchecked")
+	public T latest() {
+		if ((middle.get() & FRESH) == 0) {
+			return null;
+		}
+
+		front = middle.getAndSet(front) & INDEX;
+		return (T) buffers[front];
+	}
+
+	/**
+	 * Getter for the number of frames published.
+	 * 
+	 * @return Frames published so far.
+	 */
+	public int getPublished() {
+		return published.get();
+	}
+
+	/**
+	 * Getter for the number of frames replaced before the consumer took them.
+	 * 
+	 * @return Frames overwritten so far.
+	 */
+	public int getOverwritten() {
+		return overwritten.get();
+	}
+}
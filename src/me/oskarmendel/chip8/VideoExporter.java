@@ -0,0 +1,520 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Brokenprogrammer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.oskarmendel.chip8;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Records the display to disk straight from the frame buffer. The emulation
+ * thread only copies every frame that changed into a buffer from a fixed pool
+ * and queues it, an encoder thread of its own writes it out, so encoding
+ * never holds up the machine. When the pool runs dry because the encoder
+ * can't keep up the frame is dropped and counted, unless the exporter is
+ * lossless, in which case capturing waits for the encoder, which is what
+ * headless runs want.
+ * 
+ * Every frame carries the number of the 60 Hz frame it was finished in,
+ * frames in between looked the same as the one before. The formats are:
+ * 
+ * <ul>
+ * <li>RAW, a frame log: the int 0x43385646 ("C8VF") and a version int, then
+ * per frame its number as a long, width and height as shorts, the number of
+ * planes as a byte and the pixels as 64 bit words, plane by plane and row by
+ * row, leftmost pixel in the most significant bit.</li>
+ * <li>PNG, a picture per frame named after the output file and the frame
+ * number, capture.png is written as capture_000042.png and so on.</li>
+ * <li>GIF, an animated GIF that loops, every frame shown for as long as it
+ * was on screen. GIF counts time in hundredths of a second and players don't
+ * keep up with less than two, changes within 1/50 s of each other are merged
+ * into the later one.</li>
+ * </ul>
+ * 
+ * Pictures are the size of the mode's largest resolution times the scale,
+ * lower resolutions are scaled up to fill them.
+ * 
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name VideoExporter.java
+ */
+public class VideoExporter implements Runnable {
+
+	public static final int DEFAULT_QUEUE_FRAMES = 60; // A second of frames that changed.
+	public static final int DEFAULT_SCALE = 4;
+	public static final int RAW_MAGIC = 0x43385646;
+	public static final int RAW_VERSION = 1;
+	private static final int MIN_GIF_DELAY = 2; // Hundredths of a second.
+	private static final int MAX_GIF_DELAY = 0xFFFF; // The delay is 16 bits, about 11 minutes.
+	private static final int[] INDICES = { 0, 1, 2, 3 }; // Palette index per pixel value.
+	private static final Frame END = new Frame(); // Queued last to stop the encoder.
+
+	/**
+	 * Output formats.
+	 */
+	public enum Format {
+		RAW, PNG, GIF;
+
+		/**
+		 * Picks the format by the extension of a file, anything that isn't
+		 * .png or .gif is a frame log.
+		 * 
+		 * @param file - The output file.
+		 * @return The format.
+		 */
+		public static Format forFile(File file) {
+			String name = file.getName().toLowerCase();
+			if (name.endsWith(".png")) {
+				return PNG;
+			}
+			return name.endsWith(".gif") ? GIF : RAW;
+		}
+
+		/**
+		 * @return The file extension, without the dot.
+		 */
+		public String getExtension() {
+			return this == RAW ? "c8v" : name().toLowerCase();
+		}
+	}
+
+	/**
+	 * A captured frame, pooled so capturing doesn't allocate.
+	 */
+	private static final class Frame {
+		private final FrameBuffer pixels = new FrameBuffer();
+		private long number;
+	}
+
+	private final File file;
+	private final Format format;
+	private final int scale;
+	private final boolean lossless;
+	private final BlockingQueue<Frame> free; // Pool of frames to capture into.
+	private final BlockingQueue<Frame> queue; // Captured frames waiting for the encoder.
+
+	private long last = -1; // Number of the last frame captured.
+	private long offset; // Added to frame numbers so they never go backwards.
+	private boolean closed;
+	private long captured;
+	private long dropped;
+
+	private Thread thread;
+	private volatile IOException failure;
+	private volatile long encodedUpTo = -1; // Number of the last frame the encoder took.
+	private volatile long encodeNanos;
+
+	// Encoder state, only touched on the encoder thread.
+	private BufferedImage image;
+	private byte[] pixels;
+	private int[] line = new int[FrameBuffer.HIGH_WIDTH];
+	private DataOutputStream raw;
+	private ImageWriter gifWriter;
+	private ImageOutputStream gifOutput;
+	private boolean looping; // The GIF has its loop extension.
+	private Frame pending; // GIF frame waiting for the next one to know how long it shows.
+	private long pendingStart; // When the pending frame shows, in hundredths of a second.
+	private long end; // Frame number the recording ends at.
+
+	/**
+	 * Creates an exporter that drops frames the encoder can't keep up with,
+	 * at the default scale.
+	 * 
+	 * @param file - The output file.
+	 */
+	public VideoExporter(File file) {
+		this(file, Format.forFile(file), DEFAULT_SCALE, DEFAULT_QUEUE_FRAMES, false);
+	}
+
+	/**
+	 * Creates an exporter.
+	 * 
+	 * @param file - The output file, see {@link Format} for the PNG names.
+	 * @param format - The format to write.
+	 * @param scale - Output pixels per pixel at the largest resolution.
+	 * @param queueFrames - Frames that may wait for the encoder.
+	 * @param lossless - True to wait for the encoder instead of dropping frames.
+	 */
+	public VideoExporter(File file, Format format, int scale, int queueFrames, boolean lossless) {
+		this.file = file;
+		this.format = format;
+		this.scale = Math.max(1, scale);
+		this.lossless = lossless;
+
+		// One more frame for the encoder and one for the GIF frame it holds back.
+		int pool = Math.max(1, queueFrames) + 2;
+		free = new ArrayBlockingQueue<>(pool);
+		queue = new ArrayBlockingQueue<>(pool + 1);
+		for (int i = 0; i < pool; i++) {
+			free.add(new Frame());
+		}
+	}
+
+	/**
+	 * Opens the output and starts the encoder thread.
+	 * 
+	 * @throws IOException If the output could not be opened.
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			return;
+		}
+		switch (format) {
+		case RAW:
+			raw = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			raw.writeInt(RAW_MAGIC);
+			raw.writeInt(RAW_VERSION);
+			break;
+		case GIF:
+			gifWriter = ImageIO.getImageWritersByFormatName("gif").next();
+			file.delete();
+			gifOutput = ImageIO.createImageOutputStream(file);
+			gifWriter.setOutput(gifOutput);
+			gifWriter.prepareWriteSequence(null);
+			break;
+		default:
+			break;
+		}
+		thread = new Thread(this, "chip8-video");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Captures a frame, called on the emulation thread. Frame numbers that go
+	 * back, after a ROM switch or rewinding, carry on from the last one.
+	 * 
+	 * @param frame - Number of the frame the picture was finished in.
+	 * @param frameBuffer - The picture.
+	 * @return False if the frame was dropped.
+	 */
+	public synchronized boolean capture(long frame, FrameBuffer frameBuffer) {
+		if (closed || thread == null || failure != null) {
+			return false;
+		}
+
+		Frame f;
+		try {
+			f = lossless ? free.take() : free.poll();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			f = null;
+		}
+		if (f == null) {
+			dropped++;
+			return false;
+		}
+
+		long number = frame + offset;
+		if (number <= last) {
+			offset += last + 1 - number;
+			number = last + 1;
+		}
+		last = number;
+		frameBuffer.copyTo(f.pixels);
+		f.number = number;
+		queue.add(f);
+		captured++;
+		return true;
+	}
+
+	/**
+	 * Lets the encoder write everything captured, finishes the output and
+	 * stops the encoder thread.
+	 * 
+	 * @param frame - Number of the frame the recording ends at, the last
+	 *            picture is shown until then.
+	 * @throws IOException If the encoder failed.
+	 */
+	public void close(long frame) throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			end = Math.max(frame + offset, last + 1);
+		}
+		if (thread != null) {
+			try {
+				queue.put(END);
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Frame f = queue.take();
+				if (f == END) {
+					break;
+				}
+				long start = System.nanoTime();
+				if (!encode(f)) {
+					free.add(f);
+				}
+				encodeNanos += System.nanoTime() - start;
+				encodedUpTo = f.number;
+			}
+			finish();
+		} catch (IOException e) {
+			failure = e;
+			free.clear(); // Nothing more gets captured.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			closeOutput();
+		}
+	}
+
+	/**
+	 * Writes a frame.
+	 * 
+	 * @return True if the encoder keeps the frame for later.
+	 */
+	private boolean encode(Frame f) throws IOException {
+		switch (format) {
+		case RAW:
+			FrameBuffer p = f.pixels;
+			raw.writeLong(f.number);
+			raw.writeShort(p.getWidth());
+			raw.writeShort(p.getHeight());
+			raw.writeByte(p.getPlanes());
+			for (int plane = 0; plane < p.getPlanes(); plane++) {
+				for (int y = 0; y < p.getHeight(); y++) {
+					for (int w = 0; w < p.getWordsPerRow(); w++) {
+						raw.writeLong(p.getWord(plane, y, w));
+					}
+				}
+			}
+			return false;
+		case PNG:
+			draw(f.pixels);
+			ImageIO.write(image, "png", pngFile(f.number));
+			return false;
+		default:
+			long start = hundredths(f.number);
+			if (pending != null && start - pendingStart < MIN_GIF_DELAY) {
+				// Too soon after the pending frame, it is replaced but keeps its start.
+				free.add(pending);
+				pending = f;
+				return true;
+			}
+			if (pending != null) {
+				writeGif(pending, (int) (start - pendingStart));
+				free.add(pending);
+			}
+			pending = f;
+			pendingStart = start;
+			return true;
+		}
+	}
+
+	/**
+	 * Writes out what the encoder still holds on to.
+	 */
+	private void finish() throws IOException {
+		if (format == Format.GIF && pending != null) {
+			writeGif(pending, (int) Math.max(MIN_GIF_DELAY, hundredths(end) - pendingStart));
+			free.add(pending);
+			pending = null;
+		}
+		if (raw != null) {
+			raw.flush();
+		}
+		if (gifWriter != null) {
+			gifWriter.endWriteSequence();
+		}
+	}
+
+	private void closeOutput() {
+		try {
+			if (raw != null) {
+				raw.close();
+			}
+			if (gifOutput != null) {
+				gifOutput.close();
+			}
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+		if (gifWriter != null) {
+			gifWriter.dispose();
+		}
+	}
+
+	private static long hundredths(long frame) {
+		return frame * 100 / Scheduler.FRAME_RATE;
+	}
+
+	private File pngFile(long number) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		return new File(file.getAbsoluteFile().getParentFile(), String.format("%s_%06d.png", base, number));
+	}
+
+	/**
+	 * Draws a frame into the picture, creating the picture on the first frame.
+	 */
+	private void draw(FrameBuffer frame) {
+		if (image == null) {
+			boolean extended = frame.getMode().isExtended();
+			int width = (extended ? FrameBuffer.HIGH_WIDTH : FrameBuffer.WIDTH) * scale;
+			int height = (extended ? FrameBuffer.HIGH_HEIGHT : FrameBuffer.HEIGHT) * scale;
+			// Same colors as the screen.
+			byte[] r = { 0, (byte) 0xFF, (byte) 0xAA, 0x55 };
+			image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+					new IndexColorModel(8, 4, r, r, r));
+			pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		}
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+		// A mode switch to a larger resolution is cut off rather than shrunk.
+		int px = Math.max(1, width / frame.getWidth());
+		int rows = Math.min(frame.getHeight(), height / px);
+		int columns = Math.min(frame.getWidth(), width / px);
+		for (int y = 0; y < rows; y++) {
+			frame.expandRow(y, line, INDICES);
+			int offset = y * px * width;
+			for (int x = 0; x < columns; x++) {
+				byte value = (byte) line[x];
+				for (int i = 0; i < px; i++) {
+					pixels[offset + x * px + i] = value;
+				}
+			}
+			for (int i = 1; i < px; i++) {
+				System.arraycopy(pixels, offset, pixels, offset + i * width, width);
+			}
+		}
+	}
+
+	private void writeGif(Frame f, int delay) throws IOException {
+		// A picture that stays longer than a GIF delay goes is shown again.
+		for (; delay > MAX_GIF_DELAY; delay -= MAX_GIF_DELAY) {
+			writeGif(f, MAX_GIF_DELAY);
+		}
+
+		draw(f.pixels);
+		ImageWriteParam param = gifWriter.getDefaultWriteParam();
+		IIOMetadata metadata = gifWriter.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+		String name = metadata.getNativeMetadataFormatName();
+		IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(name);
+
+		IIOMetadataNode control = child(root, "GraphicControlExtension");
+		control.setAttribute("disposalMethod", "none");
+		control.setAttribute("userInputFlag", "FALSE");
+		control.setAttribute("transparentColorFlag", "FALSE");
+		control.setAttribute("transparentColorIndex", "0");
+		control.setAttribute("delayTime", Integer.toString(delay));
+
+		if (!looping) {
+			// Loop forever, the NETSCAPE2.0 extension goes with the first frame.
+			looping = true;
+			IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+			loop.setAttribute("applicationID", "NETSCAPE");
+			loop.setAttribute("authenticationCode", "2.0");
+			loop.setUserObject(new byte[] { 1, 0, 0 });
+			child(root, "ApplicationExtensions").appendChild(loop);
+		}
+
+		metadata.setFromTree(name, root);
+		gifWriter.writeToSequence(new IIOImage(image, null, metadata), param);
+	}
+
+	private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+		for (int i = 0; i < parent.getLength(); i++) {
+			if (parent.item(i).getNodeName().equals(name)) {
+				return (IIOMetadataNode) parent.item(i);
+			}
+		}
+		IIOMetadataNode node = new IIOMetadataNode(name);
+		parent.appendChild(node);
+		return node;
+	}
+
+	/**
+	 * Getter for the number of frames captured.
+	 * 
+	 * @return Frames queued for the encoder so far.
+	 */
+	public synchronized long getCaptured() {
+		return this.captured;
+	}
+
+	/**
+	 * Getter for the number of frames dropped because the encoder was behind.
+	 * 
+	 * @return Frames dropped so far.
+	 */
+	public synchronized long getDropped() {
+		return this.dropped;
+	}
+
+	/**
+	 * Gets how much faster than real time the encoder runs, the time the
+	 * frames written cover over the time spent writing them.
+	 * 
+	 * @return The speed, 1 is real time.
+	 */
+	public double getSpeed() {
+		long nanos = encodeNanos;
+		long covered = (encodedUpTo + 1) * Scheduler.FRAME_NANOS;
+		return nanos > 0 ? (double) covered / nanos : 0;
+	}
+
+	/**
+	 * Getter for the time the encoder spent writing.
+	 * 
+	 * @return Nanoseconds.
+	 */
+	public long getEncodeNanos() {
+		return this.encodeNanos;
+	}
+}